@@ -0,0 +1,75 @@
+package ai.clarity;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decompressing and parsing a whole {@code .csv.gz} result, summing one numeric column: on a single thread with
+ * {@link CsvResultReader}, and with {@link ParallelCsvReader} delivering the rows in order and unordered
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CsvReadBenchmark {
+
+    @Param({"1000000"})
+    private int rows;
+
+    private Path file;
+
+    @Setup
+    public void createFile() throws IOException {
+        file = Files.createTempFile("benchmark", ".csv.gz");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file)),
+                                                    StandardCharsets.UTF_8)) {
+            writer.write("isin,name,ESG,ENVIRONMENTAL,SOCIAL,GOVERNANCE\n");
+            for(int i = 0; i < rows; i++) {
+                writer.write("US" + (1_000_000_000L + i) + ",\"Company " + i + ", Inc.\"," + (i % 100) + ".25,"
+                        + (i % 37) + ".5," + (i % 53) + ".75," + (i % 11) + "\n");
+            }
+        }
+    }
+
+    @TearDown
+    public void deleteFile() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public double sequential() {
+        double total = 0;
+        try (CsvResultReader reader = CsvResultReader.open(file)) {
+            while(reader.hasNext()) {
+                total += reader.next().getDouble(2);
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public double parallelOrdered() {
+        double[] total = new double[1];
+        try (ParallelCsvReader reader = ParallelCsvReader.open(file)) {
+            reader.forEach(row -> total[0] += row.getDouble(2));
+        }
+        return total[0];
+    }
+
+    @Benchmark
+    public double parallelUnordered() {
+        DoubleAdder total = new DoubleAdder();
+        try (ParallelCsvReader reader = ParallelCsvReader.open(file)) {
+            reader.forEachUnordered(row -> total.add(row.getDouble(2)));
+        }
+        return total.sum();
+    }
+}
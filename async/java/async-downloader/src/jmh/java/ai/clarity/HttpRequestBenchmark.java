@@ -0,0 +1,58 @@
+package ai.clarity;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Requests per second through {@link HttpRequestHelper} against a local stub, one at a time and with many in
+ * flight on the shared client
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HttpRequestBenchmark {
+
+    private static final Map<String, String> HEADERS = Map.of("Content-Type", "application/json",
+                                                              "Authorization", "Bearer BENCHMARK_TOKEN");
+    private static final String BODY = "{\"scoreIds\": [\"ESG\"], \"securityTypes\": [\"EQUITY\"]}";
+    private static final int IN_FLIGHT = 32;
+
+    @Param({"0", "5"})
+    private long latencyMillis;
+
+    private StubApiServer server;
+    private String url;
+
+    @Setup
+    public void startServer() {
+        server = new StubApiServer(latencyMillis, 0, 0);
+        url = server.getDomain() + "/clarity/v1/public/echo";
+    }
+
+    @TearDown
+    public void stopServer() {
+        server.close();
+    }
+
+    @Benchmark
+    public Optional<String> postRequest() {
+        return HttpRequestHelper.postRequest(url, HEADERS, BODY);
+    }
+
+    /**
+     * {@value #IN_FLIGHT} requests at once, so each operation is a round of concurrent requests
+     */
+    @Benchmark
+    @OperationsPerInvocation(IN_FLIGHT)
+    public Object concurrentPostAsync() {
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[IN_FLIGHT];
+        for(int i = 0; i < IN_FLIGHT; i++) {
+            responses[i] = HttpRequestHelper.postAsync(url, HEADERS, BODY);
+        }
+        return CompletableFuture.allOf(responses).join();
+    }
+}
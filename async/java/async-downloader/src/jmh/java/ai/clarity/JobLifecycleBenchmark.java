@@ -0,0 +1,69 @@
+package ai.clarity;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Whole life of async jobs against a local stub with simulated latency: token, job request, status checks until
+ * the job finishes and download of its results
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JobLifecycleBenchmark {
+
+    private static final String API_PATH = "/securities/esg-risk/scores-by-id/async";
+    private static final Map<String, Object> PARAMS = Map.of("scoreIds", List.of("ESG", "ENVIRONMENTAL"));
+    private static final int BATCH_JOBS = 8;
+
+    @Param({"0", "20"})
+    private long latencyMillis;
+
+    @Param({"100"})
+    private long jobDurationMillis;
+
+    @Param({"10000"})
+    private int resultRows;
+
+    private StubApiServer server;
+    private AsyncDownloader downloader;
+    private List<JobSpec> batch;
+
+    @Setup
+    public void startServer() {
+        server = new StubApiServer(latencyMillis, jobDurationMillis, resultRows);
+        downloader = new AsyncDownloader(server.getDomain(), "BENCHMARK_KEY", "BENCHMARK_SECRET", PollingStrategy.fixed(10));
+        batch = IntStream.range(0, BATCH_JOBS)
+                .mapToObj(i -> JobSpec.of(API_PATH, PARAMS))
+                .collect(Collectors.toList());
+    }
+
+    @TearDown
+    public void stopServer() {
+        server.close();
+    }
+
+    @Benchmark
+    public Path singleJob() throws IOException {
+        Path path = downloader.downloadAsync(API_PATH, PARAMS).join();
+        Files.delete(path);
+        return path;
+    }
+
+    @Benchmark
+    public List<JobResult> jobBatch() throws IOException {
+        List<JobResult> results = new JobBatch(downloader, BATCH_JOBS).run(batch);
+        for(JobResult result : results) {
+            Files.delete(result.getPath().orElseThrow());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,52 @@
+package ai.clarity;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Serialization of job parameters and parsing of API responses, with a body as big as the number of ids sent
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonBenchmark {
+
+    @Param({"10", "1000"})
+    private int ids;
+
+    private Map<String, Object> params;
+    private String json;
+
+    @Setup
+    public void createParams() {
+        params = new LinkedHashMap<>();
+        params.put("scoreIds", List.of("ESG", "ENVIRONMENTAL", "SOCIAL", "GOVERNANCE"));
+        params.put("securityTypes", List.of("EQUITY"));
+        params.put("securityIds", IntStream.range(0, ids)
+                .mapToObj(i -> String.format("US%010d", i))
+                .collect(Collectors.toList()));
+        json = HttpRequestHelper.mapToJson(params).get();
+    }
+
+    @Benchmark
+    public Optional<String> mapToJson() {
+        return HttpRequestHelper.mapToJson(params);
+    }
+
+    @Benchmark
+    public Optional<String> mapToCanonicalJson() {
+        return HttpRequestHelper.mapToCanonicalJson(params);
+    }
+
+    @Benchmark
+    public Optional<Map<String, Object>> jsonToMap() {
+        return HttpRequestHelper.jsonToMap(json);
+    }
+}
@@ -0,0 +1,134 @@
+package ai.clarity;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the public API, so the benchmarks measure the client and not the network.
+ *
+ * Every response is delayed by {@code latencyMillis} to simulate the round trip. Jobs are reported as running
+ * until {@code jobDurationMillis} after they were requested, then their result is a gzipped CSV with
+ * {@code resultRows} rows. {@code POST /clarity/v1/public/echo} answers with the same body it receives.
+ */
+class StubApiServer implements AutoCloseable {
+
+    private static final String PUBLIC_PATH = "/clarity/v1/public";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final long latencyMillis;
+    private final long jobDurationMillis;
+    private final byte[] result;
+    private final Map<String, Long> jobStarts = new ConcurrentHashMap<>();
+    private final AtomicInteger jobs = new AtomicInteger();
+
+    StubApiServer(long latencyMillis, long jobDurationMillis, int resultRows) {
+        this.latencyMillis = latencyMillis;
+        this.jobDurationMillis = jobDurationMillis;
+        this.result = csvResult(resultRows);
+        try {
+            this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 1024);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't start the stub API server", e);
+        }
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    String getDomain() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if(latencyMillis > 0) {
+                Thread.sleep(latencyMillis);
+            }
+            String path = exchange.getRequestURI().getPath();
+            String method = exchange.getRequestMethod();
+
+            if(path.equals("/clarity/v1/oauth/token")) {
+                respond(exchange, 200, json("{\"token\": \"BENCHMARK_TOKEN\"}"));
+            }
+            else if(path.equals(PUBLIC_PATH + "/echo")) {
+                respond(exchange, 200, body);
+            }
+            else if(method.equals("POST") && path.endsWith("/async")) {
+                String jobId = "BENCHMARK_JOB_" + jobs.incrementAndGet();
+                jobStarts.put(jobId, System.nanoTime());
+                respond(exchange, 200, json("{\"uuid\": \"" + jobId + "\"}"));
+            }
+            else if(path.startsWith(PUBLIC_PATH + "/job/") && path.endsWith("/status")) {
+                String jobId = path.substring((PUBLIC_PATH + "/job/").length(), path.length() - "/status".length());
+                Long start = jobStarts.get(jobId);
+                if(start == null) {
+                    respond(exchange, 404, json("{\"statusMessage\": \"NOT_FOUND\"}"));
+                }
+                else if((System.nanoTime() - start) / 1_000_000 < jobDurationMillis) {
+                    respond(exchange, 200, json("{\"statusMessage\": \"RUNNING\"}"));
+                }
+                else {
+                    respond(exchange, 302, json("{\"statusMessage\": \"SUCCESS\"}"));
+                }
+            }
+            else if(path.startsWith(PUBLIC_PATH + "/job/") && path.endsWith("/fetch")) {
+                if(method.equals("HEAD")) {
+                    exchange.sendResponseHeaders(200, -1);
+                }
+                else {
+                    respond(exchange, 200, result);
+                }
+            }
+            else {
+                respond(exchange, 404, new byte[0]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if(body.length > 0) {
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    private static byte[] json(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] csvResult(int rows) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write("id,ESG,ENVIRONMENTAL\n".getBytes(StandardCharsets.UTF_8));
+            for(int i = 0; i < rows; i++) {
+                out.write(String.format("US%010d,%d.5,%d.25%n", i, i % 100, (i * 7) % 100).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -1,148 +1,553 @@
 package ai.clarity;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class AsyncDownloader {
 
     private static final short DEFAULT_WAITING_MILISECS = 30 * 1000;
+    private static final short DEFAULT_INITIAL_WAITING_MILISECS = 1000;
+    private static final double DEFAULT_JITTER = 0.2;
+    private static final int DEFAULT_DOWNLOAD_CHUNKS = 1;
     private static final Logger logger = Logger.getLogger(AsyncDownloader.class.getName());
 
-    private String token;
+    // Created on first use, as it calls back the overridable requestNewTokenAsync
+    private volatile TokenProvider tokenProvider;
     private final String domain;
     private final String key;
     private final String secret;
 
-    private final int waitingTime;
+    private final PollingStrategy pollingStrategy;
+    private int downloadChunks = DEFAULT_DOWNLOAD_CHUNKS;
+    private RequestExecutor requestExecutor = RequestExecutor.shared();
+    private ResultCache resultCache;
+    private JobJournal jobJournal;
+    private final Map<String, CompletableFuture<Path>> followedJobs = new ConcurrentHashMap<>();
+    // The jobs being waited for, so the status checks of all of them share a source and can be batched
+    private final Map<String, WaitingJob> waitingJobs = new ConcurrentHashMap<>();
+    private final JobStatusSource statusSource = this::checkJobStatusAsync;
+    private JobMetrics metrics = JobMetrics.NO_OP;
 
-    public AsyncDownloader(String domain, String key, String secret, int waitingTime) {
+    public AsyncDownloader(String domain, String key, String secret, PollingStrategy pollingStrategy) {
         this.domain = domain;
         this.key = key;
         this.secret = secret;
-        this.waitingTime = waitingTime;
+        this.pollingStrategy = pollingStrategy;
+    }
+
+    /**
+     * Check the status of the jobs always every {@code waitingTime} milliseconds
+     */
+    public AsyncDownloader(String domain, String key, String secret, int waitingTime) {
+        this(domain, key, secret, PollingStrategy.fixed(waitingTime));
     }
 
+    /**
+     * Check the status of the jobs often at first and less and less often while they keep running, learning
+     * the usual duration of the jobs of each endpoint to check them around their expected completion time
+     */
     public AsyncDownloader(String domain, String key, String secret) {
-        this(domain, key, secret, DEFAULT_WAITING_MILISECS);
+        this(domain, key, secret, defaultPollingStrategy());
+    }
+
+    /**
+     * Number of parallel Range requests used to download each job result. By default each result is downloaded
+     * in a single request: splitting costs an extra HEAD request and a {@code .parts} file, so it only pays off
+     * for large results on connections that don't reach their bandwidth with one request.
+     */
+    public AsyncDownloader withDownloadChunks(int downloadChunks) {
+        this.downloadChunks = downloadChunks;
+        return this;
+    }
+
+    /**
+     * Executor that applies the retry policies, circuit breakers and concurrency limit to the requests.
+     * By default all the downloaders share {@link RequestExecutor#shared()}.
+     */
+    public AsyncDownloader withRequestExecutor(RequestExecutor requestExecutor) {
+        this.requestExecutor = requestExecutor;
+        return this;
+    }
+
+    /**
+     * Keep the downloaded results in a local cache, so {@link #download} and {@link #downloadAsync} return the
+     * cached file for repeated requests without requesting a new job
+     */
+    public AsyncDownloader withResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+        return this;
+    }
+
+    /**
+     * Whether the file is a result kept by the result cache, so it must not be deleted once it's been used
+     */
+    boolean isCached(Path path) {
+        return resultCache != null && resultCache.contains(path);
+    }
+
+    /**
+     * Record the jobs in {@code jobJournal}, so a job still running when the process stops is followed again
+     * instead of requested again: {@link #downloadAsync} reuses the unfinished job with the same endpoint and params,
+     * and {@link #resumeUnfinishedJobs()} follows all of them
+     */
+    public AsyncDownloader withJobJournal(JobJournal jobJournal) {
+        this.jobJournal = jobJournal;
+        return this;
+    }
+
+    /**
+     * Report the time of each phase of the jobs, the status checks they needed, the download throughput and the
+     * retries of the requests to {@code metrics}, e.g. {@link JfrJobMetrics}. Nothing is reported by default.
+     */
+    public AsyncDownloader withMetrics(JobMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    private static PollingStrategy defaultPollingStrategy() {
+        PollingStrategy backoff = PollingStrategy.exponential(DEFAULT_INITIAL_WAITING_MILISECS, 2, DEFAULT_WAITING_MILISECS);
+        return PollingStrategy.jittered(
+                new HistoryBasedPollingStrategy(backoff, DEFAULT_INITIAL_WAITING_MILISECS, DEFAULT_WAITING_MILISECS),
+                DEFAULT_JITTER);
     }
 
     public String download(String apiPath, Map<String, Object> data) {
-        String jobId = requestAsync(apiPath, data);
-        waitForJob(jobId);
-        return downloadJobResult(jobId);
+        return join(downloadAsync(apiPath, data)).toString();
+    }
+
+    /**
+     * Request an async job, wait for it to finish and download its results without blocking the calling thread.
+     * Status checks are made by the shared {@link JobStatusTracker}, so a handful of threads can follow many
+     * concurrent jobs.
+     *
+     * @return   A future completed with the path of the downloaded results file
+     */
+    public CompletableFuture<Path> downloadAsync(String apiPath, Map<String, Object> data) {
+        if(resultCache != null) {
+            return resultCache.getOrDownload(apiPath, data, () -> downloadJobAsync(apiPath, data));
+        }
+        return downloadJobAsync(apiPath, data);
+    }
+
+    private CompletableFuture<Path> downloadJobAsync(String apiPath, Map<String, Object> data) {
+        if(jobJournal == null) {
+            return requestJobAsync(apiPath, data)
+                    .thenCompose(jobId -> waitForJobAsync(jobId, apiPath)
+                            .thenCompose(finished -> downloadJobResultAsync(jobId, apiPath)));
+        }
+        Optional<JobJournal.Entry> unfinished = jobJournal.findUnfinished(apiPath, data);
+        if(unfinished.isEmpty()) {
+            return submitJournaledJobAsync(apiPath, data);
+        }
+        logger.log(Level.INFO, () -> "Resuming job " + unfinished.get().jobId() + " found in the journal");
+        // The job may have expired in the API meanwhile, then a new one is requested
+        return followJobAsync(unfinished.get())
+                .exceptionallyCompose(error -> submitJournaledJobAsync(apiPath, data));
+    }
+
+    /**
+     * Follow again all the unfinished jobs of the journal, e.g. right after a restart, until their results are
+     * downloaded
+     *
+     * @return   A future with the path of the results of each job
+     */
+    public Map<JobJournal.Entry, CompletableFuture<Path>> resumeUnfinishedJobs() {
+        if(jobJournal == null) {
+            throw new IllegalStateException("There is no job journal, use withJobJournal first");
+        }
+        Map<JobJournal.Entry, CompletableFuture<Path>> results = new LinkedHashMap<>();
+        for(JobJournal.Entry job : jobJournal.getUnfinishedJobs()) {
+            results.put(job, resumeJobAsync(job));
+        }
+        return results;
+    }
+
+    /**
+     * Follow a journaled job through the result cache, if there is one, so its results aren't downloaded again if
+     * they are already cached, and a {@link #downloadAsync} of the same extract shares the download
+     */
+    private CompletableFuture<Path> resumeJobAsync(JobJournal.Entry job) {
+        if(resultCache == null) {
+            return followJobAsync(job);
+        }
+        Optional<Path> cached = resultCache.get(job.key());
+        if(cached.isPresent()) {
+            return jobJournal.recordDownloaded(job, cached.get()).thenApply(written -> cached.get());
+        }
+        return resultCache.getOrDownload(job.key(), job.apiPath(), () -> followJobAsync(job));
+    }
+
+    private CompletableFuture<Path> submitJournaledJobAsync(String apiPath, Map<String, Object> data) {
+        return requestJobAsync(apiPath, data)
+                .thenCompose(jobId -> jobJournal.recordSubmitted(apiPath, data, jobId))
+                .thenCompose(this::followJobAsync);
+    }
+
+    /**
+     * Wait for a journaled job and download its results, recording each change of state. A job followed twice,
+     * e.g. resumed and requested again, is only downloaded once. The results are moved into the cache, if there
+     * is one, before they are recorded, so the journal has their final path.
+     */
+    private CompletableFuture<Path> followJobAsync(JobJournal.Entry job) {
+        CompletableFuture<Path> followed = new CompletableFuture<>();
+        CompletableFuture<Path> existing = followedJobs.putIfAbsent(job.jobId(), followed);
+        if(existing != null) {
+            return existing;
+        }
+
+        CompletableFuture<Void> finished = job.state() == JobJournal.State.FINISHED
+                ? CompletableFuture.completedFuture(null)
+                : waitForJobAsync(job.jobId(), job.apiPath()).thenCompose(done -> jobJournal.recordFinished(job));
+        finished.thenCompose(done -> downloadJobResultAsync(job.jobId(), job.apiPath()))
+                .thenApply(path -> resultCache != null ? resultCache.put(job.key(), path) : path)
+                .thenCompose(path -> jobJournal.recordDownloaded(job, path).thenApply(written -> path))
+                .whenComplete((path, error) -> {
+                    followedJobs.remove(job.jobId(), followed);
+                    if(error != null) {
+                        jobJournal.recordFailed(job);
+                        followed.completeExceptionally(RetryPolicy.unwrap(error));
+                    }
+                    else {
+                        followed.complete(path);
+                    }
+                });
+        return followed;
+    }
+
+    /**
+     * Request an async job and, once it finishes, open its gzipped CSV results as a stream straight from the
+     * HTTP response, without writing them to a temporary file
+     */
+    public CompletableFuture<InputStream> downloadStreamAsync(String apiPath, Map<String, Object> data) {
+        return requestJobAsync(apiPath, data)
+                .thenCompose(jobId -> waitForJobAsync(jobId, apiPath)
+                        .thenCompose(finished -> streamJobResultAsync(jobId, apiPath)));
+    }
+
+    /**
+     * Request an async job and read its results row by row while they are being downloaded.
+     * Close the reader when done to release the connection.
+     */
+    public CsvResultReader downloadRows(String apiPath, Map<String, Object> data) {
+        return CsvResultReader.fromGzip(join(downloadStreamAsync(apiPath, data)), CsvResultReader.DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Request an async job and compare its results with the previous snapshot of {@code extractor} while they are
+     * being downloaded, reporting only the inserted, updated and deleted rows to {@code listener}.
+     * If the extractor was opened with an index file, the new snapshot is saved once all the rows were processed.
+     */
+    public DeltaStats downloadDelta(String apiPath, Map<String, Object> data, DeltaExtractor extractor,
+                                    DeltaListener listener) {
+        DeltaStats stats;
+        try (CsvResultReader rows = downloadRows(apiPath, data)) {
+            stats = extractor.diff(rows, listener);
+        }
+        if(extractor.hasIndexFile()) {
+            extractor.save();
+        }
+        return stats;
     }
 
     protected String requestNewToken() {
+        return join(requestNewTokenAsync());
+    }
+
+    protected CompletableFuture<String> requestNewTokenAsync() {
         Map<String, String> headers = Map.of("Content-type", "application/json");
 
         Map<String, Object> bodyParams = Map.of("key", this.key, "secret", this.secret);
         var jsonBody = HttpRequestHelper.mapToJson(bodyParams).get();
 
         var url = domain + "/clarity/v1/oauth/token";
-        logger.log(Level.INFO, "Requesting new token to " + url);
-        Optional<String> response = HttpRequestHelper.postRequest(url, headers, jsonBody);
-        if(response.isEmpty()){
-            throw new RuntimeException("Couldn't request the access token");
-        }
-        Map<String, Object> responseMap = HttpRequestHelper.jsonToMap(response.get()).get();
-        return (String) responseMap.get("token");
+        logger.log(Level.INFO, () -> "Requesting new token to " + url);
+        JobMetrics.Timer timer = metrics.start(null, JobMetrics.Phase.TOKEN);
+        return requestExecutor.execute(Endpoint.TOKEN, null, metrics,
+                        () -> HttpRequestHelper.postPermittedAsync(url, headers, jsonBody))
+                .handle((response, error) -> {
+                    timer.stop(error == null);
+                    if(error != null) {
+                        throw new RuntimeException("Couldn't request the access token", RetryPolicy.unwrap(error));
+                    }
+                    return HttpRequestHelper.jsonToObject(response, TokenResponse.class)
+                            .map(TokenResponse::token)
+                            .orElseThrow(() -> new RuntimeException("Couldn't read the access token"));
+                });
     }
 
     protected String requestAsync(String apiPath, Map<String, Object> data) {
+        return join(requestJobAsync(apiPath, data));
+    }
+
+    protected CompletableFuture<String> requestJobAsync(String apiPath, Map<String, Object> data) {
         String url = getUrl(apiPath);
-        Map<String, String> headers = getHeaders();
         String jsonData = HttpRequestHelper.mapToJson(data).get();
 
-        logger.log(Level.INFO, "Requesting Job to " + url + " with data " + jsonData);
+        logger.log(Level.INFO, () -> "Requesting Job to " + url);
+        logger.log(Level.FINE, () -> "Job data: " + jsonData);
+
+        JobMetrics.Timer timer = metrics.start(apiPath, JobMetrics.Phase.SUBMIT);
+        return sendWithTokenRetry(Endpoint.SUBMIT, apiPath,
+                        headers -> HttpRequestHelper.postPermittedAsync(url, headers, jsonData))
+                .handle((response, error) -> {
+                    timer.stop(error == null);
+                    if(error != null) {
+                        throw new RuntimeException("The request for an async job failed", RetryPolicy.unwrap(error));
+                    }
+                    String jobId = HttpRequestHelper.jsonToObject(response, JobSubmitResponse.class)
+                            .map(JobSubmitResponse::uuid)
+                            .orElse(null);
 
-        var response = HttpRequestHelper.postRequest(url, headers, jsonData);
+                    if(jobId == null) {
+                        throw new RuntimeException("The request for an async job failed");
+                    }
+                    else {
+                        logger.log(Level.INFO, () -> "Requested Job with UUID:" + jobId);
+                        return jobId;
+                    }
+                });
+    }
 
-        String jobId = null;
-        if(response.isPresent()) {
-            Map<String, Object> responseMap = HttpRequestHelper.jsonToMap(response.get()).get();
+    protected void waitForJob(String jobId) {
+        join(waitForJobAsync(jobId, null));
+    }
 
-            if(responseMap.containsKey("uuid")) {
-                jobId = (String) responseMap.get("uuid");
-            }
-        }
+    /**
+     * @param apiPath   Endpoint that created the job, used by the polling strategy. Null if unknown
+     */
+    protected CompletableFuture<Void> waitForJobAsync(String jobId, String apiPath) {
+        logger.log(Level.INFO, () -> "Waiting for job with id " + jobId + " to finish...");
+        JobMetrics.Timer timer = metrics.start(apiPath, JobMetrics.Phase.WAIT);
+        WaitingJob waitingJob = waitingJobs.computeIfAbsent(jobId, id -> new WaitingJob(apiPath));
+        return JobStatusTracker.shared()
+                .track(jobId, apiPath, this.pollingStrategy, statusSource)
+                .whenComplete((status, error) -> {
+                    waitingJobs.remove(jobId, waitingJob);
+                    timer.stop("SUCCESS".equals(status));
+                    metrics.recordStatusChecks(apiPath, waitingJob.checks.get());
+                })
+                .thenAccept(status -> {
+                    if(!"SUCCESS".equals(status)) {
+                        throw new RuntimeException("The job " + jobId + " didn't finish correctly. Status: " + status);
+                    }
+                    logger.log(Level.INFO, () -> "The job with id " + jobId + " finished correctly");
+                });
+    }
 
-        if(jobId == null) {
-            throw new RuntimeException("The request for an async job failed");
-        }
-        else {
-            logger.info("Requested Job with UUID:" + jobId);
-            return jobId;
+    private CompletableFuture<String> checkJobStatusAsync(String jobId) {
+        WaitingJob waitingJob = waitingJobs.get(jobId);
+        String apiPath = null;
+        if(waitingJob != null) {
+            waitingJob.checks.incrementAndGet();
+            apiPath = waitingJob.apiPath;
         }
+        JobMetrics.Timer checkTimer = metrics.start(apiPath, JobMetrics.Phase.STATUS);
+        return requestJobStatusAsync(jobId, apiPath).whenComplete((status, error) -> checkTimer.stop(error == null));
+    }
 
+    private CompletableFuture<String> requestJobStatusAsync(String jobId, String apiPath) {
+        String url = getUrl("/job/" + jobId + "/status");
+        return sendWithTokenRetry(Endpoint.STATUS, apiPath, headers -> HttpRequestHelper.getPermittedAsync(url, headers))
+                .handle((response, error) -> {
+                    // Failed jobs are reported with an error status and the final status message in the body
+                    Optional<String> status = error == null
+                            ? getJobStatusFromResponse(response)
+                            : getJobStatusFromError(RetryPolicy.unwrap(error));
+                    return status.orElseThrow(() -> new RuntimeException(
+                            "Error requesting the status of the job " + jobId, error == null ? null : RetryPolicy.unwrap(error)));
+                });
     }
 
-    protected void waitForJob(String jobId) {
-        logger.log(Level.INFO, "Waiting for job with id " + jobId + " to finish...");
-        String status = "RUNNING";
-        while(status.equals("RUNNING")) {
-            try {
-                Thread.sleep(this.waitingTime);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-            Map<String, String> headers = getHeaders();
-            String url = getUrl("/job/" + jobId + "/status");
-            Optional<String> response = HttpRequestHelper.getRequest(url, headers);
-            if(response.isPresent()) {
-                status = getJobStatusFromResponse(response.get());
-            }
-            else {
-                // It's possible that the token has expired. Try again renewing the token before failing definitively
-                this.token = null;
-                headers = getHeaders();
-                Optional<String> responseWithNewToken = HttpRequestHelper.getRequest(url, headers);
-                if(responseWithNewToken.isPresent()) {
-                    status = getJobStatusFromResponse(responseWithNewToken.get());
-                }
-                else {
-                    throw new RuntimeException("Error requesting the status of the job " + jobId);
-                }
-            }
-        }
+    /**
+     * Make a request through the {@link RequestExecutor} and, if the token is rejected, retry it once with a
+     * renewed token. Its retries are reported to the metrics of this downloader with {@code apiPath}.
+     */
+    private <T> CompletableFuture<T> sendWithTokenRetry(Endpoint endpoint, String apiPath,
+                                                        Function<Map<String, String>, CompletableFuture<T>> request) {
+        return getTokenProvider().getToken().thenCompose(token ->
+                requestExecutor.execute(endpoint, apiPath, metrics, () -> request.apply(getHeaders(token)))
+                        .exceptionallyCompose(error -> {
+                            if(!isUnauthorized(error)) {
+                                return CompletableFuture.failedFuture(RetryPolicy.unwrap(error));
+                            }
+                            // The token may have expired. Try again renewing the token before failing definitively
+                            getTokenProvider().invalidate(token);
+                            return getTokenProvider().getToken().thenCompose(newToken ->
+                                    requestExecutor.execute(endpoint, apiPath, metrics,
+                                            () -> request.apply(getHeaders(newToken))));
+                        }));
+    }
 
-        if(!status.equals("RUNNING") && !status.equals("SUCCESS")) {
-            throw new RuntimeException("The job " + jobId + " didn't finish correctly. Status: " + status);
-        }
+    private static boolean isUnauthorized(Throwable error) {
+        Throwable cause = RetryPolicy.unwrap(error);
+        return cause instanceof HttpStatusException && ((HttpStatusException) cause).getStatusCode() == 401;
+    }
 
-        logger.log(Level.INFO, "The job with id " + jobId + " finished correctly");
+    private Optional<String> getJobStatusFromResponse(String responseString) {
+        return JobStatusResponse.fromJson(responseString)
+                .map(JobStatusResponse::statusMessage);
     }
 
-    private String getJobStatusFromResponse(String responseString) {
-        Map<String, Object> responseMap = HttpRequestHelper.jsonToMap(responseString).get();
-        return (String) responseMap.get("statusMessage");
+    private Optional<String> getJobStatusFromError(Throwable error) {
+        if(!(error instanceof HttpStatusException)) {
+            return Optional.empty();
+        }
+        HttpStatusException statusError = (HttpStatusException) error;
+        if(statusError.getStatusCode() < 400 || statusError.getStatusCode() >= 500 || statusError.getStatusCode() == 401) {
+            return Optional.empty();
+        }
+        return statusError.getBody().flatMap(this::getJobStatusFromResponse);
     }
 
     protected String downloadJobResult(String jobId) {
-        Map<String, String> headers = getHeaders();
+        return join(downloadJobResultAsync(jobId)).toString();
+    }
+
+    protected CompletableFuture<Path> downloadJobResultAsync(String jobId) {
+        return downloadJobResultAsync(jobId, null);
+    }
+
+    private CompletableFuture<Path> downloadJobResultAsync(String jobId, String apiPath) {
         String url = getUrl("/job/" + jobId + "/fetch");
         String tmpDir = System.getProperty("java.io.tmpdir");
         Path path = Path.of(tmpDir, jobId + ".csv.gz");
-        HttpRequestHelper.downloadToFile(url, headers, path);
-        return path.toString();
+        JobMetrics.Timer timer = metrics.start(apiPath, JobMetrics.Phase.FETCH);
+        long start = System.nanoTime();
+        return sendWithTokenRetry(Endpoint.FETCH, apiPath,
+                headers -> HttpRequestHelper.downloadToFilePermittedAsync(url, headers, path, this.downloadChunks,
+                        requestExecutor.getScheduler()))
+                .whenComplete((downloaded, error) -> {
+                    timer.stop(error == null);
+                    if(error == null) {
+                        metrics.recordFetched(apiPath, downloaded.toFile().length(), System.nanoTime() - start);
+                    }
+                });
     }
 
-    private String getToken() {
-        if(this.token == null) {
-            this.token = requestNewToken();
+    protected CompletableFuture<InputStream> streamJobResultAsync(String jobId) {
+        return streamJobResultAsync(jobId, null);
+    }
+
+    /**
+     * The FETCH phase only lasts until the stream is open. The bytes and throughput are reported when the stream
+     * is closed, as they are read by the caller.
+     */
+    private CompletableFuture<InputStream> streamJobResultAsync(String jobId, String apiPath) {
+        String url = getUrl("/job/" + jobId + "/fetch");
+        JobMetrics.Timer timer = metrics.start(apiPath, JobMetrics.Phase.FETCH);
+        long start = System.nanoTime();
+        return sendWithTokenRetry(Endpoint.FETCH, apiPath,
+                        headers -> HttpRequestHelper.openStreamPermittedAsync(url, headers))
+                .whenComplete((stream, error) -> timer.stop(error == null))
+                .thenApply(stream -> metrics == JobMetrics.NO_OP ? stream : new MeteredInputStream(stream, apiPath, start));
+    }
+
+    /**
+     * Counts the bytes read from the results stream and reports them once it's closed
+     */
+    private class MeteredInputStream extends FilterInputStream {
+        private final String apiPath;
+        private final long start;
+        private long bytes;
+        private boolean closed;
+
+        MeteredInputStream(InputStream in, String apiPath, long start) {
+            super(in);
+            this.apiPath = apiPath;
+            this.start = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if(b >= 0) {
+                bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if(read > 0) {
+                bytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            bytes += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(!closed) {
+                closed = true;
+                metrics.recordFetched(apiPath, bytes, System.nanoTime() - start);
+            }
+            super.close();
         }
-        return this.token;
     }
 
-    private Map<String, String> getHeaders() {
+    private Map<String, String> getHeaders(String token) {
         return Map.of("Content-Type", "application/json",
-                      "Authorization", "Bearer " + getToken());
+                      "Authorization", "Bearer " + token);
+    }
+
+    private TokenProvider getTokenProvider() {
+        TokenProvider provider = tokenProvider;
+        if(provider == null) {
+            synchronized(this) {
+                provider = tokenProvider;
+                if(provider == null) {
+                    provider = new TokenProvider(this::requestNewTokenAsync);
+                    tokenProvider = provider;
+                }
+            }
+        }
+        return provider;
     }
 
     private String getUrl(String apiPath) {
         return domain + "/clarity/v1/public" + apiPath;
     }
 
+    /**
+     * Wait for the future and rethrow its failure as the original RuntimeException,
+     * so the blocking methods keep failing the same way they always did
+     */
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static class WaitingJob {
+        final String apiPath;
+        final AtomicInteger checks = new AtomicInteger();
+
+        WaitingJob(String apiPath) {
+            this.apiPath = apiPath;
+        }
+    }
 }
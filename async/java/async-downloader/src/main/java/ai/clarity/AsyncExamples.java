@@ -16,12 +16,18 @@ public class AsyncExamples {
         var asyncDownloader = new AsyncDownloader("https://api.clarity.ai", KEY, SECRET);
 
         // Requesting some ESG Risk data for the whole universe of Equities
-        Map<String, Object> params = Map.of("scoreIds", List.of("ESG", "ENVIRONMENTAL"),
-                                            "securityTypes", List.of("EQUITY"));
-        asyncDownloader.download("/securities/esg-risk/scores-by-id/async", params);
+        Map<String, Object> esgRiskParams = Map.of("scoreIds", List.of("ESG", "ENVIRONMENTAL"),
+                                                   "securityTypes", List.of("EQUITY"));
 
         // Requesting SFDR Data for the whole universe of Organizations
-        params = Map.of("metricIds", List.of("CARBON_FOOTPRINT", "GHG_INTENSITY"));
-        asyncDownloader.download("/organizations/sfdr/metric-by-id/async", params);
+        Map<String, Object> sfdrParams = Map.of("metricIds", List.of("CARBON_FOOTPRINT", "GHG_INTENSITY"));
+
+        // Both jobs are requested at once and run concurrently in the API
+        var jobBatch = new JobBatch(asyncDownloader);
+        List<JobResult> results = jobBatch.run(List.of(
+                JobSpec.of("/securities/esg-risk/scores-by-id/async", esgRiskParams),
+                JobSpec.of("/organizations/sfdr/metric-by-id/async", sfdrParams)));
+
+        results.forEach(System.out::println);
     }
 }
@@ -0,0 +1,107 @@
+package ai.clarity;
+
+import java.io.IOException;
+import java.time.Duration;
+
+/**
+ * Stops sending requests to an endpoint after {@code failureThreshold} consecutive failures, giving the API
+ * some time to recover.
+ *
+ * After {@code openDuration} a single trial request is let through: if it succeeds requests flow normally
+ * again, otherwise the breaker stays open for another period. While the breaker is not closed only the result of
+ * the trial changes its state, so late results of requests sent before it opened are ignored. Only server-side
+ * problems (network errors, 429 and 5xx statuses) count as failures; other errors mean the API is answering fine.
+ */
+public class CircuitBreaker {
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final int failureThreshold;
+    private final long openNanos;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    /**
+     * @param retryIn   Zero if the request can be sent, otherwise how long to wait before trying again
+     * @param trial     Whether the request is the trial of a half-open breaker, to be reported as such to
+     *                  {@link #onResult(Throwable, boolean)}
+     */
+    public record Permission(Duration retryIn, boolean trial) {}
+
+    public CircuitBreaker(int failureThreshold, Duration openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+    }
+
+    /**
+     * @return   Zero if the request can be sent, otherwise how long to wait before trying again
+     */
+    public Duration acquirePermission() {
+        return acquire().retryIn();
+    }
+
+    public synchronized Permission acquire() {
+        long now = System.nanoTime();
+        if(state == State.OPEN) {
+            long remaining = openedAt + openNanos - now;
+            if(remaining > 0) {
+                return new Permission(Duration.ofNanos(remaining), false);
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+        if(state == State.HALF_OPEN) {
+            if(trialInFlight) {
+                return new Permission(Duration.ofNanos(Math.max(openNanos / 10, 1)), false);
+            }
+            trialInFlight = true;
+            return new Permission(Duration.ZERO, true);
+        }
+        return new Permission(Duration.ZERO, false);
+    }
+
+    /**
+     * Report the result of a request sent while the breaker was closed
+     */
+    public void onResult(Throwable error) {
+        onResult(error, false);
+    }
+
+    /**
+     * @param trial   Whether the request was let through as the trial, see {@link Permission#trial()}
+     */
+    public synchronized void onResult(Throwable error, boolean trial) {
+        if(state != State.CLOSED && !trial) {
+            return;
+        }
+        if(trial) {
+            trialInFlight = false;
+        }
+        if(error != null && isFailure(RetryPolicy.unwrap(error))) {
+            consecutiveFailures++;
+            if(state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+                state = State.OPEN;
+                openedAt = System.nanoTime();
+            }
+        }
+        else {
+            consecutiveFailures = 0;
+            state = State.CLOSED;
+        }
+    }
+
+    public synchronized boolean isOpen() {
+        return state == State.OPEN && System.nanoTime() - openedAt < openNanos;
+    }
+
+    private static boolean isFailure(Throwable error) {
+        if(error instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) error).getStatusCode();
+            return statusCode == 429 || statusCode >= 500;
+        }
+        return error instanceof IOException;
+    }
+}
@@ -0,0 +1,20 @@
+package ai.clarity;
+
+import java.time.Duration;
+
+/**
+ * The request wasn't sent because too many requests to the same endpoint have failed recently
+ */
+public class CircuitBreakerOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Duration retryIn;
+
+    public CircuitBreakerOpenException(Endpoint endpoint, Duration retryIn) {
+        super("Circuit breaker open for " + endpoint + " requests, retry in " + retryIn.toMillis() + " ms");
+        this.retryIn = retryIn;
+    }
+
+    public Duration getRetryIn() { return retryIn; }
+}
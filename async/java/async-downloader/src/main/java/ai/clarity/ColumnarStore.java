@@ -0,0 +1,268 @@
+package ai.clarity;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalInt;
+
+/**
+ * Read-only columnar copy of a job result, so repeated lookups and scans don't parse the CSV again.
+ *
+ * Numeric columns (the scores and metrics) are stored as arrays of doubles, empty values as NaN, and text columns
+ * as dictionary codes. The ids are indexed to find the row of a security with a binary search. The file is
+ * mapped into memory, so values are read straight from the page cache without copying, and several processes
+ * opening the same file share its pages.
+ *
+ * <pre>
+ *     ColumnarStore store = ColumnarStore.convert(resultsPath, Path.of("esg-scores.col"), "id");
+ *     OptionalInt row = store.findRow("US0378331005");
+ *     double score = row.isPresent() ? store.getDouble(row.getAsInt(), "ESG_RISK") : Double.NaN;
+ * </pre>
+ *
+ * File layout, all numbers little endian: a header with the number of rows and columns, the values of each column
+ * one after the other, the dictionaries of the text columns, the id index, and a footer with the name, type and
+ * offsets of each column. The file ends with the offset of the footer.
+ */
+public class ColumnarStore {
+
+    static final int MAGIC = 0x434C4353;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final byte DOUBLE_COLUMN = 0;
+    static final byte TEXT_COLUMN = 1;
+
+    private final ByteBuffer buffer;
+    private final int rowCount;
+    private final List<String> columnNames;
+    private final byte[] types;
+    private final int[] valuesOffsets;
+    private final int[] dictionaryOffsets;
+    private final int idColumn;
+    private final int idIndexOffset;
+    private final String[][] decoded;
+
+    private ColumnarStore(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if(buffer.getInt(0) != MAGIC || buffer.getInt(buffer.limit() - Integer.BYTES) != MAGIC) {
+            throw new RuntimeException("Not a columnar results file");
+        }
+        if(buffer.getInt(4) != VERSION) {
+            throw new RuntimeException("Unsupported columnar file version " + buffer.getInt(4));
+        }
+        this.rowCount = buffer.getInt(8);
+
+        ByteBuffer footer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        footer.position((int) buffer.getLong(buffer.limit() - Integer.BYTES - Long.BYTES));
+        this.idColumn = footer.getInt();
+        this.idIndexOffset = (int) footer.getLong();
+        int columnCount = footer.getInt();
+        List<String> names = new ArrayList<>(columnCount);
+        this.types = new byte[columnCount];
+        this.valuesOffsets = new int[columnCount];
+        this.dictionaryOffsets = new int[columnCount];
+        for(int column = 0; column < columnCount; column++) {
+            byte[] name = new byte[footer.getInt()];
+            footer.get(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+            types[column] = footer.get();
+            valuesOffsets[column] = (int) footer.getLong();
+            dictionaryOffsets[column] = (int) footer.getLong();
+        }
+        this.columnNames = Collections.unmodifiableList(names);
+        this.decoded = new String[columnCount][];
+    }
+
+    /**
+     * Convert a gzipped CSV job result into a columnar file and open it
+     *
+     * @param idColumn   Column with the security or organization ids, indexed for {@link #findRow(String)}
+     */
+    public static ColumnarStore convert(Path csvFile, Path output, String idColumn) {
+        new ColumnarStoreWriter(csvFile, idColumn).write(output);
+        return open(output);
+    }
+
+    public static ColumnarStore open(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) {
+                throw new RuntimeException("Columnar file too big: " + channel.size() + " bytes");
+            }
+            // The mapping stays valid after closing the channel
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new ColumnarStore(buffer.order(ByteOrder.LITTLE_ENDIAN));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't open the columnar file " + file, e);
+        }
+    }
+
+    public int getRowCount() { return rowCount; }
+
+    public List<String> getColumnNames() { return columnNames; }
+
+    /**
+     * @return   The index of the column with the given name, or -1 if there is no such column
+     */
+    public int getColumnIndex(String columnName) {
+        return columnNames.indexOf(columnName);
+    }
+
+    public boolean isNumeric(int column) {
+        return types[column] == DOUBLE_COLUMN;
+    }
+
+    public double getDouble(int row, int column) {
+        checkRow(row);
+        checkType(column, DOUBLE_COLUMN);
+        return buffer.getDouble(valuesOffsets[column] + row * Double.BYTES);
+    }
+
+    public double getDouble(int row, String columnName) {
+        return getDouble(row, requireColumn(columnName));
+    }
+
+    /**
+     * Values of numeric columns are formatted from the stored double, not taken from the CSV, so "1" is returned
+     * as "1.0" and empty values as ""
+     */
+    public String getString(int row, int column) {
+        checkRow(row);
+        if(types[column] == DOUBLE_COLUMN) {
+            double value = getDouble(row, column);
+            return Double.isNaN(value) ? "" : String.valueOf(value);
+        }
+        return dictionaryValue(column, buffer.getInt(valuesOffsets[column] + row * Integer.BYTES));
+    }
+
+    public String getString(int row, String columnName) {
+        return getString(row, requireColumn(columnName));
+    }
+
+    /**
+     * All the values of a numeric column, read straight from the mapped file
+     */
+    public DoubleBuffer getDoubleColumn(String columnName) {
+        int column = requireColumn(columnName);
+        checkType(column, DOUBLE_COLUMN);
+        return buffer.slice(valuesOffsets[column], rowCount * Double.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asDoubleBuffer();
+    }
+
+    /**
+     * The dictionary codes of a text column. Rows with the same value have the same code.
+     */
+    public IntBuffer getCodeColumn(String columnName) {
+        int column = requireColumn(columnName);
+        checkType(column, TEXT_COLUMN);
+        return buffer.slice(valuesOffsets[column], rowCount * Integer.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN)
+                .asIntBuffer();
+    }
+
+    /**
+     * Binary search of the id in the id index, comparing the UTF-8 bytes in place
+     *
+     * @return   The first row with the given id, if any
+     */
+    public OptionalInt findRow(String id) {
+        byte[] target = id.getBytes(StandardCharsets.UTF_8);
+        int ids = dictionarySize(idColumn);
+        int low = 0;
+        int high = ids - 1;
+        while(low <= high) {
+            int middle = (low + high) >>> 1;
+            int code = buffer.getInt(idIndexOffset + middle * Integer.BYTES);
+            int comparison = compareDictionaryValue(idColumn, code, target);
+            if(comparison < 0) {
+                low = middle + 1;
+            }
+            else if(comparison > 0) {
+                high = middle - 1;
+            }
+            else {
+                return OptionalInt.of(buffer.getInt(idIndexOffset + (ids + code) * Integer.BYTES));
+            }
+        }
+        return OptionalInt.empty();
+    }
+
+    private int dictionarySize(int column) {
+        return buffer.getInt(dictionaryOffsets[column]);
+    }
+
+    private int dictionaryValueStart(int column, int code) {
+        int size = dictionarySize(column);
+        int bytesStart = dictionaryOffsets[column] + Integer.BYTES * (size + 2);
+        return bytesStart + buffer.getInt(dictionaryOffsets[column] + Integer.BYTES * (code + 1));
+    }
+
+    private int dictionaryValueLength(int column, int code) {
+        int offsets = dictionaryOffsets[column] + Integer.BYTES;
+        return buffer.getInt(offsets + Integer.BYTES * (code + 1)) - buffer.getInt(offsets + Integer.BYTES * code);
+    }
+
+    /**
+     * Text values are decoded once per column, the first time they are read
+     */
+    private String dictionaryValue(int column, int code) {
+        String[] values;
+        synchronized(decoded) {
+            if(decoded[column] == null) {
+                decoded[column] = new String[dictionarySize(column)];
+            }
+            values = decoded[column];
+        }
+        String value = values[code];
+        if(value == null) {
+            byte[] bytes = new byte[dictionaryValueLength(column, code)];
+            buffer.get(dictionaryValueStart(column, code), bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+            values[code] = value;
+        }
+        return value;
+    }
+
+    private int compareDictionaryValue(int column, int code, byte[] target) {
+        int start = dictionaryValueStart(column, code);
+        int length = dictionaryValueLength(column, code);
+        int common = Math.min(length, target.length);
+        for(int i = 0; i < common; i++) {
+            int comparison = Integer.compare(buffer.get(start + i) & 0xFF, target[i] & 0xFF);
+            if(comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, target.length);
+    }
+
+    private int requireColumn(String columnName) {
+        int column = getColumnIndex(columnName);
+        if(column < 0) {
+            throw new IllegalArgumentException("Unknown column " + columnName);
+        }
+        return column;
+    }
+
+    private void checkRow(int row) {
+        if(row < 0 || row >= rowCount) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of bounds for " + rowCount + " rows");
+        }
+    }
+
+    private void checkType(int column, byte type) {
+        if(types[column] != type) {
+            throw new IllegalArgumentException("Column " + columnNames.get(column) + " is not "
+                    + (type == DOUBLE_COLUMN ? "numeric" : "text"));
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package ai.clarity;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Converts a gzipped CSV job result into the format read by {@link ColumnarStore}.
+ *
+ * The file is read twice: first to count the rows and find which columns are numeric, then to write every value
+ * straight into its column through a mapped buffer, so no row is kept in memory. Only the dictionaries of the
+ * text columns are built in memory.
+ */
+class ColumnarStoreWriter {
+
+    private final Path csvFile;
+    private final String idColumn;
+
+    private List<String> columnNames;
+    private boolean[] numeric;
+    private int rowCount;
+    // First row of each code of the id column, recorded when the code is assigned
+    private int[] idFirstRows = new int[1024];
+
+    ColumnarStoreWriter(Path csvFile, String idColumn) {
+        this.csvFile = csvFile;
+        this.idColumn = idColumn;
+    }
+
+    void write(Path output) {
+        scanColumns();
+        int idIndex = columnNames.indexOf(idColumn);
+        if(idIndex < 0) {
+            throw new RuntimeException("The extract doesn't have the id column " + idColumn);
+        }
+        numeric[idIndex] = false;
+
+        int columnCount = columnNames.size();
+        long[] valuesOffsets = new long[columnCount];
+        long offset = ColumnarStore.HEADER_SIZE;
+        for(int column = 0; column < columnCount; column++) {
+            valuesOffsets[column] = offset;
+            offset = align(offset + (long) rowCount * (numeric[column] ? Double.BYTES : Integer.BYTES));
+        }
+        long valuesEnd = offset;
+
+        Path tmpFile = output.resolveSibling(output.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer values = channel.map(FileChannel.MapMode.READ_WRITE, 0, checkSize(valuesEnd));
+            values.order(ByteOrder.LITTLE_ENDIAN);
+            values.putInt(ColumnarStore.MAGIC).putInt(ColumnarStore.VERSION).putInt(rowCount).putInt(columnCount);
+
+            List<Map<String, Integer>> dictionaries = writeValues(values, valuesOffsets, idIndex);
+            values.force();
+
+            long position = valuesEnd;
+            long[] dictionaryOffsets = new long[columnCount];
+            List<String> ids = null;
+            for(int column = 0; column < columnCount; column++) {
+                dictionaryOffsets[column] = -1;
+                if(!numeric[column]) {
+                    List<String> dictionaryValues = toList(dictionaries.get(column));
+                    dictionaryOffsets[column] = position;
+                    position = writeFully(channel, position, encodeDictionary(dictionaryValues));
+                    if(column == idIndex) {
+                        ids = dictionaryValues;
+                    }
+                }
+            }
+
+            long idIndexOffset = position;
+            position = writeFully(channel, position, encodeIdIndex(ids));
+
+            long footerOffset = position;
+            position = writeFully(channel, position, encodeFooter(idIndex, valuesOffsets, dictionaryOffsets, idIndexOffset));
+            ByteBuffer trailer = ByteBuffer.allocate(Long.BYTES + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            trailer.putLong(footerOffset).putInt(ColumnarStore.MAGIC).flip();
+            checkSize(writeFully(channel, position, trailer));
+            channel.force(true);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't write the columnar file " + output, e);
+        }
+        try {
+            Files.move(tmpFile, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't write the columnar file " + output, e);
+        }
+    }
+
+    /**
+     * A column is numeric if all its non-empty values are numbers
+     */
+    private void scanColumns() {
+        try (CsvResultReader reader = CsvResultReader.open(csvFile)) {
+            columnNames = reader.getHeader();
+            numeric = new boolean[columnNames.size()];
+            Arrays.fill(numeric, true);
+            while(reader.hasNext()) {
+                CsvRow row = reader.next();
+                for(int column = 0; column < Math.min(row.size(), numeric.length); column++) {
+                    if(numeric[column] && !isNumber(row, column)) {
+                        numeric[column] = false;
+                    }
+                }
+                rowCount++;
+            }
+        }
+    }
+
+    private List<Map<String, Integer>> writeValues(MappedByteBuffer values, long[] valuesOffsets, int idIndex) {
+        List<Map<String, Integer>> dictionaries = new ArrayList<>(columnNames.size());
+        for(int column = 0; column < columnNames.size(); column++) {
+            dictionaries.add(numeric[column] ? null : new HashMap<>());
+        }
+        try (CsvResultReader reader = CsvResultReader.open(csvFile)) {
+            int row = 0;
+            while(reader.hasNext() && row < rowCount) {
+                CsvRow csvRow = reader.next();
+                for(int column = 0; column < dictionaries.size(); column++) {
+                    boolean present = column < csvRow.size();
+                    if(numeric[column]) {
+                        double value = present ? csvRow.getDouble(column) : Double.NaN;
+                        values.putDouble((int) (valuesOffsets[column] + (long) row * Double.BYTES), value);
+                    }
+                    else {
+                        String value = present ? csvRow.getString(column) : "";
+                        Map<String, Integer> dictionary = dictionaries.get(column);
+                        Integer code = dictionary.get(value);
+                        if(code == null) {
+                            code = dictionary.size();
+                            dictionary.put(value, code);
+                            if(column == idIndex) {
+                                recordFirstRow(code, row);
+                            }
+                        }
+                        values.putInt((int) (valuesOffsets[column] + (long) row * Integer.BYTES), code);
+                    }
+                }
+                row++;
+            }
+        }
+        return dictionaries;
+    }
+
+    private void recordFirstRow(int code, int row) {
+        if(code == idFirstRows.length) {
+            idFirstRows = Arrays.copyOf(idFirstRows, code * 2);
+        }
+        idFirstRows[code] = row;
+    }
+
+    /**
+     * Number of values, the start of each value (plus the end of the last one) and the UTF-8 bytes of all of them
+     */
+    private static ByteBuffer encodeDictionary(List<String> dictionary) {
+        byte[][] encoded = new byte[dictionary.size()][];
+        int bytes = 0;
+        for(int code = 0; code < encoded.length; code++) {
+            encoded[code] = dictionary.get(code).getBytes(StandardCharsets.UTF_8);
+            bytes += encoded[code].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) align(Integer.BYTES * (encoded.length + 2L) + bytes))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(encoded.length);
+        int start = 0;
+        for(byte[] value : encoded) {
+            buffer.putInt(start);
+            start += value.length;
+        }
+        buffer.putInt(start);
+        for(byte[] value : encoded) {
+            buffer.put(value);
+        }
+        return buffer.position(buffer.capacity()).flip();
+    }
+
+    /**
+     * The codes of the ids sorted by their UTF-8 bytes, for binary searches, and the first row of each code
+     */
+    private ByteBuffer encodeIdIndex(List<String> ids) {
+        byte[][] encoded = ids.stream().map(id -> id.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+        int[] sortedCodes = IntStream.range(0, encoded.length)
+                .boxed()
+                .sorted(Comparator.comparing(code -> encoded[code], Arrays::compareUnsigned))
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) align(Integer.BYTES * 2L * encoded.length))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        for(int code : sortedCodes) {
+            buffer.putInt(code);
+        }
+        for(int code = 0; code < encoded.length; code++) {
+            buffer.putInt(idFirstRows[code]);
+        }
+        return buffer.position(buffer.capacity()).flip();
+    }
+
+    private ByteBuffer encodeFooter(int idIndex, long[] valuesOffsets, long[] dictionaryOffsets, long idIndexOffset) {
+        List<byte[]> names = new ArrayList<>();
+        int size = Integer.BYTES * 2 + Long.BYTES;
+        for(String name : columnNames) {
+            byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+            names.add(encoded);
+            size += Integer.BYTES + encoded.length + 1 + Long.BYTES * 2;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(idIndex).putLong(idIndexOffset).putInt(names.size());
+        for(int column = 0; column < names.size(); column++) {
+            buffer.putInt(names.get(column).length).put(names.get(column));
+            buffer.put(numeric[column] ? ColumnarStore.DOUBLE_COLUMN : ColumnarStore.TEXT_COLUMN);
+            buffer.putLong(valuesOffsets[column]).putLong(dictionaryOffsets[column]);
+        }
+        return buffer.flip();
+    }
+
+    private static List<String> toList(Map<String, Integer> dictionary) {
+        String[] values = new String[dictionary.size()];
+        dictionary.forEach((value, code) -> values[code] = value);
+        return Arrays.asList(values);
+    }
+
+    /**
+     * Whether the field is empty or a plain decimal number, optionally with an exponent. Unlike
+     * {@link Double#parseDouble}, values like "NaN", "Infinity" or "12F" are text.
+     */
+    private static boolean isNumber(CsvRow row, int column) {
+        CharSequence value = row.get(column);
+        int length = value.length();
+        if(length == 0) {
+            return true;
+        }
+        int i = 0;
+        if(value.charAt(i) == '-' || value.charAt(i) == '+') {
+            i++;
+        }
+        int digits = 0;
+        for(; i < length && isDigit(value.charAt(i)); i++) {
+            digits++;
+        }
+        if(i < length && value.charAt(i) == '.') {
+            for(i++; i < length && isDigit(value.charAt(i)); i++) {
+                digits++;
+            }
+        }
+        if(digits == 0) {
+            return false;
+        }
+        if(i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            if(i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                i++;
+            }
+            int exponentDigits = 0;
+            for(; i < length && isDigit(value.charAt(i)); i++) {
+                exponentDigits++;
+            }
+            if(exponentDigits == 0) {
+                return false;
+            }
+        }
+        return i == length;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static long writeFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        return position;
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    /**
+     * A single mapping covers at most 2 GB
+     */
+    private static long checkSize(long size) {
+        if(size > Integer.MAX_VALUE) {
+            throw new RuntimeException("The extract is too big for a single columnar file: " + size + " bytes");
+        }
+        return size;
+    }
+}
@@ -0,0 +1,61 @@
+package ai.clarity;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Non-blocking semaphore: at most {@code maxConcurrent} permits are handed out at the same time, and the rest
+ * of the callers get a future that completes when a permit is released. Waiting callers get the released permits
+ * in the {@link Endpoint#PRIORITY} order of their endpoints, and in arrival order within the same endpoint.
+ */
+public class ConcurrencyLimiter {
+
+    private final int maxConcurrent;
+    private final Map<Endpoint, Deque<CompletableFuture<Void>>> waiting = new EnumMap<>(Endpoint.class);
+    private int inUse;
+
+    public ConcurrencyLimiter(int maxConcurrent) {
+        this.maxConcurrent = maxConcurrent;
+        for(Endpoint endpoint : Endpoint.values()) {
+            waiting.put(endpoint, new ArrayDeque<>());
+        }
+    }
+
+    public synchronized CompletableFuture<Void> acquire(Endpoint endpoint) {
+        if(inUse < maxConcurrent) {
+            inUse++;
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        waiting.get(endpoint).add(permit);
+        return permit;
+    }
+
+    public void release() {
+        CompletableFuture<Void> next = null;
+        synchronized(this) {
+            for(Endpoint endpoint : Endpoint.PRIORITY) {
+                next = waiting.get(endpoint).poll();
+                if(next != null) {
+                    break;
+                }
+            }
+            if(next == null) {
+                inUse--;
+            }
+        }
+        // The permit is handed over directly, completed outside the lock because it runs the waiting request
+        if(next != null) {
+            next.complete(null);
+        }
+    }
+
+    public synchronized int getInUse() { return inUse; }
+
+    public synchronized int getWaiting() {
+        return waiting.values().stream().mapToInt(Deque::size).sum();
+    }
+}
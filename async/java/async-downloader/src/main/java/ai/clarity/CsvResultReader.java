@@ -0,0 +1,231 @@
+package ai.clarity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the rows of a job result ({@code .csv.gz}) as it decompresses it, so files of any size can be
+ * processed in constant memory.
+ *
+ * The first row is read as the header. The remaining rows are returned as a single reused {@link CsvRow},
+ * so nothing is allocated per row unless values are copied out of it:
+ * <pre>
+ *     try (var reader = CsvResultReader.open(Path.of(asyncDownloader.download(apiPath, params)))) {
+ *         int isin = reader.getColumnIndex("isin");
+ *         int score = reader.getColumnIndex("value");
+ *         while (reader.hasNext()) {
+ *             CsvRow row = reader.next();
+ *             process(row.get(isin), row.getDouble(score));
+ *         }
+ *     }
+ * </pre>
+ */
+public class CsvResultReader implements Iterator<CsvRow>, Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final Reader reader;
+    private final CsvRow row = new CsvRow();
+    private final List<String> header;
+
+    private char[] buffer;
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+    private boolean rowReady;
+
+    public CsvResultReader(Reader reader, int bufferSize) {
+        this.reader = reader;
+        this.buffer = new char[bufferSize];
+        this.header = readHeader();
+    }
+
+    /**
+     * Open a gzipped CSV file, like the ones downloaded by {@link AsyncDownloader}
+     */
+    public static CsvResultReader open(Path gzipFile) {
+        return open(gzipFile, DEFAULT_BUFFER_SIZE);
+    }
+
+    public static CsvResultReader open(Path gzipFile, int bufferSize) {
+        try {
+            return fromGzip(Files.newInputStream(gzipFile), bufferSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't open file " + gzipFile, e);
+        }
+    }
+
+    /**
+     * Read a gzipped CSV from any stream. The stream is closed when the reader is closed.
+     */
+    public static CsvResultReader fromGzip(InputStream gzipStream, int bufferSize) {
+        try {
+            GZIPInputStream inflated = new GZIPInputStream(gzipStream, bufferSize);
+            return new CsvResultReader(new InputStreamReader(inflated, StandardCharsets.UTF_8), bufferSize);
+        } catch (IOException e) {
+            closeQuietly(gzipStream);
+            throw new UncheckedIOException("Couldn't read gzip stream", e);
+        }
+    }
+
+    public List<String> getHeader() {
+        return header;
+    }
+
+    /**
+     * @return   The index of the column with the given name in the header, or -1 if there is no such column
+     */
+    public int getColumnIndex(String columnName) {
+        return header.indexOf(columnName);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(!rowReady) {
+            rowReady = readRecord();
+        }
+        return rowReady;
+    }
+
+    /**
+     * @return   The next row. The same object is returned every time, with the contents of the new row
+     */
+    @Override
+    public CsvRow next() {
+        if(!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        rowReady = false;
+        return row;
+    }
+
+    /**
+     * Sequential stream over the remaining rows. As with {@link #next()}, rows are reused, so map them to your
+     * own objects before collecting them.
+     */
+    public Stream<CsvRow> stream() {
+        Spliterator<CsvRow> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private List<String> readHeader() {
+        if(!readRecord()) {
+            return Collections.emptyList();
+        }
+        List<String> columns = new ArrayList<>(row.size());
+        for(int i = 0; i < row.size(); i++) {
+            columns.add(row.getString(i));
+        }
+        return Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * Find the next non-blank record, which ends at the first line break outside quotes, and tokenize it
+     */
+    private boolean readRecord() {
+        while(true) {
+            int scan = position;
+            boolean inQuotes = false;
+            int recordEnd = -1;
+            while(recordEnd < 0) {
+                if(scan == limit) {
+                    if(endOfInput) {
+                        break;
+                    }
+                    int consumed = position;
+                    fill();
+                    scan -= consumed;
+                    continue;
+                }
+                char c = buffer[scan];
+                if(c == '"') {
+                    inQuotes = !inQuotes;
+                }
+                else if(c == '\n' && !inQuotes) {
+                    recordEnd = scan;
+                }
+                scan++;
+            }
+
+            int start = position;
+            int end = recordEnd >= 0 ? recordEnd : limit;
+            position = recordEnd >= 0 ? recordEnd + 1 : limit;
+            if(end > start && buffer[end - 1] == '\r') {
+                end--;
+            }
+
+            if(end > start) {
+                CsvTokenizer.tokenize(buffer, start, end, row);
+                return true;
+            }
+            if(recordEnd < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Move the pending data to the beginning of the buffer (growing it if a single record doesn't fit)
+     * and read more characters after it
+     */
+    private void fill() {
+        int pending = limit - position;
+        if(pending == buffer.length) {
+            char[] bigger = new char[buffer.length * 2];
+            System.arraycopy(buffer, position, bigger, 0, pending);
+            buffer = bigger;
+        }
+        else {
+            System.arraycopy(buffer, position, buffer, 0, pending);
+        }
+        position = 0;
+        limit = pending;
+
+        try {
+            int read = reader.read(buffer, limit, buffer.length - limit);
+            if(read < 0) {
+                endOfInput = true;
+            }
+            else {
+                limit += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading CSV data", e);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Nothing else to do, we are already reporting an error
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ai.clarity;
+
+import java.util.Arrays;
+
+/**
+ * One row of a CSV file read by {@link CsvResultReader}.
+ *
+ * Fields are not copied out of the reader buffer: the same row object is reused for every row of the file,
+ * so its contents (and the {@link CharSequence} returned by {@link #get(int)}) are only valid until the next
+ * row is read. Use {@link #getString(int)} or {@link #toArray()} to keep values for longer.
+ */
+public class CsvRow {
+
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private char[] buffer;
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private Field[] fields = new Field[16];
+    private int size;
+
+    private class Field implements CharSequence {
+        final int index;
+
+        Field(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public int length() { return ends[index] - starts[index]; }
+
+        @Override
+        public char charAt(int i) { return buffer[starts[index] + i]; }
+
+        @Override
+        public CharSequence subSequence(int start, int end) { return toString().subSequence(start, end); }
+
+        @Override
+        public String toString() { return getString(index); }
+    }
+
+    void reset(char[] buffer) {
+        this.buffer = buffer;
+        this.size = 0;
+    }
+
+    void addField(int start, int end) {
+        if(size == starts.length) {
+            starts = Arrays.copyOf(starts, size * 2);
+            ends = Arrays.copyOf(ends, size * 2);
+            fields = Arrays.copyOf(fields, size * 2);
+        }
+        starts[size] = start;
+        ends[size] = end;
+        size++;
+    }
+
+    int fieldStart(int index) { return starts[index]; }
+
+    int fieldEnd(int index) { return ends[index]; }
+
+    /**
+     * Number of fields in this row
+     */
+    public int size() { return size; }
+
+    /**
+     * View of the field over the reader buffer, only valid until the next row is read
+     */
+    public CharSequence get(int index) {
+        checkIndex(index);
+        if(fields[index] == null) {
+            fields[index] = new Field(index);
+        }
+        return fields[index];
+    }
+
+    public String getString(int index) {
+        checkIndex(index);
+        return new String(buffer, starts[index], ends[index] - starts[index]);
+    }
+
+    public boolean isEmpty(int index) {
+        checkIndex(index);
+        return starts[index] == ends[index];
+    }
+
+    /**
+     * Compare the field with the given value without copying it
+     */
+    public boolean fieldEquals(int index, String value) {
+        checkIndex(index);
+        int length = ends[index] - starts[index];
+        if(length != value.length()) {
+            return false;
+        }
+        for(int i = 0; i < length; i++) {
+            if(buffer[starts[index] + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parse the field as a double. Empty fields are returned as NaN.
+     *
+     * Plain decimals like "-12.345" are parsed directly from the buffer; other formats (exponents, very long
+     * numbers) are delegated to {@link Double#parseDouble(String)}.
+     */
+    public double getDouble(int index) {
+        checkIndex(index);
+        int start = starts[index];
+        int end = ends[index];
+        if(start == end) {
+            return Double.NaN;
+        }
+
+        int i = start;
+        boolean negative = buffer[i] == '-';
+        if(negative || buffer[i] == '+') {
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean afterPoint = false;
+        for(; i < end; i++) {
+            char c = buffer[i];
+            if(c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                digits++;
+                if(afterPoint) {
+                    decimals++;
+                }
+            }
+            else if(c == '.' && !afterPoint) {
+                afterPoint = true;
+            }
+            else {
+                return Double.parseDouble(getString(index).trim());
+            }
+        }
+
+        if(digits == 0 || digits > MAX_FAST_DIGITS) {
+            return Double.parseDouble(getString(index).trim());
+        }
+        // Both the mantissa and the power of ten are exact doubles, so a single division is correctly rounded
+        double value = mantissa / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+    public long getLong(int index) {
+        checkIndex(index);
+        int start = starts[index];
+        int end = ends[index];
+        if(start == end) {
+            throw new NumberFormatException("Empty field " + index);
+        }
+        int i = start;
+        boolean negative = buffer[i] == '-';
+        if(negative || buffer[i] == '+') {
+            i++;
+        }
+        if(i == end || end - i > 18) {
+            return Long.parseLong(getString(index));
+        }
+        long value = 0;
+        for(; i < end; i++) {
+            char c = buffer[i];
+            if(c < '0' || c > '9') {
+                throw new NumberFormatException("Not a number: " + getString(index));
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Copy of all the fields of the row
+     */
+    public String[] toArray() {
+        String[] values = new String[size];
+        for(int i = 0; i < size; i++) {
+            values[i] = getString(i);
+        }
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return String.join(",", toArray());
+    }
+
+    private void checkIndex(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Field " + index + " out of bounds for row with " + size + " fields");
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ai.clarity;
+
+/**
+ * Splits one CSV record (RFC 4180: comma separated, fields optionally enclosed in double quotes, quotes
+ * escaped by doubling them) into the fields of a {@link CsvRow}, without copying them.
+ *
+ * Quoted fields are unescaped in place, which is always possible because the unescaped value is shorter
+ * than the quoted one.
+ */
+class CsvTokenizer {
+
+    private static final char SEPARATOR = ',';
+    private static final char QUOTE = '"';
+
+    private CsvTokenizer() {
+    }
+
+    /**
+     * Tokenize the record in {@code buffer[start, end)}, that must not include the line terminator
+     */
+    static void tokenize(char[] buffer, int start, int end, CsvRow row) {
+        row.reset(buffer);
+        int i = start;
+        while(true) {
+            if(i < end && buffer[i] == QUOTE) {
+                int fieldStart = i;
+                int out = i;
+                i++;
+                while(i < end) {
+                    char c = buffer[i];
+                    if(c == QUOTE) {
+                        if(i + 1 < end && buffer[i + 1] == QUOTE) {
+                            buffer[out++] = QUOTE;
+                            i += 2;
+                        }
+                        else {
+                            i++;
+                            break;
+                        }
+                    }
+                    else {
+                        buffer[out++] = c;
+                        i++;
+                    }
+                }
+                row.addField(fieldStart, out);
+                while(i < end && buffer[i] != SEPARATOR) {
+                    i++;
+                }
+            }
+            else {
+                int fieldStart = i;
+                while(i < end && buffer[i] != SEPARATOR) {
+                    i++;
+                }
+                row.addField(fieldStart, i);
+            }
+
+            if(i >= end) {
+                return;
+            }
+            // Skip the separator. A separator at the very end means a last empty field
+            i++;
+            if(i == end) {
+                row.addField(end, end);
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package ai.clarity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Compares each new extract with the previous one while it's being read, reporting only the rows that were
+ * inserted, updated or deleted, so downstream loads only process what changed.
+ *
+ * Only a compact index of the last snapshot is kept: the key of each row and a 64-bit hash of its contents
+ * (see {@link SnapshotIndex}), so memory depends on the number of rows but not on their width, and the rows
+ * themselves are never kept. Keys must be unique within an extract.
+ *
+ * Open it with a file to keep the snapshot between runs:
+ * <pre>
+ *     DeltaExtractor extractor = DeltaExtractor.open(Path.of("esg-scores.idx"), "id");
+ *     DeltaStats stats = asyncDownloader.downloadDelta(apiPath, params, extractor, listener);
+ * </pre>
+ */
+public class DeltaExtractor {
+
+    private static final Logger logger = Logger.getLogger(DeltaExtractor.class.getName());
+    private static final int FORMAT_VERSION = 1;
+    private static final char KEY_SEPARATOR = '|';
+
+    private final Path indexFile;
+    private final String[] keyColumns;
+    private SnapshotIndex snapshot;
+
+    private DeltaExtractor(Path indexFile, String[] keyColumns, SnapshotIndex snapshot) {
+        this.indexFile = indexFile;
+        this.keyColumns = keyColumns;
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Extractor with an empty snapshot kept only in memory
+     *
+     * @param keyColumns   Columns identifying each row, usually the security or organization id
+     */
+    public DeltaExtractor(String... keyColumns) {
+        this(null, keyColumns, new SnapshotIndex(0));
+    }
+
+    /**
+     * Extractor with the snapshot saved in {@code indexFile}, if there is one
+     */
+    public static DeltaExtractor open(Path indexFile, String... keyColumns) {
+        return new DeltaExtractor(indexFile, keyColumns, readSnapshot(indexFile, keyColumns));
+    }
+
+    public boolean hasIndexFile() {
+        return indexFile != null;
+    }
+
+    /**
+     * Number of rows in the last snapshot
+     */
+    public int getSnapshotSize() {
+        return snapshot.size();
+    }
+
+    /**
+     * Read all the rows of a new extract, reporting the changes to {@code listener}, and make it the current
+     * snapshot. Call {@link #save()} once the changes have been processed to keep it for the next run.
+     */
+    public DeltaStats diff(CsvResultReader reader, DeltaListener listener) {
+        int[] keyIndexes = getKeyIndexes(reader);
+        SnapshotIndex previous = snapshot;
+        SnapshotIndex current = new SnapshotIndex(previous.size());
+        BitSet seen = new BitSet(previous.capacity());
+        char[] key = new char[64];
+        long inserted = 0, updated = 0, unchanged = 0, duplicated = 0;
+
+        while(reader.hasNext()) {
+            CsvRow row = reader.next();
+            int keyLength = 0;
+            for(int k = 0; k < keyIndexes.length; k++) {
+                CharSequence value = row.get(keyIndexes[k]);
+                if(keyLength + value.length() + 1 > key.length) {
+                    key = Arrays.copyOf(key, Math.max(key.length * 2, keyLength + value.length() + 1));
+                }
+                if(k > 0) {
+                    key[keyLength++] = KEY_SEPARATOR;
+                }
+                for(int i = 0; i < value.length(); i++) {
+                    key[keyLength++] = value.charAt(i);
+                }
+            }
+            long keyHash = SnapshotIndex.hash(key, keyLength);
+            long rowHash = SnapshotIndex.hash(row);
+
+            int currentSize = current.size();
+            current.put(key, keyLength, keyHash, rowHash);
+            if(current.size() == currentSize) {
+                duplicated++;
+            }
+
+            int slot = previous.find(key, keyLength, keyHash);
+            if(slot < 0) {
+                inserted++;
+                listener.onInserted(row);
+            }
+            else {
+                seen.set(slot);
+                if(previous.rowHash(slot) != rowHash) {
+                    updated++;
+                    listener.onUpdated(row);
+                }
+                else {
+                    unchanged++;
+                }
+            }
+        }
+
+        long deleted = 0;
+        for(int slot = 0; slot < previous.capacity(); slot++) {
+            if(previous.isUsed(slot) && !seen.get(slot)) {
+                deleted++;
+                listener.onDeleted(previous.key(slot));
+            }
+        }
+        if(duplicated > 0) {
+            logger.log(Level.WARNING, duplicated + " rows with a repeated key, only the last one is kept in the snapshot");
+        }
+
+        snapshot = current;
+        DeltaStats stats = new DeltaStats(inserted, updated, deleted, unchanged);
+        logger.log(Level.INFO, "Delta extracted: " + stats);
+        return stats;
+    }
+
+    /**
+     * Write the current snapshot to the index file, replacing the previous one atomically
+     */
+    public void save() {
+        if(indexFile == null) {
+            throw new RuntimeException("This extractor has no index file, open it with DeltaExtractor.open");
+        }
+        Path tmpFile = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmpFile)))) {
+            output.writeInt(FORMAT_VERSION);
+            output.writeUTF(String.join(String.valueOf(KEY_SEPARATOR), keyColumns));
+            snapshot.write(output);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't save the snapshot to " + indexFile, e);
+        }
+        try {
+            Files.move(tmpFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't save the snapshot to " + indexFile, e);
+        }
+    }
+
+    private int[] getKeyIndexes(CsvResultReader reader) {
+        int[] keyIndexes = new int[keyColumns.length];
+        for(int k = 0; k < keyColumns.length; k++) {
+            keyIndexes[k] = reader.getColumnIndex(keyColumns[k]);
+            if(keyIndexes[k] < 0) {
+                throw new RuntimeException("The extract doesn't have the key column " + keyColumns[k]);
+            }
+        }
+        return keyIndexes;
+    }
+
+    private static SnapshotIndex readSnapshot(Path indexFile, String[] keyColumns) {
+        if(!Files.exists(indexFile)) {
+            return new SnapshotIndex(0);
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            int version = input.readInt();
+            String savedKeyColumns = input.readUTF();
+            if(version != FORMAT_VERSION || !savedKeyColumns.equals(String.join(String.valueOf(KEY_SEPARATOR), keyColumns))) {
+                logger.log(Level.WARNING, "The snapshot in " + indexFile + " was saved with other key columns, starting from scratch");
+                return new SnapshotIndex(0);
+            }
+            return SnapshotIndex.read(input);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read the snapshot from " + indexFile, e);
+        }
+    }
+}
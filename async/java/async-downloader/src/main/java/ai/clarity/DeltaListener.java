@@ -0,0 +1,18 @@
+package ai.clarity;
+
+/**
+ * Receives the changes found by {@link DeltaExtractor} between two extracts.
+ *
+ * Rows are reused by the reader, so they are only valid during the call.
+ */
+public interface DeltaListener {
+
+    void onInserted(CsvRow row);
+
+    void onUpdated(CsvRow row);
+
+    /**
+     * @param key   Value of the key column of the deleted row, or the values of the key columns joined with '|'
+     */
+    void onDeleted(String key);
+}
@@ -0,0 +1,11 @@
+package ai.clarity;
+
+/**
+ * Number of rows of each kind found by {@link DeltaExtractor} in an extract
+ */
+public record DeltaStats(long inserted, long updated, long deleted, long unchanged) {
+
+    public long changed() {
+        return inserted + updated + deleted;
+    }
+}
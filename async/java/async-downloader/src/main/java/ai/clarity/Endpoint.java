@@ -0,0 +1,34 @@
+package ai.clarity;
+
+import java.util.List;
+
+/**
+ * Kinds of requests made to the API, so each one can have its own retry policy and circuit breaker
+ */
+public enum Endpoint {
+
+    TOKEN(true),
+    SUBMIT(false),
+    STATUS(true),
+    FETCH(true);
+
+    /**
+     * Order in which waiting requests are sent: token requests first, as every other request needs one, then
+     * fetches and submits, and status checks last, so polling never delays results that are ready
+     */
+    static final List<Endpoint> PRIORITY = List.of(TOKEN, FETCH, SUBMIT, STATUS);
+
+    private final boolean idempotent;
+
+    Endpoint(boolean idempotent) {
+        this.idempotent = idempotent;
+    }
+
+    /**
+     * Whether repeating a request that may have been processed is harmless. Requesting a job again would
+     * start a second job in the API.
+     */
+    public boolean isIdempotent() {
+        return idempotent;
+    }
+}
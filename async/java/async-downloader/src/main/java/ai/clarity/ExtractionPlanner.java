@@ -0,0 +1,289 @@
+package ai.clarity;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Downloads the data of only the given securities instead of the whole universe, e.g. the securities held by a
+ * set of portfolios.
+ *
+ * The distinct ids are sorted and split into batches that fit both a maximum number of ids and a maximum size of
+ * the JSON body of each request. Batches are as even as possible, so the parallel jobs take about the same time.
+ * Each batch is requested as an async job through a {@link JobBatch}, and the results of all of them are merged
+ * into a single gzipped CSV with one header. The results of the batches are deleted once they are merged, except
+ * those kept by the {@link ResultCache} of the downloader.
+ *
+ * <pre>
+ *     ExtractionPlanner planner = new ExtractionPlanner(asyncDownloader, "securityIds");
+ *     Path scores = planner.extract("/securities/esg-risk/scores-by-id/async", params, heldIds, Path.of("scores.csv.gz"));
+ * </pre>
+ */
+public class ExtractionPlanner {
+
+    public static final int DEFAULT_MAX_IDS_PER_JOB = 5_000;
+    public static final int DEFAULT_MAX_PAYLOAD_BYTES = 256 * 1024;
+    private static final Logger logger = Logger.getLogger(ExtractionPlanner.class.getName());
+
+    private final AsyncDownloader downloader;
+    private final String idsParam;
+    private int maxIdsPerJob = DEFAULT_MAX_IDS_PER_JOB;
+    private int maxPayloadBytes = DEFAULT_MAX_PAYLOAD_BYTES;
+    private int maxConcurrentJobs = JobBatch.DEFAULT_MAX_CONCURRENT_JOBS;
+
+    /**
+     * @param idsParam   Name of the request parameter with the list of ids, e.g. "securityIds"
+     */
+    public ExtractionPlanner(AsyncDownloader downloader, String idsParam) {
+        this.downloader = downloader;
+        this.idsParam = idsParam;
+    }
+
+    public ExtractionPlanner withMaxIdsPerJob(int maxIdsPerJob) {
+        if(maxIdsPerJob < 1) {
+            throw new IllegalArgumentException("maxIdsPerJob must be at least 1");
+        }
+        this.maxIdsPerJob = maxIdsPerJob;
+        return this;
+    }
+
+    /**
+     * @param maxPayloadBytes   Maximum size of the JSON body of each job request, ids included
+     */
+    public ExtractionPlanner withMaxPayloadBytes(int maxPayloadBytes) {
+        this.maxPayloadBytes = maxPayloadBytes;
+        return this;
+    }
+
+    public ExtractionPlanner withMaxConcurrentJobs(int maxConcurrentJobs) {
+        this.maxConcurrentJobs = maxConcurrentJobs;
+        return this;
+    }
+
+    /**
+     * Split the distinct ids into jobs. Ids are sorted, so the same set of ids always gives the same jobs and
+     * their results can be reused from a {@link ResultCache}.
+     *
+     * @param params   Parameters of every job, without the ids
+     */
+    public List<JobSpec> plan(String apiPath, Map<String, Object> params, Collection<String> ids) {
+        List<String> sortedIds = new ArrayList<>(new TreeSet<>(ids));
+        if(sortedIds.isEmpty()) {
+            return List.of();
+        }
+
+        int[] idBytes = new int[sortedIds.size()];
+        long totalIdBytes = 0;
+        for(int i = 0; i < idBytes.length; i++) {
+            // Quoted id plus the comma that separates it from the next one
+            idBytes[i] = jsonStringLength(sortedIds.get(i)) + 1;
+            totalIdBytes += idBytes[i];
+        }
+        int availableBytes = maxPayloadBytes - payloadBytesWithoutIds(params);
+        int largestId = Arrays.stream(idBytes).max().getAsInt();
+        if(availableBytes < largestId) {
+            throw new IllegalArgumentException("A payload of " + maxPayloadBytes + " bytes can't fit the job parameters and an id");
+        }
+
+        // As many jobs as the tightest limit needs, with the ids spread evenly among them
+        long jobs = Math.max(ceilDiv(sortedIds.size(), maxIdsPerJob), ceilDiv(totalIdBytes, availableBytes));
+        int idsPerJob = (int) Math.min(maxIdsPerJob, ceilDiv(sortedIds.size(), jobs));
+        long bytesPerJob = Math.min(availableBytes, ceilDiv(totalIdBytes, jobs) + largestId);
+
+        List<JobSpec> specs = new ArrayList<>();
+        int batchStart = 0;
+        long batchBytes = 0;
+        for(int i = 0; i < idBytes.length; i++) {
+            if(i > batchStart && (i - batchStart == idsPerJob || batchBytes + idBytes[i] > bytesPerJob)) {
+                specs.add(jobFor(apiPath, params, sortedIds.subList(batchStart, i)));
+                batchStart = i;
+                batchBytes = 0;
+            }
+            batchBytes += idBytes[i];
+        }
+        specs.add(jobFor(apiPath, params, sortedIds.subList(batchStart, sortedIds.size())));
+        return specs;
+    }
+
+    /**
+     * Download the data of the given ids and block until it's merged into {@code output}
+     */
+    public Path extract(String apiPath, Map<String, Object> params, Collection<String> ids, Path output) {
+        try {
+            return extractAsync(apiPath, params, ids, output).join();
+        } catch (CompletionException e) {
+            if(e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Download the data of the given ids without blocking
+     *
+     * @return   A future completed with {@code output} once all the jobs are merged into it. It fails if any job
+     *           fails, as the dataset would be incomplete.
+     */
+    public CompletableFuture<Path> extractAsync(String apiPath, Map<String, Object> params, Collection<String> ids,
+                                                Path output) {
+        List<JobSpec> specs = plan(apiPath, params, ids);
+        logger.log(Level.INFO, () -> "Requesting " + apiPath + " for " + ids.size() + " ids in " + specs.size() + " jobs");
+        return new JobBatch(downloader, maxConcurrentJobs).runAsync(specs, result -> {})
+                .thenApply(results -> {
+                    List<JobResult> failed = results.stream()
+                            .filter(result -> !result.isSuccessful())
+                            .collect(Collectors.toList());
+                    if(!failed.isEmpty()) {
+                        throw new RuntimeException(failed.size() + " of " + results.size() + " jobs of " + apiPath
+                                + " failed", failed.get(0).getError().get());
+                    }
+                    List<Path> parts = results.stream()
+                            .map(result -> result.getPath().get())
+                            .collect(Collectors.toList());
+                    mergeResults(parts, output);
+                    deleteParts(parts);
+                    return output;
+                });
+    }
+
+    /**
+     * Concatenate gzipped CSV files with the same header into one, keeping only the header of the first one.
+     * Rows are copied as bytes, without parsing them.
+     */
+    static void mergeResults(List<Path> parts, Path output) {
+        byte[] header = null;
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(output), 64 * 1024)) {
+            for(Path part : parts) {
+                try (InputStream in = new BufferedInputStream(new GZIPInputStream(Files.newInputStream(part), 64 * 1024))) {
+                    byte[] partHeader = readLine(in);
+                    if(partHeader.length == 0) {
+                        continue;
+                    }
+                    if(header == null) {
+                        header = partHeader;
+                        out.write(header);
+                    }
+                    else if(!Arrays.equals(header, partHeader)) {
+                        throw new RuntimeException("The results in " + part + " don't have the same columns as the rest");
+                    }
+                    copyRows(in, out);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't merge the results into " + output, e);
+        }
+    }
+
+    private void deleteParts(List<Path> parts) {
+        for(Path part : parts) {
+            if(downloader.isCached(part)) {
+                continue;
+            }
+            try {
+                Files.deleteIfExists(part);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Couldn't delete the merged results " + part + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return   The first line including its line break, which is added if the line doesn't have it
+     */
+    private static byte[] readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while((b = in.read()) >= 0) {
+            line.write(b);
+            if(b == '\n') {
+                return line.toByteArray();
+            }
+        }
+        if(line.size() > 0) {
+            line.write('\n');
+        }
+        return line.toByteArray();
+    }
+
+    /**
+     * Copy the rest of the file, ending it with a line break so the rows of the next file start in a new line
+     */
+    private static void copyRows(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int last = '\n';
+        int read;
+        while((read = in.read(buffer)) > 0) {
+            out.write(buffer, 0, read);
+            last = buffer[read - 1];
+        }
+        if(last != '\n') {
+            out.write('\n');
+        }
+    }
+
+    private JobSpec jobFor(String apiPath, Map<String, Object> params, List<String> ids) {
+        Map<String, Object> jobParams = new LinkedHashMap<>(params);
+        jobParams.put(idsParam, List.copyOf(ids));
+        return JobSpec.of(apiPath, jobParams);
+    }
+
+    private int payloadBytesWithoutIds(Map<String, Object> params) {
+        Map<String, Object> withoutIds = new LinkedHashMap<>(params);
+        withoutIds.put(idsParam, List.of());
+        return HttpRequestHelper.mapToJson(withoutIds)
+                .orElseThrow(() -> new RuntimeException("Couldn't serialize the job parameters"))
+                .getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * Length in UTF-8 of the id as a quoted JSON string
+     */
+    static int jsonStringLength(String id) {
+        int length = 2;
+        for(int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if(c == '"' || c == '\\') {
+                length += 2;
+            }
+            else if(c < 0x20) {
+                length += 6;
+            }
+            else if(c < 0x80) {
+                length += 1;
+            }
+            else if(c < 0x800 || Character.isSurrogate(c)) {
+                // A surrogate pair takes 4 bytes, 2 for each half
+                length += 2;
+            }
+            else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static long ceilDiv(long dividend, long divisor) {
+        return (dividend + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,64 @@
+package ai.clarity;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Learns how long the jobs of each endpoint usually take and concentrates the status checks around that time:
+ * it waits (up to a maximum) until the job is close to its expected duration, then checks often for a while,
+ * and if the job is still running after that it falls back to another strategy.
+ *
+ * Endpoints without history yet (or unknown ones) always use the fallback strategy.
+ */
+public class HistoryBasedPollingStrategy implements PollingStrategy {
+
+    private static final double HISTORY_WEIGHT = 0.3;
+    private static final double WINDOW_START = 0.8;
+    private static final double WINDOW_END = 1.5;
+    private static final int CHECKS_PER_EXPECTED_DURATION = 20;
+
+    private final PollingStrategy fallback;
+    private final long minDelayMilisecs;
+    private final long maxDelayMilisecs;
+    private final Map<String, Double> expectedDurations = new ConcurrentHashMap<>();
+
+    public HistoryBasedPollingStrategy(PollingStrategy fallback, long minDelayMilisecs, long maxDelayMilisecs) {
+        this.fallback = fallback;
+        this.minDelayMilisecs = minDelayMilisecs;
+        this.maxDelayMilisecs = maxDelayMilisecs;
+    }
+
+    @Override
+    public long nextDelay(String apiPath, int attempt, long elapsedMilisecs) {
+        Double expectedDuration = apiPath == null ? null : expectedDurations.get(apiPath);
+        if(expectedDuration == null || elapsedMilisecs > expectedDuration * WINDOW_END) {
+            return fallback.nextDelay(apiPath, attempt, elapsedMilisecs);
+        }
+
+        long untilWindow = (long) (expectedDuration * WINDOW_START) - elapsedMilisecs;
+        if(untilWindow > minDelayMilisecs) {
+            return Math.min(untilWindow, maxDelayMilisecs);
+        }
+
+        long delayInWindow = (long) (expectedDuration / CHECKS_PER_EXPECTED_DURATION);
+        return Math.max(minDelayMilisecs, Math.min(delayInWindow, maxDelayMilisecs));
+    }
+
+    @Override
+    public void onJobFinished(String apiPath, long durationMilisecs) {
+        if(apiPath != null) {
+            // Exponentially weighted moving average, so the expectation follows changes in the job durations
+            expectedDurations.merge(apiPath, (double) durationMilisecs,
+                    (previous, latest) -> previous + HISTORY_WEIGHT * (latest - previous));
+        }
+        fallback.onJobFinished(apiPath, durationMilisecs);
+    }
+
+    /**
+     * @return   The expected duration of the jobs of the endpoint, or -1 when there is no history for it
+     */
+    public long getExpectedDuration(String apiPath) {
+        Double expectedDuration = expectedDurations.get(apiPath);
+        return expectedDuration == null ? -1 : Math.round(expectedDuration);
+    }
+}
@@ -0,0 +1,108 @@
+package ai.clarity;
+
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Immutable settings used to build the long-lived {@link HttpClient} shared by {@link HttpRequestHelper}
+ * and {@link AsyncDownloader}.
+ *
+ * Start from {@link #defaults()} and override only what you need, for instance:
+ * <pre>
+ *     HttpRequestHelper.configure(HttpClientConfig.defaults()
+ *             .withConnectTimeout(Duration.ofSeconds(5))
+ *             .withExecutor(Executors.newFixedThreadPool(4)));
+ * </pre>
+ *
+ * The connection pool of the JDK client can't be configured per client: how long idle connections are kept and
+ * how many are pooled are JVM-wide settings, read once when the first {@link HttpClient} is created. Set them on
+ * the command line if needed, e.g. {@code -Djdk.httpclient.keepalive.timeout=1200}
+ * {@code -Djdk.httpclient.connectionPoolSize=64}. This class never changes them.
+ */
+public class HttpClientConfig {
+
+    public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_REQUEST_TIMEOUT = Duration.ofMinutes(2);
+
+    private final HttpClient.Version version;
+    private final Duration connectTimeout;
+    private final Duration requestTimeout;
+    private final Executor executor;
+
+    private HttpClientConfig(HttpClient.Version version, Duration connectTimeout, Duration requestTimeout,
+                             Executor executor) {
+        this.version = version;
+        this.connectTimeout = connectTimeout;
+        this.requestTimeout = requestTimeout;
+        this.executor = executor;
+    }
+
+    /**
+     * HTTP/2 preferred (falling back to HTTP/1.1 with keep-alive when the server doesn't support it),
+     * default timeouts and the JDK default executor.
+     */
+    public static HttpClientConfig defaults() {
+        return new HttpClientConfig(HttpClient.Version.HTTP_2, DEFAULT_CONNECT_TIMEOUT, DEFAULT_REQUEST_TIMEOUT, null);
+    }
+
+    public HttpClientConfig withVersion(HttpClient.Version version) {
+        return new HttpClientConfig(version, connectTimeout, requestTimeout, executor);
+    }
+
+    public HttpClientConfig withConnectTimeout(Duration connectTimeout) {
+        return new HttpClientConfig(version, connectTimeout, requestTimeout, executor);
+    }
+
+    /**
+     * Maximum time to wait for the response headers of every request
+     */
+    public HttpClientConfig withRequestTimeout(Duration requestTimeout) {
+        return new HttpClientConfig(version, connectTimeout, requestTimeout, executor);
+    }
+
+    /**
+     * Executor used by the client for asynchronous tasks and dependent completion stages.
+     * When not set, the JDK default executor is used.
+     */
+    public HttpClientConfig withExecutor(Executor executor) {
+        return new HttpClientConfig(version, connectTimeout, requestTimeout, executor);
+    }
+
+    /**
+     * Run the asynchronous tasks of the client on a new virtual thread each, so the code that handles the
+     * responses can block without tying up a platform thread. Every config built this way shares the same
+     * executor for the whole JVM, as it keeps no thread once its tasks finish. To close it with the application,
+     * pass your own {@link Executors#newVirtualThreadPerTaskExecutor()} to {@link #withExecutor} instead.
+     */
+    public HttpClientConfig withVirtualThreads() {
+        return withExecutor(VirtualThreads.EXECUTOR);
+    }
+
+    public HttpClient.Version getVersion() { return version; }
+
+    public Duration getConnectTimeout() { return connectTimeout; }
+
+    public Duration getRequestTimeout() { return requestTimeout; }
+
+    public Executor getExecutor() { return executor; }
+
+    HttpClient buildHttpClient() {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(version)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NEVER);
+        if(executor != null) {
+            builder.executor(executor);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Created on first use, so the configs that don't use it don't create it
+     */
+    private static class VirtualThreads {
+        static final Executor EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    }
+}
@@ -1,28 +1,88 @@
 package ai.clarity;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class HttpRequestHelper {
 
     private static final Logger logger = Logger.getLogger(HttpRequestHelper.class.getName());
+    private static final Set<Integer> SUCCESSFUL_STATUSES = Set.of(200, 202, 302);
+
+    // Mappers, readers and writers are thread-safe and expensive to create, so they are created once and shared
+    private static final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final ObjectWriter jsonWriter = objectMapper.writer();
+    private static final ObjectWriter canonicalWriter = jsonWriter.with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+    private static final ObjectReader mapReader = objectMapper.readerFor(new TypeReference<Map<String, Object>>() {});
+    private static final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    private static volatile SharedHttpClient sharedClient = new SharedHttpClient(HttpClientConfig.defaults());
+    private static volatile RequestScheduler sharedScheduler = new RequestScheduler();
+
+    /**
+     * Replace the client shared by all requests made through this helper (and so by every {@link AsyncDownloader}).
+     * Call it once at startup, before the first request is sent.
+     */
+    public static void configure(HttpClientConfig config) {
+        sharedClient = new SharedHttpClient(config);
+    }
+
+    public static SharedHttpClient getSharedClient() {
+        return sharedClient;
+    }
+
+    /**
+     * Replace the scheduler that limits the rate of every request made through this helper, and of every
+     * {@link RequestExecutor} without a scheduler of its own. Nothing is limited by default.
+     */
+    public static void configure(RequestScheduler scheduler) {
+        sharedScheduler = scheduler;
+    }
+
+    public static RequestScheduler getSharedScheduler() {
+        return sharedScheduler;
+    }
 
     public static Optional<String> mapToJson(Map<String, Object> map) {
-        ObjectMapper objectMapper = new ObjectMapper();
         try {
-            return Optional.of(objectMapper.writeValueAsString(map));
+            return Optional.of(jsonWriter.writeValueAsString(map));
+        } catch (JsonProcessingException e) {
+            logger.log(Level.SEVERE, "Couldn't convert map to JSON");
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Convert to JSON with the keys of every map sorted, so equal maps always give the same JSON
+     * whatever their iteration order
+     */
+    public static Optional<String> mapToCanonicalJson(Map<String, Object> map) {
+        try {
+            return Optional.of(canonicalWriter.writeValueAsString(map));
         } catch (JsonProcessingException e) {
             logger.log(Level.SEVERE, "Couldn't convert map to JSON");
             return Optional.empty();
@@ -30,9 +90,8 @@ public class HttpRequestHelper {
     }
 
     public static Optional<Map<String, Object>> jsonToMap(String json) {
-        ObjectMapper mapper = new ObjectMapper();
         try {
-            Map<String, Object> mapFromJson = mapper.readValue(json, Map.class);
+            Map<String, Object> mapFromJson = mapReader.readValue(json);
             return Optional.of(mapFromJson);
         } catch (JsonProcessingException e) {
             logger.log(Level.SEVERE, "Couldn't convert JSON to Map");
@@ -40,40 +99,111 @@ public class HttpRequestHelper {
         }
     }
 
+    /**
+     * Convert JSON to an object of the given type, like the response records {@link TokenResponse} or
+     * {@link JobSubmitResponse}. Unknown properties are ignored.
+     */
+    public static <T> Optional<T> jsonToObject(String json, Class<T> type) {
+        try {
+            ObjectReader reader = readers.computeIfAbsent(type, objectMapper::readerFor);
+            return Optional.of(reader.readValue(json));
+        } catch (JsonProcessingException e) {
+            logger.log(Level.SEVERE, "Couldn't convert JSON to " + type.getSimpleName());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Read a single top-level text field of a JSON object without building the whole object.
+     * Nested objects and arrays are skipped without being parsed into values.
+     *
+     * @return   The value of the field, or empty if the JSON is not valid or doesn't have that text field
+     */
+    public static Optional<String> readStringField(String json, String fieldName) {
+        try (JsonParser parser = objectMapper.getFactory().createParser(json)) {
+            if(parser.nextToken() != JsonToken.START_OBJECT) {
+                return Optional.empty();
+            }
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String currentField = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if(fieldName.equals(currentField)) {
+                    return value == JsonToken.VALUE_STRING ? Optional.of(parser.getText()) : Optional.empty();
+                }
+                parser.skipChildren();
+            }
+            return Optional.empty();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Couldn't read field " + fieldName + " from JSON");
+            return Optional.empty();
+        }
+    }
+
     public static Optional<String> getRequest(String url) {
         return getRequest(url, null);
     }
 
     public static Optional<String> getRequest(String url, Map<String, String> headers) {
-        HttpRequest.Builder requestBuilder = getRequestBuilder(url, headers);
-        HttpRequest request = requestBuilder
-                .GET()
-                .build();
-
-        return handleResponse(request);
+        return handleResponse(buildGetRequest(url, headers), endpointOf(url, false));
     }
 
     public static Optional<String> postRequest(String url, Map<String, String> headers, String jsonBody) {
-        HttpRequest.Builder requestBuilder = getRequestBuilder(url, headers);
-        HttpRequest request = requestBuilder
-                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
-                .build();
+        return handleResponse(buildPostRequest(url, headers, jsonBody), endpointOf(url, true));
+    }
+
+    /**
+     * Non-blocking version of {@link #getRequest(String, Map)}. The returned future never completes
+     * exceptionally: errors are logged and reported as an empty Optional, as in the blocking version.
+     */
+    public static CompletableFuture<Optional<String>> getRequestAsync(String url, Map<String, String> headers) {
+        return handleResponseAsync(buildGetRequest(url, headers), endpointOf(url, false));
+    }
 
-        return handleResponse(request);
+    /**
+     * Non-blocking version of {@link #postRequest(String, Map, String)}
+     */
+    public static CompletableFuture<Optional<String>> postRequestAsync(String url, Map<String, String> headers,
+                                                                       String jsonBody) {
+        return handleResponseAsync(buildPostRequest(url, headers, jsonBody), endpointOf(url, true));
+    }
+
+    /**
+     * Non-blocking GET that, unlike {@link #getRequestAsync(String, Map)}, reports failures instead of hiding them:
+     * the future completes exceptionally with an {@link HttpStatusException} if the API answers with an error
+     * status, or with the network error.
+     */
+    public static CompletableFuture<String> getAsync(String url, Map<String, String> headers) {
+        return schedule(endpointOf(url, false)).thenCompose(scheduled -> getPermittedAsync(url, headers));
+    }
+
+    /**
+     * Non-blocking POST that reports failures, see {@link #getAsync(String, Map)}
+     */
+    public static CompletableFuture<String> postAsync(String url, Map<String, String> headers, String jsonBody) {
+        return schedule(endpointOf(url, true)).thenCompose(scheduled -> postPermittedAsync(url, headers, jsonBody));
+    }
+
+    /**
+     * {@link #getAsync(String, Map)} for a request that already holds a permit of its scheduler, like the ones
+     * sent by a {@link RequestExecutor}
+     */
+    static CompletableFuture<String> getPermittedAsync(String url, Map<String, String> headers) {
+        return sendAsync(buildGetRequest(url, headers));
+    }
+
+    /**
+     * {@link #postAsync(String, Map, String)} for a request that already holds a permit of its scheduler
+     */
+    static CompletableFuture<String> postPermittedAsync(String url, Map<String, String> headers, String jsonBody) {
+        return sendAsync(buildPostRequest(url, headers, jsonBody));
     }
 
     public static void downloadToFile(String url, Map<String, String> headers, Path path) {
-        HttpRequest.Builder requestBuilder = getRequestBuilder(url, headers);
-        HttpRequest request = requestBuilder.GET().build();
-        HttpClient httpClient = HttpClient.newHttpClient();
+        HttpRequest request = buildGetRequest(url, headers);
         try {
-            HttpResponse response = httpClient.send(request, HttpResponse.BodyHandlers.ofFile(path));
-            if(response.statusCode() != 200) {
-                throw new RuntimeException("Error when downloading file. Status Code: " + response.statusCode());
-            }
-            else {
-                logger.log(Level.INFO, "Successfully downloaded content to file " + path);
-            }
+            awaitPermit(Endpoint.FETCH);
+            HttpResponse<Path> response = sharedClient.send(request, HttpResponse.BodyHandlers.ofFile(path));
+            checkDownloadResponse(response);
         } catch (IOException|InterruptedException e) {
             e.printStackTrace();
             logger.log(Level.SEVERE, "Error when downloading file: " + e.getMessage());
@@ -81,8 +211,149 @@ public class HttpRequestHelper {
         }
     }
 
+    /**
+     * Non-blocking version of {@link #downloadToFile(String, Map, Path)}. The returned future completes
+     * with the path of the file, or exceptionally if the download failed.
+     */
+    public static CompletableFuture<Path> downloadToFileAsync(String url, Map<String, String> headers, Path path) {
+        return schedule(Endpoint.FETCH).thenCompose(scheduled -> downloadToFilePermittedAsync(url, headers, path));
+    }
+
+    /**
+     * {@link #downloadToFileAsync(String, Map, Path)} for a request that already holds a permit of its scheduler
+     */
+    static CompletableFuture<Path> downloadToFilePermittedAsync(String url, Map<String, String> headers, Path path) {
+        HttpRequest request = buildGetRequest(url, headers);
+        return sharedClient.sendAsync(request, HttpResponse.BodyHandlers.ofFile(path))
+                .thenApply(response -> {
+                    checkDownloadResponse(response);
+                    return path;
+                });
+    }
+
+    /**
+     * Download the file in {@code chunks} Range requests made in parallel, retrying failed chunks from the last
+     * byte received. If the download fails, calling this method again for the same path only downloads the
+     * missing chunks. Servers that don't advertise {@code Accept-Ranges: bytes} are downloaded in a single request.
+     */
+    public static void downloadToFile(String url, Map<String, String> headers, Path path, int chunks) {
+        try {
+            downloadToFileAsync(url, headers, path, chunks).join();
+        } catch (CompletionException e) {
+            logger.log(Level.SEVERE, "Error when downloading file: " + e.getCause().getMessage());
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Non-blocking version of {@link #downloadToFile(String, Map, Path, int)}
+     */
+    public static CompletableFuture<Path> downloadToFileAsync(String url, Map<String, String> headers, Path path,
+                                                             int chunks) {
+        RequestScheduler scheduler = sharedScheduler;
+        return scheduler.acquire(Endpoint.FETCH)
+                .thenCompose(scheduled -> downloadToFilePermittedAsync(url, headers, path, chunks, scheduler));
+    }
+
+    /**
+     * Like {@link #downloadToFileAsync(String, Map, Path, int)}, taking a {@link Endpoint#FETCH} permit of
+     * {@code scheduler} for every request after the first one: each chunk, its retries and the single request
+     * made when the server doesn't support ranges. The first request must already hold a permit.
+     */
+    static CompletableFuture<Path> downloadToFilePermittedAsync(String url, Map<String, String> headers, Path path,
+                                                               int chunks, RequestScheduler scheduler) {
+        if(chunks <= 1) {
+            return downloadToFilePermittedAsync(url, headers, path);
+        }
+        return new RangedDownload(sharedClient, url, headers, path, chunks, scheduler).start();
+    }
+
+    /**
+     * Open the body of a GET request as a stream, without writing it to disk. The future completes as soon as
+     * the response headers arrive, or exceptionally if the status is not 200.
+     *
+     * The body is pulled from the connection as it's read from the stream, so a slow reader slows down the
+     * download instead of making the client buffer the whole response. Close the stream when done.
+     */
+    public static CompletableFuture<InputStream> openStreamAsync(String url, Map<String, String> headers) {
+        return schedule(Endpoint.FETCH).thenCompose(scheduled -> openStreamPermittedAsync(url, headers));
+    }
+
+    /**
+     * {@link #openStreamAsync(String, Map)} for a request that already holds a permit of its scheduler
+     */
+    static CompletableFuture<InputStream> openStreamPermittedAsync(String url, Map<String, String> headers) {
+        HttpRequest request = buildGetRequest(url, headers);
+        return sharedClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> {
+                    if(response.statusCode() != 200) {
+                        try (InputStream errorBody = response.body()) {
+                            errorBody.transferTo(OutputStream.nullOutputStream());
+                        } catch (IOException e) {
+                            logger.log(Level.WARNING, "Couldn't read the error body: " + e.getMessage());
+                        }
+                        throw HttpStatusException.of("Error when opening stream", response.statusCode(), null,
+                                response.headers());
+                    }
+                    return response.body();
+                });
+    }
+
+    /**
+     * Guess the endpoint of a request made without a {@link RequestExecutor} from its URL, so it's limited
+     * together with the requests of the downloaders
+     */
+    static Endpoint endpointOf(String url, boolean post) {
+        String path = URI.create(url).getPath();
+        if(path == null) {
+            return post ? Endpoint.SUBMIT : Endpoint.STATUS;
+        }
+        if(path.endsWith("/oauth/token")) {
+            return Endpoint.TOKEN;
+        }
+        if(path.endsWith("/fetch")) {
+            return Endpoint.FETCH;
+        }
+        return post ? Endpoint.SUBMIT : Endpoint.STATUS;
+    }
+
+    private static CompletableFuture<Void> schedule(Endpoint endpoint) {
+        return sharedScheduler.acquire(endpoint);
+    }
+
+    private static void awaitPermit(Endpoint endpoint) throws InterruptedException {
+        try {
+            schedule(endpoint).get();
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static void checkDownloadResponse(HttpResponse<Path> response) {
+        if(response.statusCode() != 200) {
+            throw HttpStatusException.of("Error when downloading file", response.statusCode(), null, response.headers());
+        }
+        else {
+            logger.log(Level.INFO, () -> "Successfully downloaded content to file " + response.body());
+        }
+    }
+
+    private static HttpRequest buildGetRequest(String url, Map<String, String> headers) {
+        return getRequestBuilder(url, headers)
+                .GET()
+                .build();
+    }
+
+    private static HttpRequest buildPostRequest(String url, Map<String, String> headers, String jsonBody) {
+        return getRequestBuilder(url, headers)
+                .POST(HttpRequest.BodyPublishers.ofString(jsonBody))
+                .build();
+    }
+
     private static HttpRequest.Builder getRequestBuilder(String url, Map<String, String> headers) {
-        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder().uri(URI.create(url));
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(sharedClient.getConfig().getRequestTimeout());
         if(headers != null) {
             for(String header: headers.keySet()) {
                 requestBuilder.header(header,  headers.get(header));
@@ -91,27 +362,51 @@ public class HttpRequestHelper {
         return requestBuilder;
     }
 
-    private static Optional<String> handleResponse(HttpRequest request) {
-        HttpClient httpClient = HttpClient.newHttpClient();
+    private static Optional<String> handleResponse(HttpRequest request, Endpoint endpoint) {
         try {
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+            awaitPermit(endpoint);
+            HttpResponse<String> response = sharedClient.send(request, HttpResponse.BodyHandlers.ofString());
+            return getBodyIfSuccessful(response);
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+            logger.log(Level.SEVERE, "Couldn't make the request. Error: " + e.getMessage());
+            return Optional.empty();
+        }
+    }
 
-            if (!Set.of(200, 202, 302).contains(response.statusCode())) {
-                logger.log(Level.SEVERE, "Request finished with status Code: " + response.statusCode());
+    private static CompletableFuture<Optional<String>> handleResponseAsync(HttpRequest request, Endpoint endpoint) {
+        return schedule(endpoint)
+                .thenCompose(scheduled -> sharedClient.sendAsync(request, HttpResponse.BodyHandlers.ofString()))
+                .thenApply(HttpRequestHelper::getBodyIfSuccessful)
+                .exceptionally(e -> {
+                    logger.log(Level.SEVERE, "Couldn't make the request. Error: " + e.getMessage());
+                    return Optional.empty();
+                });
+    }
 
-                if(!response.body().isBlank()) {
-                    logger.log(Level.SEVERE, "Error body: " + response.body());
-                }
+    private static CompletableFuture<String> sendAsync(HttpRequest request) {
+        return sharedClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .thenApply(response -> {
+                    if(!SUCCESSFUL_STATUSES.contains(response.statusCode())) {
+                        throw HttpStatusException.of("Request to " + request.uri() + " failed", response.statusCode(),
+                                response.body(), response.headers());
+                    }
+                    return response.body();
+                });
+    }
 
-                return Optional.empty();
+    private static Optional<String> getBodyIfSuccessful(HttpResponse<String> response) {
+        if (!SUCCESSFUL_STATUSES.contains(response.statusCode())) {
+            logger.log(Level.SEVERE, "Request finished with status Code: " + response.statusCode());
+
+            if(!response.body().isBlank()) {
+                logger.log(Level.SEVERE, "Error body: " + response.body());
             }
 
-            return Optional.of(response.body());
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
-            logger.log(Level.SEVERE, "Couldn't make the request. Error: " + e.getMessage());
             return Optional.empty();
         }
+
+        return Optional.of(response.body());
     }
 
 }
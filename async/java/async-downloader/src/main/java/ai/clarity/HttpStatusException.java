@@ -0,0 +1,65 @@
+package ai.clarity;
+
+import java.net.http.HttpHeaders;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+
+/**
+ * A request that reached the API but finished with an unexpected status code. The status, the error body and
+ * the {@code Retry-After} header are kept so retries can take them into account.
+ */
+public class HttpStatusException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String body;
+    private final Duration retryAfter;
+
+    public HttpStatusException(String message, int statusCode, String body, Duration retryAfter) {
+        super(message);
+        this.statusCode = statusCode;
+        this.body = body;
+        this.retryAfter = retryAfter;
+    }
+
+    static HttpStatusException of(String message, int statusCode, String body, HttpHeaders headers) {
+        Duration retryAfter = headers.firstValue("Retry-After")
+                .flatMap(HttpStatusException::parseRetryAfter)
+                .orElse(null);
+        return new HttpStatusException(message + ". Status Code: " + statusCode, statusCode, body, retryAfter);
+    }
+
+    public int getStatusCode() { return statusCode; }
+
+    /**
+     * Body of the error response, empty if it wasn't read
+     */
+    public Optional<String> getBody() { return Optional.ofNullable(body).filter(b -> !b.isBlank()); }
+
+    /**
+     * Time the server asked to wait before trying again
+     */
+    public Optional<Duration> getRetryAfter() { return Optional.ofNullable(retryAfter); }
+
+    /**
+     * The header can be either a number of seconds or an HTTP date
+     */
+    private static Optional<Duration> parseRetryAfter(String value) {
+        try {
+            return Optional.of(Duration.ofSeconds(Long.parseLong(value.trim())));
+        } catch (NumberFormatException e) {
+            try {
+                Instant retryAt = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+                Duration wait = Duration.between(Instant.now(), retryAt);
+                return Optional.of(wait.isNegative() ? Duration.ZERO : wait);
+            } catch (DateTimeParseException ignored) {
+                return Optional.empty();
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ai.clarity;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * {@link JobMetrics} recorded as JDK Flight Recorder events, to analyse them in JDK Mission Control together with
+ * the GC, threads and I/O of the application. Events are only created while a recording is running, e.g. started
+ * with {@code -XX:StartFlightRecording}, so otherwise this costs close to nothing.
+ *
+ * Phases are recorded as timed events, so JMC shows their duration histogram by endpoint and phase.
+ */
+public class JfrJobMetrics implements JobMetrics {
+
+    @Override
+    public Timer start(String apiPath, Phase phase) {
+        if(!PhaseEvent.TYPE_ENABLED.isEnabled()) {
+            return Timer.NO_OP;
+        }
+        PhaseEvent event = new PhaseEvent();
+        event.apiPath = apiPath;
+        event.phase = phase.name();
+        event.begin();
+        return successful -> {
+            event.successful = successful;
+            event.commit();
+        };
+    }
+
+    @Override
+    public void recordStatusChecks(String apiPath, int checks) {
+        StatusChecksEvent event = new StatusChecksEvent();
+        if(event.isEnabled()) {
+            event.apiPath = apiPath;
+            event.checks = checks;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void recordFetched(String apiPath, long bytes, long durationNanos) {
+        FetchEvent event = new FetchEvent();
+        if(event.isEnabled()) {
+            event.apiPath = apiPath;
+            event.bytes = bytes;
+            event.downloadTime = durationNanos;
+            event.bytesPerSecond = durationNanos > 0 ? Math.round(bytes * 1e9 / durationNanos) : 0;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void recordRetry(String apiPath, Endpoint endpoint) {
+        RetryEvent event = new RetryEvent();
+        if(event.isEnabled()) {
+            event.apiPath = apiPath;
+            event.endpoint = endpoint.name();
+            event.commit();
+        }
+    }
+
+    @Name("ai.clarity.JobPhase")
+    @Label("Job Phase")
+    @Category({"Clarity AI", "Async Jobs"})
+    @Description("A phase of the life of an async job")
+    @StackTrace(false)
+    static class PhaseEvent extends Event {
+        // Any instance tells whether the event type is enabled
+        static final PhaseEvent TYPE_ENABLED = new PhaseEvent();
+
+        @Label("API Path")
+        String apiPath;
+
+        @Label("Phase")
+        String phase;
+
+        @Label("Successful")
+        boolean successful;
+    }
+
+    @Name("ai.clarity.JobStatusChecks")
+    @Label("Job Status Checks")
+    @Category({"Clarity AI", "Async Jobs"})
+    @Description("Number of status checks until a job was not running anymore")
+    @StackTrace(false)
+    static class StatusChecksEvent extends Event {
+        @Label("API Path")
+        String apiPath;
+
+        @Label("Checks")
+        int checks;
+    }
+
+    @Name("ai.clarity.JobFetch")
+    @Label("Job Fetch")
+    @Category({"Clarity AI", "Async Jobs"})
+    @Description("Size and throughput of the download of the results of a job")
+    @StackTrace(false)
+    static class FetchEvent extends Event {
+        @Label("API Path")
+        String apiPath;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Label("Download Time")
+        @Timespan
+        long downloadTime;
+
+        @Label("Throughput")
+        @DataAmount
+        @Frequency
+        long bytesPerSecond;
+    }
+
+    @Name("ai.clarity.RequestRetry")
+    @Label("Request Retry")
+    @Category({"Clarity AI", "Async Jobs"})
+    @Description("A failed request scheduled to be sent again")
+    @StackTrace(false)
+    static class RetryEvent extends Event {
+        @Label("API Path")
+        String apiPath;
+
+        @Label("Endpoint")
+        String endpoint;
+    }
+}
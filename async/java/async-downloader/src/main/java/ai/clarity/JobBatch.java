@@ -0,0 +1,178 @@
+package ai.clarity;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Runs many async jobs concurrently through the same {@link AsyncDownloader}, so the total time is close to
+ * the time of the longest job instead of the sum of all of them.
+ *
+ * At most {@code maxConcurrentJobs} jobs are in flight at the same time: as soon as one of them is downloaded
+ * the next pending one is requested. A failing job doesn't affect the others, its error is reported in its
+ * own {@link JobResult}.
+ *
+ * With {@link #runOnVirtualThreads} each job is run with plain blocking code on its own virtual thread instead.
+ */
+public class JobBatch {
+
+    public static final int DEFAULT_MAX_CONCURRENT_JOBS = 4;
+    private static final Logger logger = Logger.getLogger(JobBatch.class.getName());
+
+    private final AsyncDownloader downloader;
+    private final int maxConcurrentJobs;
+
+    public JobBatch(AsyncDownloader downloader, int maxConcurrentJobs) {
+        if(maxConcurrentJobs < 1) {
+            throw new IllegalArgumentException("maxConcurrentJobs must be at least 1");
+        }
+        this.downloader = downloader;
+        this.maxConcurrentJobs = maxConcurrentJobs;
+    }
+
+    public JobBatch(AsyncDownloader downloader) {
+        this(downloader, DEFAULT_MAX_CONCURRENT_JOBS);
+    }
+
+    /**
+     * Run all the jobs and block until every one of them has finished
+     *
+     * @return   One result per job, in the same order as the given specs
+     */
+    public List<JobResult> run(List<JobSpec> specs) {
+        return runAsync(specs, result -> {}).join();
+    }
+
+    /**
+     * Run all the jobs without blocking
+     *
+     * @param onResult   Called with the result of each job as soon as it finishes, in completion order
+     * @return   A future completed with one result per job, in the same order as the given specs
+     */
+    public CompletableFuture<List<JobResult>> runAsync(List<JobSpec> specs, Consumer<JobResult> onResult) {
+        List<CompletableFuture<JobResult>> results = new ArrayList<>(specs.size());
+        for(int i = 0; i < specs.size(); i++) {
+            results.add(new CompletableFuture<>());
+        }
+
+        AtomicInteger nextJob = new AtomicInteger();
+        int lanes = Math.min(maxConcurrentJobs, specs.size());
+        for(int i = 0; i < lanes; i++) {
+            startNextJob(specs, results, nextJob, onResult);
+        }
+
+        return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new))
+                .thenApply(allFinished -> results.stream()
+                        .map(CompletableFuture::join)
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * Run every job on its own virtual thread with the blocking {@link AsyncDownloader#download} and block until
+     * all of them have finished. {@code onResult} is called on the thread of each job, so it can block too, e.g.
+     * to read the downloaded file or write its rows somewhere else, and thousands of jobs only take a handful of
+     * platform threads.
+     *
+     * @param onResult   Called with the result of each job as soon as it finishes, in completion order
+     * @return   One result per job, in the same order as the given specs
+     */
+    public List<JobResult> runOnVirtualThreads(List<JobSpec> specs, Consumer<JobResult> onResult) {
+        Semaphore permits = new Semaphore(maxConcurrentJobs);
+        List<Future<JobResult>> results = new ArrayList<>(specs.size());
+        // Closing the executor waits for all the jobs
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for(JobSpec spec : specs) {
+                results.add(executor.submit(() -> runBlocking(spec, permits, onResult)));
+            }
+        }
+        return results.stream()
+                .map(Future::resultNow)
+                .collect(Collectors.toList());
+    }
+
+    private JobResult runBlocking(JobSpec spec, Semaphore permits, Consumer<JobResult> onResult)
+            throws InterruptedException {
+        permits.acquire();
+        JobResult result;
+        try {
+            result = JobResult.success(spec, Path.of(downloader.download(spec.apiPath(), spec.params())));
+        } catch (RuntimeException e) {
+            result = JobResult.failure(spec, unwrap(e));
+        } finally {
+            permits.release();
+        }
+        if(!result.isSuccessful()) {
+            logger.log(Level.SEVERE, result.toString());
+        }
+        try {
+            onResult.accept(result);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Error processing the result of job " + spec.apiPath(), e);
+        }
+        return result;
+    }
+
+    /**
+     * Start the pending jobs of a lane one after the other. Jobs that finish at once, e.g. cached results or
+     * immediate failures, are handled in this loop instead of recursing from their callback, so a long run of
+     * them can't overflow the stack.
+     */
+    private void startNextJob(List<JobSpec> specs, List<CompletableFuture<JobResult>> results,
+                              AtomicInteger nextJob, Consumer<JobResult> onResult) {
+        while(true) {
+            int index = nextJob.getAndIncrement();
+            if(index >= specs.size()) {
+                return;
+            }
+
+            JobSpec spec = specs.get(index);
+            CompletableFuture<Path> download;
+            try {
+                download = downloader.downloadAsync(spec.apiPath(), spec.params());
+            } catch (RuntimeException e) {
+                download = CompletableFuture.failedFuture(e);
+            }
+
+            if(!download.isDone()) {
+                download.whenComplete((path, error) -> {
+                    finishJob(spec, index, path, error, results, onResult);
+                    startNextJob(specs, results, nextJob, onResult);
+                });
+                return;
+            }
+            download.handle((path, error) -> {
+                finishJob(spec, index, path, error, results, onResult);
+                return null;
+            });
+        }
+    }
+
+    private void finishJob(JobSpec spec, int index, Path path, Throwable error,
+                           List<CompletableFuture<JobResult>> results, Consumer<JobResult> onResult) {
+        JobResult result = error == null ? JobResult.success(spec, path) : JobResult.failure(spec, unwrap(error));
+        if(!result.isSuccessful()) {
+            logger.log(Level.SEVERE, result.toString());
+        }
+        try {
+            onResult.accept(result);
+        } catch (RuntimeException e) {
+            logger.log(Level.SEVERE, "Error processing the result of job " + spec.apiPath(), e);
+        }
+        results.get(index).complete(result);
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+}
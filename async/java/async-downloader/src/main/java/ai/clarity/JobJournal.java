@@ -0,0 +1,316 @@
+package ai.clarity;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only log of the jobs requested by an {@link AsyncDownloader}, so the jobs still running on the API when
+ * the process stops are followed again after a restart instead of being requested again.
+ *
+ * Each line records a change of state of a job: its key (the same hash of the endpoint and params as
+ * {@link ResultCache#keyOf}), its id, its endpoint and, once downloaded, the path of its results. Lines are written
+ * by a single thread: all the records appended while it's writing are written and synced to disk together, so
+ * many concurrent jobs cost a few fsyncs instead of one each. The returned futures complete once the record is on
+ * disk.
+ *
+ * Only unfinished jobs are kept in memory. When the log has many more lines than unfinished jobs it's compacted,
+ * rewriting only the unfinished ones to a new file that replaces the old one atomically.
+ */
+public class JobJournal implements AutoCloseable {
+
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10_000;
+    private static final Logger logger = Logger.getLogger(JobJournal.class.getName());
+    private static final String JOURNAL_FILE = "jobs.journal";
+
+    public enum State {
+        /** Requested to the API, which is running it */
+        SUBMITTED,
+        /** Finished correctly on the API, but its results are not downloaded yet */
+        FINISHED,
+        /** Results downloaded, nothing left to do */
+        DOWNLOADED,
+        /** Failed or didn't finish correctly, nothing left to do */
+        FAILED;
+
+        boolean isDone() {
+            return this == DOWNLOADED || this == FAILED;
+        }
+    }
+
+    /**
+     * Last known state of a job
+     *
+     * @param resultPath   Path of the downloaded results, only when {@code DOWNLOADED}
+     */
+    public record Entry(String key, String jobId, String apiPath, State state, Path resultPath) {
+
+        String toLine() {
+            return state + " " + key + " " + jobId + " " + apiPath + (resultPath == null ? "" : " " + resultPath) + "\n";
+        }
+
+        static Optional<Entry> fromLine(String line) {
+            String[] fields = line.split(" ", 5);
+            if(fields.length < 4) {
+                return Optional.empty();
+            }
+            try {
+                return Optional.of(new Entry(fields[1], fields[2], fields[3], State.valueOf(fields[0]),
+                        fields.length == 5 ? Path.of(fields[4]) : null));
+            } catch (IllegalArgumentException e) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    private record Pending(Entry entry, CompletableFuture<Void> written) {}
+
+    private final Path file;
+    private final int compactionThreshold;
+    private final ExecutorService writer;
+    // Guards the unfinished jobs and the pending records, never held while writing to disk
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Entry> unfinished = new LinkedHashMap<>();
+    private List<Pending> pending = new ArrayList<>();
+    private boolean writeScheduled;
+    private boolean closed;
+    private FileChannel channel;
+    private int linesInFile;
+
+    /**
+     * @param compactionThreshold   Minimum number of lines before compacting the log
+     */
+    public JobJournal(Path directory, int compactionThreshold) {
+        this.file = directory.resolve(JOURNAL_FILE);
+        this.compactionThreshold = compactionThreshold;
+        this.writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "clarity-job-journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            Files.createDirectories(directory);
+            replay();
+            compact();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't open the job journal in " + directory, e);
+        }
+    }
+
+    public JobJournal(Path directory) {
+        this(directory, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * @return   The unfinished job requested with the same endpoint and params, if any
+     */
+    public Optional<Entry> findUnfinished(String apiPath, Map<String, Object> params) {
+        String key = ResultCache.keyOf(apiPath, params);
+        lock.lock();
+        try {
+            return Optional.ofNullable(unfinished.get(key));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return   The jobs that were submitted but not downloaded nor failed, in the order they were submitted
+     */
+    public List<Entry> getUnfinishedJobs() {
+        lock.lock();
+        try {
+            return List.copyOf(unfinished.values());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return   A future completed with the entry of the job once it's on disk
+     */
+    public CompletableFuture<Entry> recordSubmitted(String apiPath, Map<String, Object> params, String jobId) {
+        Entry job = new Entry(ResultCache.keyOf(apiPath, params), jobId, apiPath, State.SUBMITTED, null);
+        return append(job).thenApply(written -> job);
+    }
+
+    public CompletableFuture<Void> recordFinished(Entry job) {
+        return append(new Entry(job.key(), job.jobId(), job.apiPath(), State.FINISHED, null));
+    }
+
+    public CompletableFuture<Void> recordDownloaded(Entry job, Path resultPath) {
+        return append(new Entry(job.key(), job.jobId(), job.apiPath(), State.DOWNLOADED, resultPath));
+    }
+
+    public CompletableFuture<Void> recordFailed(Entry job) {
+        return append(new Entry(job.key(), job.jobId(), job.apiPath(), State.FAILED, null));
+    }
+
+    /**
+     * Write the pending records and stop the writer thread. Records appended afterwards fail.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+        } finally {
+            lock.unlock();
+        }
+        writer.shutdown();
+        try {
+            if(!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.log(Level.WARNING, "Timed out writing the job journal " + file);
+            }
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Couldn't close the job journal " + file + ": " + e.getMessage());
+        }
+    }
+
+    private CompletableFuture<Void> append(Entry entry) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        lock.lock();
+        try {
+            if(closed) {
+                written.completeExceptionally(new IllegalStateException("The job journal " + file + " is closed"));
+                return written;
+            }
+            apply(entry);
+            pending.add(new Pending(entry, written));
+            if(!writeScheduled) {
+                writeScheduled = true;
+                writer.execute(this::writePending);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return written;
+    }
+
+    private void apply(Entry entry) {
+        if(entry.state().isDone()) {
+            unfinished.remove(entry.key());
+        }
+        else {
+            unfinished.put(entry.key(), entry);
+        }
+    }
+
+    /**
+     * Write every record appended since the last write with a single write and fsync
+     */
+    private void writePending() {
+        List<Pending> batch;
+        int unfinishedJobs;
+        lock.lock();
+        try {
+            batch = pending;
+            pending = new ArrayList<>();
+            writeScheduled = false;
+            unfinishedJobs = unfinished.size();
+        } finally {
+            lock.unlock();
+        }
+
+        StringBuilder lines = new StringBuilder();
+        for(Pending record : batch) {
+            lines.append(record.entry().toLine());
+        }
+        try {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(lines.toString());
+            while(bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+            linesInFile += batch.size();
+            batch.forEach(record -> record.written().complete(null));
+        } catch (IOException e) {
+            UncheckedIOException error = new UncheckedIOException("Couldn't write the job journal " + file, e);
+            batch.forEach(record -> record.written().completeExceptionally(error));
+            return;
+        }
+
+        if(linesInFile >= compactionThreshold && linesInFile > 2 * unfinishedJobs) {
+            try {
+                compact();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Couldn't compact the job journal " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void replay() throws IOException {
+        if(!Files.exists(file)) {
+            return;
+        }
+        byte[] bytes = Files.readAllBytes(file);
+        // A last line cut by a crash while it was being written has no line break and is ignored, even if it
+        // parses, e.g. cut inside the endpoint. Decoding only complete lines can't find a cut UTF-8 character.
+        int end = bytes.length;
+        while(end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        if(end < bytes.length) {
+            logger.log(Level.WARNING, "Ignoring the incomplete last line of the job journal " + file);
+        }
+        String lines = new String(bytes, 0, end, StandardCharsets.UTF_8);
+        for(String line : lines.split("\n")) {
+            Entry.fromLine(line).ifPresent(this::apply);
+        }
+        if(!unfinished.isEmpty()) {
+            logger.log(Level.INFO, () -> unfinished.size() + " unfinished jobs found in " + file);
+        }
+    }
+
+    /**
+     * Replace the log with a new one with only the unfinished jobs. Only called by the constructor and the writer
+     * thread, so no line is written meanwhile.
+     */
+    private void compact() throws IOException {
+        List<Entry> entries;
+        lock.lock();
+        try {
+            entries = List.copyOf(unfinished.values());
+        } finally {
+            lock.unlock();
+        }
+        Path tmp = file.resolveSibling(JOURNAL_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder lines = new StringBuilder();
+            entries.forEach(entry -> lines.append(entry.toLine()));
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(lines.toString());
+            while(bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(false);
+        }
+        if(channel != null) {
+            channel.close();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        linesInFile = entries.size();
+    }
+}
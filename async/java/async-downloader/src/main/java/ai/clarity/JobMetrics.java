@@ -0,0 +1,69 @@
+package ai.clarity;
+
+/**
+ * Receives the timings and counts of the life of the jobs of an {@link AsyncDownloader}, to see where the time
+ * goes: getting the token, requesting the job, waiting for the API to run it, checking its status and fetching
+ * its results.
+ *
+ * Every method does nothing by default, so implementations only override what they need. {@link #NO_OP} is
+ * used unless another implementation is given, and {@link JfrJobMetrics} records them as JDK Flight Recorder
+ * events.
+ */
+public interface JobMetrics {
+
+    JobMetrics NO_OP = new JobMetrics() {};
+
+    enum Phase {
+        /** Request of an access token */
+        TOKEN,
+        /** Request of a new job, until its id is received */
+        SUBMIT,
+        /** From the job being accepted until it's not running anymore: the time in the queue and running */
+        WAIT,
+        /** A single status check */
+        STATUS,
+        /** Download of the results, or opening them as a stream */
+        FETCH
+    }
+
+    /**
+     * Time of a phase in progress
+     */
+    @FunctionalInterface
+    interface Timer {
+        Timer NO_OP = successful -> {};
+
+        void stop(boolean successful);
+    }
+
+    /**
+     * Start timing a phase. {@link Timer#stop(boolean)} must be called when it finishes.
+     *
+     * @param apiPath   Endpoint of the job, or null for the token
+     */
+    default Timer start(String apiPath, Phase phase) {
+        return Timer.NO_OP;
+    }
+
+    /**
+     * Called once a job is not running anymore, with the number of status checks it took
+     */
+    default void recordStatusChecks(String apiPath, int checks) {
+    }
+
+    /**
+     * Called when the results of a job were fetched
+     *
+     * @param durationNanos   Time since the download started until the last byte was received
+     */
+    default void recordFetched(String apiPath, long bytes, long durationNanos) {
+    }
+
+    /**
+     * Called every time a failed request is scheduled to be sent again
+     *
+     * @param apiPath   Endpoint of the job the request belongs to, null for token requests or if unknown
+     */
+    default void recordRetry(String apiPath, Endpoint endpoint) {
+    }
+}
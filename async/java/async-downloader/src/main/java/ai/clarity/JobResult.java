@@ -0,0 +1,44 @@
+package ai.clarity;
+
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Outcome of one job of a {@link JobBatch}: either the path of the downloaded results or the error
+ * that made that job fail
+ */
+public class JobResult {
+
+    private final JobSpec spec;
+    private final Path path;
+    private final Throwable error;
+
+    private JobResult(JobSpec spec, Path path, Throwable error) {
+        this.spec = spec;
+        this.path = path;
+        this.error = error;
+    }
+
+    public static JobResult success(JobSpec spec, Path path) {
+        return new JobResult(spec, path, null);
+    }
+
+    public static JobResult failure(JobSpec spec, Throwable error) {
+        return new JobResult(spec, null, error);
+    }
+
+    public JobSpec getSpec() { return spec; }
+
+    public boolean isSuccessful() { return error == null; }
+
+    public Optional<Path> getPath() { return Optional.ofNullable(path); }
+
+    public Optional<Throwable> getError() { return Optional.ofNullable(error); }
+
+    @Override
+    public String toString() {
+        return isSuccessful()
+                ? "Job " + spec.apiPath() + " downloaded to " + path
+                : "Job " + spec.apiPath() + " failed: " + error.getMessage();
+    }
+}
@@ -0,0 +1,14 @@
+package ai.clarity;
+
+import java.util.Map;
+
+/**
+ * An async job to request to the API: the endpoint path (e.g. "/securities/esg-risk/scores-by-id/async")
+ * and the parameters sent in the body of the request
+ */
+public record JobSpec(String apiPath, Map<String, Object> params) {
+
+    public static JobSpec of(String apiPath, Map<String, Object> params) {
+        return new JobSpec(apiPath, params);
+    }
+}
@@ -0,0 +1,17 @@
+package ai.clarity;
+
+import java.util.Optional;
+
+/**
+ * Response of the {@code /job/{id}/status} endpoint
+ */
+public record JobStatusResponse(String statusMessage) {
+
+    /**
+     * Status checks are the most frequent requests, so only the status field is read from the response,
+     * skipping everything else
+     */
+    public static Optional<JobStatusResponse> fromJson(String json) {
+        return HttpRequestHelper.readStringField(json, "statusMessage").map(JobStatusResponse::new);
+    }
+}
@@ -0,0 +1,30 @@
+package ai.clarity;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Where a {@link JobStatusTracker} gets the status of the jobs it follows from.
+ *
+ * Only {@link #statusOf(String)} is required. Sources able to report the status of several jobs with a single
+ * request should also override {@link #statusOf(Collection)}, which the tracker uses to check all the jobs
+ * that are due in the same tick at once.
+ */
+@FunctionalInterface
+public interface JobStatusSource {
+
+    CompletableFuture<String> statusOf(String jobId);
+
+    /**
+     * @return   One future per job id, so a failure checking one job doesn't affect the others
+     */
+    default Map<String, CompletableFuture<String>> statusOf(Collection<String> jobIds) {
+        Map<String, CompletableFuture<String>> statuses = new LinkedHashMap<>();
+        for(String jobId : jobIds) {
+            statuses.put(jobId, statusOf(jobId));
+        }
+        return statuses;
+    }
+}
@@ -0,0 +1,197 @@
+package ai.clarity;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Follows the status of every in-flight job from a single scheduler thread.
+ *
+ * Jobs are registered with {@link #track} together with the {@link PollingStrategy} that decides when each
+ * of their status checks is due, and on every tick the tracker checks all the jobs that are due,
+ * grouping them by {@link JobStatusSource} so sources that support it can answer for several jobs at once.
+ * When the status of a job is not "RUNNING" anymore its future is completed with that status.
+ *
+ * Tracking the same job id of the same source twice returns the same future, and the number of status checks
+ * in flight is bounded, so many concurrent jobs don't turn into bursts of status requests. When more jobs are
+ * due than can be checked, the ones that have been due the longest go first, so no job is starved.
+ */
+public class JobStatusTracker {
+
+    public static final long DEFAULT_TICK_MILISECS = 100;
+    public static final int DEFAULT_MAX_CHECKS_IN_FLIGHT = 64;
+    private static final Logger logger = Logger.getLogger(JobStatusTracker.class.getName());
+
+    private static final JobStatusTracker shared = new JobStatusTracker(DEFAULT_TICK_MILISECS, DEFAULT_MAX_CHECKS_IN_FLIGHT);
+
+    private final ScheduledExecutorService scheduler;
+    private final int maxChecksInFlight;
+    private final Map<JobKey, TrackedJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicInteger checksInFlight = new AtomicInteger();
+    private final AtomicLong statusChecks = new AtomicLong();
+
+    /**
+     * Job ids are only unique within the API that created them, so jobs are told apart by their source too
+     */
+    private record JobKey(JobStatusSource source, String jobId) {}
+
+    private static class TrackedJob {
+        final String jobId;
+        final String apiPath;
+        final PollingStrategy pollingStrategy;
+        final JobStatusSource source;
+        final CompletableFuture<String> finalStatus = new CompletableFuture<>();
+        final long startedAt;
+        volatile int attempt = 1;
+        volatile long nextCheckAt;
+        volatile boolean checking;
+
+        TrackedJob(String jobId, String apiPath, PollingStrategy pollingStrategy, JobStatusSource source) {
+            this.jobId = jobId;
+            this.apiPath = apiPath;
+            this.pollingStrategy = pollingStrategy;
+            this.source = source;
+            this.startedAt = System.currentTimeMillis();
+            this.nextCheckAt = startedAt + pollingStrategy.nextDelay(apiPath, attempt, 0);
+        }
+    }
+
+    public JobStatusTracker(long tickMilisecs, int maxChecksInFlight) {
+        this.maxChecksInFlight = maxChecksInFlight;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "clarity-job-status-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleAtFixedRate(this::tick, tickMilisecs, tickMilisecs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Tracker shared by all the {@link AsyncDownloader} instances of the JVM
+     */
+    public static JobStatusTracker shared() {
+        return shared;
+    }
+
+    /**
+     * Start following a job, checking its status every {@code pollInterval} milliseconds
+     *
+     * @return   A future completed with the first status of the job that is not "RUNNING"
+     */
+    public CompletableFuture<String> track(String jobId, long pollInterval, JobStatusSource source) {
+        return track(jobId, null, PollingStrategy.fixed(pollInterval), source);
+    }
+
+    /**
+     * Start following a job created by {@code apiPath}, waiting between status checks as decided by the
+     * given polling strategy
+     *
+     * @return   A future completed with the first status of the job that is not "RUNNING"
+     */
+    public CompletableFuture<String> track(String jobId, String apiPath, PollingStrategy pollingStrategy,
+                                          JobStatusSource source) {
+        return jobs.computeIfAbsent(new JobKey(source, jobId),
+                key -> new TrackedJob(jobId, apiPath, pollingStrategy, source)).finalStatus;
+    }
+
+    public int getTrackedJobs() { return jobs.size(); }
+
+    /**
+     * Status checks made since this tracker was created
+     */
+    public long getStatusChecks() { return statusChecks.get(); }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void tick() {
+        try {
+            long now = System.currentTimeMillis();
+            List<TrackedJob> dueJobs = new ArrayList<>();
+            for(TrackedJob job : jobs.values()) {
+                if(!job.checking && job.nextCheckAt <= now) {
+                    dueJobs.add(job);
+                }
+            }
+            dueJobs.sort(Comparator.comparingLong(job -> job.nextCheckAt));
+
+            Map<JobStatusSource, List<TrackedJob>> dueJobsBySource = new HashMap<>();
+            for(TrackedJob job : dueJobs) {
+                if(checksInFlight.get() >= maxChecksInFlight) {
+                    break;
+                }
+                job.checking = true;
+                checksInFlight.incrementAndGet();
+                dueJobsBySource.computeIfAbsent(job.source, source -> new ArrayList<>()).add(job);
+            }
+
+            for(Map.Entry<JobStatusSource, List<TrackedJob>> entry : dueJobsBySource.entrySet()) {
+                checkJobs(entry.getKey(), entry.getValue());
+            }
+        } catch (RuntimeException e) {
+            // Never let an exception cancel the periodic task
+            logger.log(Level.SEVERE, "Error checking the status of the tracked jobs", e);
+        }
+    }
+
+    private void checkJobs(JobStatusSource source, List<TrackedJob> dueJobs) {
+        List<String> jobIds = new ArrayList<>(dueJobs.size());
+        for(TrackedJob job : dueJobs) {
+            jobIds.add(job.jobId);
+        }
+
+        Map<String, CompletableFuture<String>> statuses;
+        try {
+            statuses = source.statusOf(jobIds);
+        } catch (RuntimeException e) {
+            for(TrackedJob job : dueJobs) {
+                onStatusChecked(job, null, e);
+            }
+            return;
+        }
+
+        for(TrackedJob job : dueJobs) {
+            statusChecks.incrementAndGet();
+            CompletableFuture<String> status = statuses.get(job.jobId);
+            if(status == null) {
+                onStatusChecked(job, null, new IllegalStateException("No status returned for job " + job.jobId));
+            }
+            else {
+                status.whenComplete((value, error) -> onStatusChecked(job, value, error));
+            }
+        }
+    }
+
+    private void onStatusChecked(TrackedJob job, String status, Throwable error) {
+        checksInFlight.decrementAndGet();
+        if(error != null) {
+            jobs.remove(new JobKey(job.source, job.jobId));
+            job.finalStatus.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+        }
+        else if("RUNNING".equals(status)) {
+            long now = System.currentTimeMillis();
+            job.attempt++;
+            job.nextCheckAt = now + job.pollingStrategy.nextDelay(job.apiPath, job.attempt, now - job.startedAt);
+            job.checking = false;
+        }
+        else {
+            jobs.remove(new JobKey(job.source, job.jobId));
+            job.pollingStrategy.onJobFinished(job.apiPath, System.currentTimeMillis() - job.startedAt);
+            job.finalStatus.complete(status);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package ai.clarity;
+
+/**
+ * Response of the async endpoints when a new job is requested
+ */
+public record JobSubmitResponse(String uuid) {
+}
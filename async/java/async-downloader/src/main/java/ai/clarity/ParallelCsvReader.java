@@ -0,0 +1,523 @@
+package ai.clarity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads the rows of a job result ({@code .csv.gz}) using all the cores, for files too big to parse on a single
+ * thread like {@link CsvResultReader} does.
+ *
+ * One thread decompresses the file into chunks of about {@code chunkSize} bytes, each cut at the end of a record.
+ * {@code workers} threads decode the chunks, split them into records and tokenize them in parallel. Chunks are
+ * reused from a fixed pool and passed between the threads through bounded queues, so memory stays constant and
+ * decompression waits when the workers can't keep up.
+ *
+ * Rows can be received in the order of the file, on the calling thread, with {@link #forEach}, or as soon as
+ * they are parsed, on the worker threads, with {@link #forEachUnordered}. As with {@link CsvResultReader}, the
+ * {@link CsvRow} given to the sink is reused, so copy what you need before returning:
+ * <pre>
+ *     try (var reader = ParallelCsvReader.open(path)) {
+ *         int score = reader.getColumnIndex("value");
+ *         DoubleAdder total = new DoubleAdder();
+ *         reader.forEachUnordered(row -> total.add(row.getDouble(score)));
+ *     }
+ * </pre>
+ */
+public class ParallelCsvReader implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+    private static final int GZIP_BUFFER_SIZE = 64 * 1024;
+    private static final AtomicInteger readerCount = new AtomicInteger();
+
+    private final InputStream inflated;
+    private final int workers;
+    private final int chunkSize;
+    private final List<String> header;
+    // Bytes already read after the header, the beginning of the first chunk
+    private byte[] pending = new byte[GZIP_BUFFER_SIZE];
+    private int pendingLength;
+    private boolean read;
+
+    public ParallelCsvReader(InputStream inflated, int workers, int chunkSize) {
+        if(workers < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("There must be at least one worker and the chunks can't be empty");
+        }
+        this.inflated = inflated;
+        this.workers = workers;
+        this.chunkSize = chunkSize;
+        this.header = readHeader();
+    }
+
+    /**
+     * Open a gzipped CSV file with a worker for every core but the one decompressing it
+     */
+    public static ParallelCsvReader open(Path gzipFile) {
+        return open(gzipFile, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), DEFAULT_CHUNK_SIZE);
+    }
+
+    public static ParallelCsvReader open(Path gzipFile, int workers, int chunkSize) {
+        InputStream file = null;
+        try {
+            file = Files.newInputStream(gzipFile);
+            return new ParallelCsvReader(new GZIPInputStream(file, GZIP_BUFFER_SIZE), workers, chunkSize);
+        } catch (IOException e) {
+            closeQuietly(file);
+            throw new UncheckedIOException("Couldn't open file " + gzipFile, e);
+        }
+    }
+
+    public List<String> getHeader() {
+        return header;
+    }
+
+    /**
+     * @return   The index of the column with the given name in the header, or -1 if there is no such column
+     */
+    public int getColumnIndex(String columnName) {
+        return header.indexOf(columnName);
+    }
+
+    /**
+     * Give every row to {@code sink} in the order of the file, on the calling thread. Rows are parsed in parallel,
+     * but only the work done by the sink itself is sequential.
+     */
+    public void forEach(Consumer<CsvRow> sink) {
+        new Pipeline(sink, true).run();
+    }
+
+    /**
+     * Give every row to {@code sink} from the worker threads, as soon as it's parsed, so {@code sink} must be
+     * thread-safe. Rows of the same chunk are given in order by the same thread.
+     */
+    public void forEachUnordered(Consumer<CsvRow> sink) {
+        new Pipeline(sink, false).run();
+    }
+
+    @Override
+    public void close() {
+        try {
+            inflated.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read up to the end of the first record and tokenize it, keeping the bytes read after it
+     */
+    private List<String> readHeader() {
+        int recordEnd = -1;
+        int scanned = 0;
+        boolean inQuotes = false;
+        boolean endOfInput = false;
+        while(recordEnd < 0 && !endOfInput) {
+            if(pendingLength == pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            int count = readInflated(pending, pendingLength, pending.length - pendingLength);
+            if(count < 0) {
+                endOfInput = true;
+            }
+            else {
+                pendingLength += count;
+            }
+            for(; scanned < pendingLength && recordEnd < 0; scanned++) {
+                byte b = pending[scanned];
+                if(b == '"') {
+                    inQuotes = !inQuotes;
+                }
+                else if(b == '\n' && !inQuotes) {
+                    recordEnd = scanned;
+                }
+            }
+        }
+
+        int end = recordEnd >= 0 ? recordEnd : pendingLength;
+        char[] chars = new String(pending, 0, end, StandardCharsets.UTF_8).toCharArray();
+        int length = chars.length > 0 && chars[chars.length - 1] == '\r' ? chars.length - 1 : chars.length;
+        int next = recordEnd >= 0 ? recordEnd + 1 : pendingLength;
+        System.arraycopy(pending, next, pending, 0, pendingLength - next);
+        pendingLength -= next;
+        if(length == 0) {
+            return Collections.emptyList();
+        }
+
+        CsvRow row = new CsvRow();
+        CsvTokenizer.tokenize(chars, 0, length, row);
+        return Collections.unmodifiableList(Arrays.asList(row.toArray()));
+    }
+
+    private int readInflated(byte[] buffer, int offset, int length) {
+        try {
+            return inflated.read(buffer, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Error reading CSV data", e);
+        }
+    }
+
+    /**
+     * Part of the file with only whole records. The buffers are reused for every chunk it holds.
+     */
+    private static class Chunk {
+        static final Chunk END = new Chunk(0);
+
+        byte[] bytes;
+        int length;
+        long sequence;
+        char[] chars = new char[0];
+        int charsLength;
+        // Bounds of the fields of each row, only kept when rows are given in order
+        int[] fieldBounds = new int[1024];
+        int[] rowEnds = new int[64];
+        int rows;
+
+        Chunk(int size) {
+            this.bytes = new byte[size];
+        }
+
+        void decode(CharsetDecoder decoder) {
+            if(chars.length < length) {
+                chars = new char[length];
+            }
+            CharBuffer out = CharBuffer.wrap(chars);
+            decoder.reset();
+            decoder.decode(ByteBuffer.wrap(bytes, 0, length), out, true);
+            decoder.flush(out);
+            charsLength = out.position();
+            rows = 0;
+        }
+
+        void addRow(CsvRow row) {
+            int fields = rows == 0 ? 0 : rowEnds[rows - 1];
+            if(fields + 2 * row.size() > fieldBounds.length) {
+                fieldBounds = Arrays.copyOf(fieldBounds, Math.max(fieldBounds.length * 2, fields + 2 * row.size()));
+            }
+            for(int i = 0; i < row.size(); i++) {
+                fieldBounds[fields++] = row.fieldStart(i);
+                fieldBounds[fields++] = row.fieldEnd(i);
+            }
+            if(rows == rowEnds.length) {
+                rowEnds = Arrays.copyOf(rowEnds, rows * 2);
+            }
+            rowEnds[rows++] = fields;
+        }
+
+        void loadRow(int index, CsvRow row) {
+            row.reset(chars);
+            for(int i = index == 0 ? 0 : rowEnds[index - 1]; i < rowEnds[index]; i += 2) {
+                row.addField(fieldBounds[i], fieldBounds[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * A single read of the rows: the decompressing thread, the workers and, for ordered reads, the calling
+     * thread giving the parsed chunks to the sink in sequence
+     */
+    private class Pipeline {
+        private final Consumer<CsvRow> sink;
+        private final boolean ordered;
+        private final BlockingQueue<Chunk> freeChunks;
+        private final BlockingQueue<Chunk> filledChunks;
+        private final ExecutorService threads;
+        private final AtomicReference<Throwable> failure = new AtomicReference<>();
+        // Guards the parsed chunks waiting for their turn and the total of chunks
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition chunkParsed = lock.newCondition();
+        private final Map<Long, Chunk> parsedChunks = new HashMap<>();
+        private long totalChunks = -1;
+        private int runningTasks;
+
+        Pipeline(Consumer<CsvRow> sink, boolean ordered) {
+            if(read) {
+                throw new IllegalStateException("The rows can only be read once");
+            }
+            read = true;
+            this.sink = sink;
+            this.ordered = ordered;
+            // Enough chunks for every worker to have one while the next ones are decompressed and delivered
+            int poolSize = 2 * workers + 2;
+            this.freeChunks = new ArrayBlockingQueue<>(poolSize);
+            this.filledChunks = new ArrayBlockingQueue<>(poolSize + workers);
+            for(int i = 0; i < poolSize; i++) {
+                freeChunks.add(new Chunk(chunkSize));
+            }
+            int id = readerCount.incrementAndGet();
+            AtomicInteger threadCount = new AtomicInteger();
+            this.threads = Executors.newFixedThreadPool(workers + 1, runnable -> {
+                Thread thread = new Thread(runnable, "clarity-csv-" + id + "-" + threadCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        void run() {
+            runningTasks = workers + 1;
+            try {
+                threads.execute(() -> guard(this::inflate));
+                for(int i = 0; i < workers; i++) {
+                    threads.execute(() -> guard(this::parse));
+                }
+                threads.shutdown();
+                if(ordered) {
+                    deliverInOrder();
+                }
+                else {
+                    lock.lock();
+                    try {
+                        while(runningTasks > 0 && failure.get() == null) {
+                            chunkParsed.await();
+                        }
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(e);
+            } catch (RuntimeException | Error e) {
+                fail(e);
+            } finally {
+                threads.shutdownNow();
+            }
+
+            Throwable error = failure.get();
+            if(error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if(error instanceof Error) {
+                throw (Error) error;
+            }
+            if(error != null) {
+                throw new RuntimeException("Couldn't read the CSV rows", error);
+            }
+        }
+
+        /**
+         * Fill chunks with the decompressed data, cutting each one at the end of its last whole record
+         */
+        private void inflate() throws InterruptedException {
+            byte[] tail = pending;
+            int tailLength = pendingLength;
+            long sequence = 0;
+            boolean endOfInput = false;
+            while(!endOfInput) {
+                Chunk chunk = freeChunks.take();
+                if(chunk.bytes.length < tailLength + chunkSize) {
+                    chunk.bytes = new byte[tailLength + chunkSize];
+                }
+                System.arraycopy(tail, 0, chunk.bytes, 0, tailLength);
+                int length = tailLength;
+                int cut;
+                while(true) {
+                    while(length < chunk.bytes.length && !endOfInput) {
+                        int count = readInflated(chunk.bytes, length, chunk.bytes.length - length);
+                        if(count < 0) {
+                            endOfInput = true;
+                        }
+                        else {
+                            length += count;
+                        }
+                    }
+                    cut = endOfInput ? length : lastRecordEnd(chunk.bytes, length);
+                    if(cut > 0 || endOfInput) {
+                        break;
+                    }
+                    // A single record bigger than the chunk
+                    chunk.bytes = Arrays.copyOf(chunk.bytes, length * 2);
+                }
+
+                tailLength = length - cut;
+                if(tail.length < tailLength) {
+                    tail = new byte[Math.max(tail.length * 2, tailLength)];
+                }
+                System.arraycopy(chunk.bytes, cut, tail, 0, tailLength);
+                chunk.length = cut;
+                chunk.sequence = sequence++;
+                filledChunks.put(chunk);
+            }
+
+            lock.lock();
+            try {
+                totalChunks = sequence;
+                chunkParsed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            for(int i = 0; i < workers; i++) {
+                filledChunks.put(Chunk.END);
+            }
+        }
+
+        /**
+         * @return   The position after the last line break outside quotes, or 0 if there is none. Chunks always
+         *           start at the beginning of a record, so quotes are balanced at their start.
+         */
+        private int lastRecordEnd(byte[] bytes, int length) {
+            boolean inQuotes = false;
+            int recordEnd = 0;
+            for(int i = 0; i < length; i++) {
+                byte b = bytes[i];
+                if(b == '"') {
+                    inQuotes = !inQuotes;
+                }
+                else if(b == '\n' && !inQuotes) {
+                    recordEnd = i + 1;
+                }
+            }
+            return recordEnd;
+        }
+
+        /**
+         * Decode the chunks, find their records and tokenize them
+         */
+        private void parse() throws InterruptedException {
+            CsvRow row = new CsvRow();
+            CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            while(true) {
+                Chunk chunk = filledChunks.take();
+                if(chunk == Chunk.END) {
+                    return;
+                }
+                chunk.decode(decoder);
+                char[] chars = chunk.chars;
+                int start = 0;
+                boolean inQuotes = false;
+                for(int i = 0; i <= chunk.charsLength; i++) {
+                    if(i < chunk.charsLength) {
+                        char c = chars[i];
+                        if(c == '"') {
+                            inQuotes = !inQuotes;
+                        }
+                        if(c != '\n' || inQuotes) {
+                            continue;
+                        }
+                    }
+                    int end = i > start && chars[i - 1] == '\r' ? i - 1 : i;
+                    if(end > start) {
+                        CsvTokenizer.tokenize(chars, start, end, row);
+                        if(ordered) {
+                            chunk.addRow(row);
+                        }
+                        else {
+                            sink.accept(row);
+                        }
+                    }
+                    start = i + 1;
+                }
+
+                if(ordered) {
+                    lock.lock();
+                    try {
+                        parsedChunks.put(chunk.sequence, chunk);
+                        chunkParsed.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+                else {
+                    freeChunks.put(chunk);
+                }
+            }
+        }
+
+        private void deliverInOrder() throws InterruptedException {
+            CsvRow row = new CsvRow();
+            for(long sequence = 0; ; sequence++) {
+                Chunk chunk;
+                lock.lock();
+                try {
+                    while((chunk = parsedChunks.remove(sequence)) == null && sequence != totalChunks) {
+                        if(failure.get() != null) {
+                            return;
+                        }
+                        chunkParsed.await();
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                if(chunk == null) {
+                    return;
+                }
+                for(int i = 0; i < chunk.rows; i++) {
+                    chunk.loadRow(i, row);
+                    sink.accept(row);
+                }
+                freeChunks.put(chunk);
+            }
+        }
+
+        private void guard(ThrowingTask task) {
+            try {
+                task.run();
+            } catch (InterruptedException e) {
+                // Interrupted because another thread failed
+                fail(e);
+            } catch (Throwable e) {
+                fail(e);
+            } finally {
+                lock.lock();
+                try {
+                    runningTasks--;
+                    chunkParsed.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        private void fail(Throwable error) {
+            if(failure.compareAndSet(null, error)) {
+                threads.shutdownNow();
+            }
+            lock.lock();
+            try {
+                chunkParsed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface ThrowingTask {
+        void run() throws InterruptedException;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if(closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            // Nothing else to do, we are already reporting an error
+        }
+    }
+}
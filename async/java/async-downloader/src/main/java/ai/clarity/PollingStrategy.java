@@ -0,0 +1,72 @@
+package ai.clarity;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides how long to wait before each status check of a job.
+ *
+ * Use the factory methods for the common policies, or {@link HistoryBasedPollingStrategy} to learn the usual
+ * duration of the jobs of each endpoint and check them more often around the expected completion time.
+ */
+@FunctionalInterface
+public interface PollingStrategy {
+
+    /**
+     * @param apiPath            Endpoint that created the job, or null when it's not known
+     * @param attempt            Number of the status check about to be scheduled, starting at 1
+     * @param elapsedMilisecs    Time since the job started being tracked
+     * @return   Milliseconds to wait before the next status check
+     */
+    long nextDelay(String apiPath, int attempt, long elapsedMilisecs);
+
+    /**
+     * Called once a job is not running anymore, with the time it took since it started being tracked
+     */
+    default void onJobFinished(String apiPath, long durationMilisecs) {
+    }
+
+    /**
+     * Always wait the same time between checks
+     */
+    static PollingStrategy fixed(long delayMilisecs) {
+        return (apiPath, attempt, elapsedMilisecs) -> delayMilisecs;
+    }
+
+    /**
+     * Start with {@code initialDelayMilisecs} and multiply the delay by {@code multiplier} after every check,
+     * without ever waiting more than {@code maxDelayMilisecs}
+     */
+    static PollingStrategy exponential(long initialDelayMilisecs, double multiplier, long maxDelayMilisecs) {
+        return (apiPath, attempt, elapsedMilisecs) -> {
+            double delay = initialDelayMilisecs * Math.pow(multiplier, attempt - 1);
+            return (long) Math.min(delay, maxDelayMilisecs);
+        };
+    }
+
+    /**
+     * Randomly spread the delays of {@code strategy} by up to {@code jitterRatio} (e.g. 0.2 for +-20%),
+     * so jobs started at the same time don't check their status at the same time. A ratio of 0 returns
+     * {@code strategy} itself.
+     */
+    static PollingStrategy jittered(PollingStrategy strategy, double jitterRatio) {
+        if(!(jitterRatio >= 0)) {
+            throw new IllegalArgumentException("The jitter ratio can't be negative");
+        }
+        if(jitterRatio == 0) {
+            return strategy;
+        }
+        return new PollingStrategy() {
+            @Override
+            public long nextDelay(String apiPath, int attempt, long elapsedMilisecs) {
+                long delay = strategy.nextDelay(apiPath, attempt, elapsedMilisecs);
+                double jitter = ThreadLocalRandom.current().nextDouble(-jitterRatio, jitterRatio);
+                return Math.max(0, Math.round(delay * (1 + jitter)));
+            }
+
+            @Override
+            public void onJobFinished(String apiPath, long durationMilisecs) {
+                strategy.onJobFinished(apiPath, durationMilisecs);
+            }
+        };
+    }
+}
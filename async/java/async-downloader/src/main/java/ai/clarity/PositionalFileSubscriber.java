@@ -0,0 +1,74 @@
+package ai.clarity;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * Writes a response body into a shared {@link FileChannel} starting at a given position, so several ranges of the
+ * same file can be downloaded in parallel. Its body is the number of bytes written.
+ *
+ * Buffers are requested one at a time, so the download never gets ahead of the disk writes.
+ */
+class PositionalFileSubscriber implements HttpResponse.BodySubscriber<Long> {
+
+    private final FileChannel channel;
+    private final long position;
+    private final CompletableFuture<Long> result = new CompletableFuture<>();
+
+    private Flow.Subscription subscription;
+    private volatile long written;
+
+    PositionalFileSubscriber(FileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+    }
+
+    /**
+     * Bytes written so far, also available when the download fails halfway
+     */
+    long getWritten() {
+        return written;
+    }
+
+    @Override
+    public CompletionStage<Long> getBody() {
+        return result;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+        try {
+            for(ByteBuffer buffer : buffers) {
+                while(buffer.hasRemaining()) {
+                    written += channel.write(buffer, position + written);
+                }
+            }
+            subscription.request(1);
+        } catch (IOException e) {
+            subscription.cancel();
+            result.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        result.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        result.complete(written);
+    }
+}
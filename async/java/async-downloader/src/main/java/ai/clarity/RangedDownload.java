@@ -0,0 +1,282 @@
+package ai.clarity;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads a file in several HTTP Range requests made in parallel, each one written at its own position of a
+ * preallocated file.
+ *
+ * Chunks that fail are retried from the last byte received, and completed chunks are recorded in a
+ * {@code .parts} file next to the target, so downloading the same file again after a failure only fetches the
+ * missing chunks. When the server doesn't advertise {@code Accept-Ranges: bytes} the whole file is downloaded
+ * in a single request. If it answers a Range request with the whole file (200) anyway, that body is kept as the
+ * file, and no other chunk is requested nor retried.
+ *
+ * Every request after the HEAD one, which is scheduled by the caller, takes its own {@link Endpoint#FETCH}
+ * permit of the {@link RequestScheduler}, so a download in many chunks doesn't exceed the rate of fetches.
+ */
+class RangedDownload {
+
+    static final int MAX_ATTEMPTS_PER_CHUNK = 3;
+    private static final Logger logger = Logger.getLogger(RangedDownload.class.getName());
+
+    private final SharedHttpClient client;
+    private final String url;
+    private final Map<String, String> headers;
+    private final Path path;
+    private final Path progressPath;
+    private final int chunks;
+    private final RequestScheduler scheduler;
+    private final ReentrantLock progressLock = new ReentrantLock();
+    // Chunk whose request was answered with the whole file, -1 while the server answers with ranges
+    private final AtomicInteger wholeBodyChunk = new AtomicInteger(-1);
+    private long contentLength;
+
+    RangedDownload(SharedHttpClient client, String url, Map<String, String> headers, Path path, int chunks,
+                   RequestScheduler scheduler) {
+        this.client = client;
+        this.url = url;
+        this.headers = headers;
+        this.path = path;
+        this.progressPath = path.resolveSibling(path.getFileName() + ".parts");
+        this.chunks = chunks;
+        this.scheduler = scheduler;
+    }
+
+    CompletableFuture<Path> start() {
+        return requestContentLength().thenCompose(contentLength -> {
+            if(contentLength.isEmpty()) {
+                logger.log(Level.INFO, () -> "Server doesn't support ranges, downloading " + url + " in a single request");
+                return scheduler.acquire(Endpoint.FETCH)
+                        .thenCompose(scheduled -> HttpRequestHelper.downloadToFilePermittedAsync(url, headers, path));
+            }
+            return downloadChunks(contentLength.getAsLong());
+        });
+    }
+
+    /**
+     * @return   The size of the file if the server accepts byte ranges for it
+     */
+    private CompletableFuture<OptionalLong> requestContentLength() {
+        HttpRequest request = requestBuilder()
+                .method("HEAD", HttpRequest.BodyPublishers.noBody())
+                .build();
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .thenApply(response -> {
+                    boolean acceptsRanges = response.headers().firstValue("Accept-Ranges")
+                            .map(value -> value.equalsIgnoreCase("bytes"))
+                            .orElse(false);
+                    if(response.statusCode() != 200 || !acceptsRanges) {
+                        return OptionalLong.empty();
+                    }
+                    return response.headers().firstValueAsLong("Content-Length");
+                })
+                .exceptionally(e -> OptionalLong.empty());
+    }
+
+    private CompletableFuture<Path> downloadChunks(long contentLength) {
+        this.contentLength = contentLength;
+        int chunkCount = (int) Math.max(1, Math.min(chunks, contentLength));
+        long chunkSize = (contentLength + chunkCount - 1) / chunkCount;
+
+        FileChannel channel;
+        BitSet completedChunks;
+        try {
+            completedChunks = readProgress(contentLength, chunkCount);
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            if(completedChunks.isEmpty()) {
+                preallocate(channel, contentLength);
+                Files.writeString(progressPath, contentLength + " " + chunkCount + System.lineSeparator(),
+                        StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new UncheckedIOException("Couldn't prepare file " + path, e));
+        }
+
+        List<CompletableFuture<Void>> downloads = new ArrayList<>();
+        for(int chunk = 0; chunk < chunkCount; chunk++) {
+            if(!completedChunks.get(chunk)) {
+                long start = chunk * chunkSize;
+                long end = Math.min(start + chunkSize, contentLength) - 1;
+                downloads.add(downloadChunk(channel, chunk, start, end, 1));
+            }
+        }
+
+        return CompletableFuture.allOf(downloads.toArray(CompletableFuture[]::new))
+                .whenComplete((finished, error) -> closeQuietly(channel))
+                .thenApply(finished -> {
+                    deleteProgress();
+                    logger.log(Level.INFO, () -> "Successfully downloaded content to file " + path + " in " + chunkCount + " chunks");
+                    return path;
+                });
+    }
+
+    private CompletableFuture<Void> downloadChunk(FileChannel channel, int chunk, long start, long end, int attempt) {
+        if(isDownloadedByAnotherChunk(chunk)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        PositionalFileSubscriber subscriber = new PositionalFileSubscriber(channel, start);
+        HttpRequest request = requestBuilder()
+                .header("Range", "bytes=" + start + "-" + end)
+                .GET()
+                .build();
+
+        return scheduler.acquire(Endpoint.FETCH)
+                .thenCompose(scheduled -> client.sendAsync(request, responseInfo -> {
+                    if(responseInfo.statusCode() == 206) {
+                        return subscriber;
+                    }
+                    if(responseInfo.statusCode() == 200 && keepsWholeBody(chunk)) {
+                        return new PositionalFileSubscriber(channel, 0);
+                    }
+                    return HttpResponse.BodySubscribers.replacing(-1L);
+                }))
+                .thenAccept(response -> {
+                    if(response.statusCode() == 200 && wholeBodyChunk.get() == chunk) {
+                        if(response.body() != contentLength) {
+                            throw new RuntimeException("Incomplete file " + path + ", received " + response.body() + " bytes");
+                        }
+                        logger.log(Level.INFO, () -> "Server ignored the ranges, kept the whole file " + url + " from one request");
+                        return;
+                    }
+                    if(response.statusCode() == 200 && isDownloadedByAnotherChunk(chunk)) {
+                        return;
+                    }
+                    if(response.statusCode() != 206) {
+                        throw HttpStatusException.of("Error when downloading range", response.statusCode(), null,
+                                response.headers());
+                    }
+                    if(response.body() != end - start + 1) {
+                        throw new RuntimeException("Incomplete range " + start + "-" + end + ", received " + response.body() + " bytes");
+                    }
+                    recordCompleted(chunk);
+                })
+                .exceptionallyCompose(error -> {
+                    if(isDownloadedByAnotherChunk(chunk)) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    Throwable cause = RetryPolicy.unwrap(error);
+                    if(cause instanceof HttpStatusException && ((HttpStatusException) cause).getStatusCode() == 429) {
+                        scheduler.onThrottled(Endpoint.FETCH, ((HttpStatusException) cause).getRetryAfter().orElse(null));
+                    }
+                    if(attempt >= MAX_ATTEMPTS_PER_CHUNK) {
+                        logger.log(Level.SEVERE, "Error when downloading chunk " + chunk + " of " + url + ": " + error.getMessage());
+                        return CompletableFuture.failedFuture(error);
+                    }
+                    if(wholeBodyChunk.get() == chunk) {
+                        // Ask for the whole file, in case the server answers with a range this time
+                        logger.log(Level.WARNING, "Retrying the whole file " + url);
+                        return downloadChunk(channel, chunk, 0, contentLength - 1, attempt + 1);
+                    }
+                    // Resume from the last byte written instead of starting the chunk again
+                    long resumeFrom = start + subscriber.getWritten();
+                    logger.log(Level.WARNING, "Retrying chunk " + chunk + " of " + url + " from byte " + resumeFrom);
+                    if(resumeFrom > end) {
+                        recordCompleted(chunk);
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return downloadChunk(channel, chunk, resumeFrom, end, attempt + 1);
+                });
+    }
+
+    /**
+     * Claim the whole body answered to the request of {@code chunk}, unless another chunk already did
+     */
+    private boolean keepsWholeBody(int chunk) {
+        return wholeBodyChunk.compareAndSet(-1, chunk) || wholeBodyChunk.get() == chunk;
+    }
+
+    private boolean isDownloadedByAnotherChunk(int chunk) {
+        int owner = wholeBodyChunk.get();
+        return owner >= 0 && owner != chunk;
+    }
+
+    private HttpRequest.Builder requestBuilder() {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(client.getConfig().getRequestTimeout());
+        if(headers != null) {
+            headers.forEach(builder::header);
+        }
+        return builder;
+    }
+
+    /**
+     * Chunks completed by a previous attempt to download the same file, if it had the same size and chunks
+     */
+    private BitSet readProgress(long contentLength, int chunkCount) throws IOException {
+        BitSet completedChunks = new BitSet(chunkCount);
+        if(!Files.exists(progressPath) || !Files.exists(path) || Files.size(path) != contentLength) {
+            return completedChunks;
+        }
+        List<String> lines = Files.readAllLines(progressPath, StandardCharsets.UTF_8);
+        if(lines.isEmpty() || !lines.get(0).equals(contentLength + " " + chunkCount)) {
+            return completedChunks;
+        }
+        for(String line : lines.subList(1, lines.size())) {
+            if(!line.isBlank()) {
+                completedChunks.set(Integer.parseInt(line.trim()));
+            }
+        }
+        if(!completedChunks.isEmpty()) {
+            logger.log(Level.INFO, "Resuming download of " + path + ", " + completedChunks.cardinality() + " chunks already completed");
+        }
+        return completedChunks;
+    }
+
+    private void recordCompleted(int chunk) {
+        progressLock.lock();
+        try {
+            Files.writeString(progressPath, chunk + System.lineSeparator(), StandardCharsets.UTF_8,
+                    StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // Only affects resuming a future download of this file
+            logger.log(Level.WARNING, "Couldn't record progress in " + progressPath + ": " + e.getMessage());
+        } finally {
+            progressLock.unlock();
+        }
+    }
+
+    private void deleteProgress() {
+        try {
+            Files.deleteIfExists(progressPath);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Couldn't delete " + progressPath + ": " + e.getMessage());
+        }
+    }
+
+    private static void preallocate(FileChannel channel, long contentLength) throws IOException {
+        channel.truncate(0);
+        if(contentLength > 0) {
+            channel.write(ByteBuffer.allocate(1), contentLength - 1);
+        }
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Couldn't close file channel: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package ai.clarity;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the requests of each {@link Endpoint} with its own {@link RetryPolicy} and {@link CircuitBreaker}, at the
+ * rates allowed by its {@link RequestScheduler}, and never more than {@code maxConcurrentRequests} at the same time.
+ *
+ * Retries are scheduled without blocking any thread. While a circuit breaker is open its requests are held back
+ * until it lets a trial request through, so a short outage delays jobs instead of failing them. A request isn't
+ * held back past {@code maxBreakerWait} after it was executed, so a long outage fails it instead of leaving its
+ * caller waiting.
+ */
+public class RequestExecutor {
+
+    public static final int DEFAULT_MAX_CONCURRENT_REQUESTS = 64;
+    public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    public static final Duration DEFAULT_OPEN_DURATION = Duration.ofSeconds(10);
+    public static final Duration DEFAULT_MAX_BREAKER_WAIT = Duration.ofMinutes(2);
+
+    private static final Logger logger = Logger.getLogger(RequestExecutor.class.getName());
+    private static final RequestExecutor sharedExecutor = new RequestExecutor();
+
+    private final Map<Endpoint, RetryPolicy> retryPolicies = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, CircuitBreaker> circuitBreakers = new EnumMap<>(Endpoint.class);
+    private final ConcurrencyLimiter limiter;
+    private volatile RequestScheduler scheduler;
+    private volatile JobMetrics metrics = JobMetrics.NO_OP;
+    private volatile Duration maxBreakerWait = DEFAULT_MAX_BREAKER_WAIT;
+
+    public RequestExecutor(int maxConcurrentRequests, int failureThreshold, Duration openDuration) {
+        this.limiter = new ConcurrencyLimiter(maxConcurrentRequests);
+        for(Endpoint endpoint : Endpoint.values()) {
+            circuitBreakers.put(endpoint, new CircuitBreaker(failureThreshold, openDuration));
+        }
+        retryPolicies.put(Endpoint.TOKEN, RetryPolicy.of(3, Duration.ofMillis(500), Duration.ofSeconds(5)));
+        retryPolicies.put(Endpoint.SUBMIT, RetryPolicy.of(4, Duration.ofSeconds(1), Duration.ofSeconds(30)));
+        retryPolicies.put(Endpoint.STATUS, RetryPolicy.of(6, Duration.ofSeconds(1), Duration.ofMinutes(1)));
+        retryPolicies.put(Endpoint.FETCH, RetryPolicy.of(4, Duration.ofSeconds(2), Duration.ofMinutes(1)));
+    }
+
+    public RequestExecutor() {
+        this(DEFAULT_MAX_CONCURRENT_REQUESTS, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION);
+    }
+
+    /**
+     * Executor used by default by every {@link AsyncDownloader}, so they share the circuit breakers and the limit
+     * of concurrent requests
+     */
+    public static RequestExecutor shared() {
+        return sharedExecutor;
+    }
+
+    public RequestExecutor withRetryPolicy(Endpoint endpoint, RetryPolicy retryPolicy) {
+        synchronized(retryPolicies) {
+            retryPolicies.put(endpoint, retryPolicy);
+        }
+        return this;
+    }
+
+    /**
+     * Limit the rate of the requests with {@code scheduler} instead of the process-wide
+     * {@link HttpRequestHelper#getSharedScheduler()}, which every executor uses by default.
+     */
+    public RequestExecutor withScheduler(RequestScheduler scheduler) {
+        this.scheduler = scheduler;
+        return this;
+    }
+
+    /**
+     * Fail the requests that an open circuit breaker would hold back past {@code maxBreakerWait} after they were
+     * executed, with a {@link CircuitBreakerOpenException}
+     */
+    public RequestExecutor withMaxBreakerWait(Duration maxBreakerWait) {
+        this.maxBreakerWait = maxBreakerWait;
+        return this;
+    }
+
+    /**
+     * Report every retry made by this executor to {@code metrics}, e.g. for all the downloaders sharing it.
+     * Nothing is reported by default.
+     */
+    public RequestExecutor withMetrics(JobMetrics metrics) {
+        this.metrics = metrics;
+        return this;
+    }
+
+    public RetryPolicy getRetryPolicy(Endpoint endpoint) {
+        synchronized(retryPolicies) {
+            return retryPolicies.get(endpoint);
+        }
+    }
+
+    public CircuitBreaker getCircuitBreaker(Endpoint endpoint) {
+        return circuitBreakers.get(endpoint);
+    }
+
+    public ConcurrencyLimiter getLimiter() { return limiter; }
+
+    public RequestScheduler getScheduler() {
+        RequestScheduler current = scheduler;
+        return current != null ? current : HttpRequestHelper.getSharedScheduler();
+    }
+
+    /**
+     * @param request   Makes one attempt of the request each time it's called. It should fail with an
+     *                  {@link HttpStatusException} when the API answers with an error status
+     * @return   A future with the result of the first successful attempt, or failed with the error of the last one
+     */
+    public <T> CompletableFuture<T> execute(Endpoint endpoint, Supplier<CompletableFuture<T>> request) {
+        return execute(endpoint, null, JobMetrics.NO_OP, request);
+    }
+
+    /**
+     * Same as {@link #execute(Endpoint, Supplier)}, also reporting the retries of this request to
+     * {@code requestMetrics}, e.g. those of the {@link AsyncDownloader} that sends it
+     *
+     * @param apiPath   Endpoint of the job the request belongs to, reported with its retries. Null if unknown
+     */
+    public <T> CompletableFuture<T> execute(Endpoint endpoint, String apiPath, JobMetrics requestMetrics,
+                                            Supplier<CompletableFuture<T>> request) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        attempt(new Call<>(endpoint, apiPath, requestMetrics, request, result, System.nanoTime()), 1);
+        return result;
+    }
+
+    /**
+     * A request being executed, sent again on each attempt
+     *
+     * @param startedAt   {@link System#nanoTime()} when it was executed
+     */
+    private record Call<T>(Endpoint endpoint, String apiPath, JobMetrics metrics,
+                           Supplier<CompletableFuture<T>> request, CompletableFuture<T> result, long startedAt) {}
+
+    private <T> void attempt(Call<T> call, int attempt) {
+        Endpoint endpoint = call.endpoint();
+        CompletableFuture<T> result = call.result();
+        CircuitBreaker breaker = circuitBreakers.get(endpoint);
+        CircuitBreaker.Permission permission = breaker.acquire();
+
+        CompletableFuture<T> response;
+        if(!permission.retryIn().isZero()) {
+            response = CompletableFuture.failedFuture(new CircuitBreakerOpenException(endpoint, permission.retryIn()));
+        }
+        else {
+            RequestScheduler currentScheduler = getScheduler();
+            // The rate permit comes first, so requests waiting for their endpoint's budget never hold a slot that a
+            // request of another endpoint could use. Slots are then handed out by priority too.
+            response = currentScheduler.acquire(endpoint)
+                    .thenCompose(scheduled -> limiter.acquire(endpoint))
+                    .thenCompose(permit -> send(call.request()).whenComplete((value, error) -> limiter.release()))
+                    .whenComplete((value, error) -> {
+                        breaker.onResult(error, permission.trial());
+                        onThrottled(currentScheduler, endpoint, error);
+                    });
+        }
+
+        response.whenComplete((value, error) -> {
+            if(error == null) {
+                result.complete(value);
+                return;
+            }
+            Throwable cause = RetryPolicy.unwrap(error);
+            if(cause instanceof CircuitBreakerOpenException) {
+                // Nothing was sent, so holding the request back doesn't use up one of its attempts
+                Duration retryIn = ((CircuitBreakerOpenException) cause).getRetryIn();
+                long heldBackUntil = System.nanoTime() + retryIn.toNanos();
+                if(heldBackUntil - call.startedAt() > maxBreakerWait.toNanos()) {
+                    logger.log(Level.WARNING, () -> endpoint + " request held back by the circuit breaker for too long, giving up");
+                    result.completeExceptionally(cause);
+                    return;
+                }
+                CompletableFuture.delayedExecutor(retryIn.toMillis(), TimeUnit.MILLISECONDS)
+                        .execute(() -> attempt(call, attempt));
+                return;
+            }
+            RetryPolicy policy = getRetryPolicy(endpoint);
+            if(attempt >= policy.getMaxAttempts() || !policy.isRetryable(cause, endpoint.isIdempotent())) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            Duration delay = policy.delayBefore(attempt + 1, cause);
+            JobMetrics executorMetrics = metrics;
+            executorMetrics.recordRetry(call.apiPath(), endpoint);
+            if(call.metrics() != executorMetrics) {
+                call.metrics().recordRetry(call.apiPath(), endpoint);
+            }
+            logger.log(Level.WARNING, () -> endpoint + " request failed (" + cause.getMessage() + "), attempt " + attempt
+                    + " of " + policy.getMaxAttempts() + ". Retrying in " + delay.toMillis() + " ms");
+            CompletableFuture.delayedExecutor(delay.toMillis(), TimeUnit.MILLISECONDS)
+                    .execute(() -> attempt(call, attempt + 1));
+        });
+    }
+
+    private static void onThrottled(RequestScheduler scheduler, Endpoint endpoint, Throwable error) {
+        Throwable cause = error == null ? null : RetryPolicy.unwrap(error);
+        if(cause instanceof HttpStatusException && ((HttpStatusException) cause).getStatusCode() == 429) {
+            scheduler.onThrottled(endpoint, ((HttpStatusException) cause).getRetryAfter().orElse(null));
+        }
+    }
+
+    private static <T> CompletableFuture<T> send(Supplier<CompletableFuture<T>> request) {
+        try {
+            return request.get();
+        } catch (RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+}
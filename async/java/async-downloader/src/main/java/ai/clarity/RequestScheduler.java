@@ -0,0 +1,196 @@
+package ai.clarity;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking rate limiter of the requests of a {@link RequestExecutor}: each {@link Endpoint} has its own token
+ * bucket of requests per second, and all of them share a global one, the limit of the API.
+ *
+ * Requests that must wait are queued by priority: token requests first, as every other request needs one, then
+ * fetches and submits, and status checks last, so polling never delays results that are ready. Within the same
+ * endpoint they are sent in arrival order. Nothing is limited until a rate is set.
+ *
+ * When the API answers 429 anyway, e.g. because other processes share the same credentials, the endpoint is
+ * paused for the time the API asked for, so the rest of its queued requests are not sent just to be rejected.
+ */
+public class RequestScheduler {
+
+    private static final Duration DEFAULT_THROTTLE_PAUSE = Duration.ofSeconds(1);
+
+    private final Map<Endpoint, Bucket> buckets = new EnumMap<>(Endpoint.class);
+    private final Map<Endpoint, Deque<CompletableFuture<Void>>> waiting = new EnumMap<>(Endpoint.class);
+    private Bucket globalBucket = Bucket.UNLIMITED;
+    private boolean dispatchScheduled;
+    private long dispatchAt;
+
+    public RequestScheduler() {
+        for(Endpoint endpoint : Endpoint.values()) {
+            buckets.put(endpoint, Bucket.UNLIMITED);
+            waiting.put(endpoint, new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Limit all the requests together
+     *
+     * @param burst   Requests that can be sent at once after being idle, at least 1
+     */
+    public synchronized RequestScheduler withGlobalRate(double requestsPerSecond, int burst) {
+        globalBucket = new Bucket(requestsPerSecond, burst);
+        return this;
+    }
+
+    /**
+     * Limit the requests of an endpoint, on top of the global limit
+     *
+     * @param burst   Requests that can be sent at once after being idle, at least 1
+     */
+    public synchronized RequestScheduler withRate(Endpoint endpoint, double requestsPerSecond, int burst) {
+        buckets.put(endpoint, new Bucket(requestsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * @return   A future completed when the request can be sent
+     */
+    public CompletableFuture<Void> acquire(Endpoint endpoint) {
+        CompletableFuture<Void> permit = new CompletableFuture<>();
+        synchronized(this) {
+            waiting.get(endpoint).add(permit);
+        }
+        dispatch();
+        return permit;
+    }
+
+    /**
+     * Stop sending requests to {@code endpoint} for {@code retryAfter}, or a second if the API didn't say
+     */
+    public void onThrottled(Endpoint endpoint, Duration retryAfter) {
+        Duration pause = retryAfter == null || retryAfter.isZero() ? DEFAULT_THROTTLE_PAUSE : retryAfter;
+        synchronized(this) {
+            Bucket bucket = buckets.get(endpoint);
+            if(bucket == Bucket.UNLIMITED) {
+                bucket = new Bucket(Double.POSITIVE_INFINITY, 1);
+                buckets.put(endpoint, bucket);
+            }
+            bucket.pause(System.nanoTime() + pause.toNanos());
+        }
+        dispatch();
+    }
+
+    public synchronized int getWaiting(Endpoint endpoint) {
+        return waiting.get(endpoint).size();
+    }
+
+    /**
+     * Hand out every permit the buckets allow, in priority order, and schedule the next dispatch if requests
+     * are left waiting
+     */
+    private void dispatch() {
+        List<CompletableFuture<Void>> ready = new ArrayList<>();
+        synchronized(this) {
+            long now = System.nanoTime();
+            long nextDispatch = Long.MAX_VALUE;
+            boolean globalAvailable = true;
+            for(Endpoint endpoint : Endpoint.PRIORITY) {
+                Deque<CompletableFuture<Void>> queue = waiting.get(endpoint);
+                Bucket bucket = buckets.get(endpoint);
+                while(!queue.isEmpty() && globalAvailable) {
+                    long endpointWait = bucket.nanosUntilPermit(now);
+                    if(endpointWait > 0) {
+                        nextDispatch = Math.min(nextDispatch, endpointWait);
+                        break;
+                    }
+                    long globalWait = globalBucket.nanosUntilPermit(now);
+                    if(globalWait > 0) {
+                        // Lower priorities can't take the next global permit either
+                        nextDispatch = Math.min(nextDispatch, globalWait);
+                        globalAvailable = false;
+                        break;
+                    }
+                    bucket.take();
+                    globalBucket.take();
+                    ready.add(queue.poll());
+                }
+            }
+            // A single dispatch is pending, unless one sooner is needed, e.g. while another endpoint is paused
+            long deadline = now + nextDispatch;
+            if(nextDispatch != Long.MAX_VALUE && (!dispatchScheduled || deadline - dispatchAt < 0)) {
+                dispatchScheduled = true;
+                dispatchAt = deadline;
+                CompletableFuture.delayedExecutor(nextDispatch, TimeUnit.NANOSECONDS).execute(() -> {
+                    synchronized(this) {
+                        if(dispatchAt == deadline) {
+                            dispatchScheduled = false;
+                        }
+                    }
+                    dispatch();
+                });
+            }
+        }
+        // Completed outside the lock because they run the requests
+        ready.forEach(permit -> permit.complete(null));
+    }
+
+    /**
+     * Token bucket refilled continuously at {@code requestsPerSecond}, up to {@code burst} permits. Only used
+     * holding the lock of the scheduler.
+     */
+    private static class Bucket {
+        static final Bucket UNLIMITED = new Bucket(Double.POSITIVE_INFINITY, 1);
+
+        private final double permitsPerNano;
+        private final double capacity;
+        private double permits;
+        private long updatedAt;
+        private long pausedUntil;
+
+        Bucket(double requestsPerSecond, int burst) {
+            if(requestsPerSecond <= 0 || burst < 1) {
+                throw new IllegalArgumentException("The rate must be positive and the burst at least 1");
+            }
+            this.permitsPerNano = requestsPerSecond / 1e9;
+            this.capacity = burst;
+            this.permits = burst;
+            this.updatedAt = System.nanoTime();
+            this.pausedUntil = updatedAt;
+        }
+
+        /**
+         * @return   Zero if a permit is available, otherwise the time until there is one
+         */
+        long nanosUntilPermit(long now) {
+            if(now - pausedUntil < 0) {
+                return pausedUntil - now;
+            }
+            if(Double.isInfinite(permitsPerNano)) {
+                return 0;
+            }
+            permits = Math.min(capacity, permits + (now - updatedAt) * permitsPerNano);
+            updatedAt = now;
+            return permits >= 1 ? 0 : (long) Math.ceil((1 - permits) / permitsPerNano);
+        }
+
+        void take() {
+            if(!Double.isInfinite(permitsPerNano)) {
+                permits--;
+            }
+        }
+
+        void pause(long until) {
+            if(until - pausedUntil > 0) {
+                pausedUntil = until;
+            }
+            permits = 0;
+            updatedAt = pausedUntil;
+        }
+    }
+}
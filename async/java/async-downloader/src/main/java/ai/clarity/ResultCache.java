@@ -0,0 +1,354 @@
+package ai.clarity;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local cache of job results, so requesting the same extract several times a day doesn't start a new job nor
+ * download the file again.
+ *
+ * Results are keyed by a SHA-256 hash of the endpoint and its canonical JSON params, so the order of the params
+ * doesn't matter. They are kept for {@code ttl} and, when the files take more than {@code maxBytes}, the least
+ * recently used ones are deleted. The index is saved in the cache directory and loaded again on restart. Access
+ * times are saved with the next change of the index, or at most every 30 seconds on hits, so losing some of them
+ * in a crash only makes the eviction order a bit less accurate.
+ *
+ * Concurrent requests for the same extract while it's being downloaded share the same job.
+ * The returned files belong to the cache: read them, but don't move or delete them.
+ */
+public class ResultCache {
+
+    private static final Logger logger = Logger.getLogger(ResultCache.class.getName());
+    private static final String INDEX_FILE = "index";
+    private static final String RESULT_EXTENSION = ".csv.gz";
+    // Access times only change the eviction order, so cache hits don't rewrite the index more often than this
+    private static final long ACCESS_SAVE_INTERVAL_MILLIS = 30_000;
+
+    private final Path directory;
+    private final Duration ttl;
+    private final long maxBytes;
+    private final Clock clock;
+
+    // Access ordered, so the first entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+    // A lock instead of synchronized, as the index is written while holding it and virtual threads waiting for
+    // a monitor would block their carrier thread
+    private final ReentrantLock lock = new ReentrantLock();
+    private long totalBytes;
+    private long indexSavedAt;
+
+    private record Entry(String key, long createdAt, long lastAccess, long size) {}
+
+    public ResultCache(Path directory, Duration ttl, long maxBytes, Clock clock) {
+        this.directory = directory;
+        this.ttl = ttl;
+        this.maxBytes = maxBytes;
+        this.clock = clock;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't create the cache directory " + directory, e);
+        }
+        loadIndex();
+    }
+
+    public ResultCache(Path directory, Duration ttl, long maxBytes) {
+        this(directory, ttl, maxBytes, Clock.systemUTC());
+    }
+
+    /**
+     * Canonical key of a request: the SHA-256 of its endpoint and its params as JSON with sorted keys
+     */
+    public static String keyOf(String apiPath, Map<String, Object> params) {
+        String json = HttpRequestHelper.mapToCanonicalJson(params)
+                .orElseThrow(() -> new RuntimeException("Couldn't convert the params of " + apiPath + " to JSON"));
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(apiPath.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) '\n');
+            return HexFormat.of().formatHex(digest.digest(json.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return   The path of the cached results, if they are still fresh
+     */
+    public Optional<Path> get(String apiPath, Map<String, Object> params) {
+        return get(keyOf(apiPath, params));
+    }
+
+    /**
+     * Return the cached results or, if there are none, download them once for all the concurrent callers and
+     * keep them in the cache
+     *
+     * @param download   Downloads the results to any path, which is then moved into the cache
+     */
+    public CompletableFuture<Path> getOrDownload(String apiPath, Map<String, Object> params,
+                                                 Supplier<CompletableFuture<Path>> download) {
+        return getOrDownload(keyOf(apiPath, params), apiPath, download);
+    }
+
+    /**
+     * {@link #getOrDownload(String, Map, Supplier)} by the key of the results, e.g. the one of a {@link JobJournal}
+     * entry. The download can also store the results itself with {@link #put(String, Path)}.
+     */
+    CompletableFuture<Path> getOrDownload(String key, String apiPath, Supplier<CompletableFuture<Path>> download) {
+        Optional<Path> cached = get(key);
+        if(cached.isPresent()) {
+            return CompletableFuture.completedFuture(cached.get());
+        }
+
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(key, result);
+        if(existing != null) {
+            logger.log(Level.INFO, "Waiting for the download in progress of " + apiPath);
+            return existing;
+        }
+        // Another caller may have stored the results between the first check and taking the slot
+        cached = get(key);
+        if(cached.isPresent()) {
+            inFlight.remove(key, result);
+            result.complete(cached.get());
+            return result;
+        }
+
+        CompletableFuture<Path> downloaded;
+        try {
+            downloaded = download.get();
+        } catch (RuntimeException e) {
+            downloaded = CompletableFuture.failedFuture(e);
+        }
+        downloaded.thenApply(path -> put(key, path))
+                .whenComplete((path, error) -> {
+                    inFlight.remove(key, result);
+                    if(error != null) {
+                        result.completeExceptionally(RetryPolicy.unwrap(error));
+                    }
+                    else {
+                        result.complete(path);
+                    }
+                });
+        return result;
+    }
+
+    /**
+     * Move a downloaded results file into the cache
+     *
+     * @return   The path of the file in the cache
+     */
+    public Path put(String apiPath, Map<String, Object> params, Path downloaded) {
+        return put(keyOf(apiPath, params), downloaded);
+    }
+
+    public void invalidate(String apiPath, Map<String, Object> params) {
+        String key = keyOf(apiPath, params);
+        lock.lock();
+        try {
+            remove(key);
+            saveIndex();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTotalBytes() {
+        lock.lock();
+        try {
+            return totalBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether the file is one of the results kept by this cache, which must not be deleted by its users
+     */
+    boolean contains(Path path) {
+        return path.toAbsolutePath().normalize().startsWith(directory.toAbsolutePath().normalize());
+    }
+
+    Optional<Path> get(String key) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if(entry == null) {
+                return Optional.empty();
+            }
+            Path path = pathOf(key);
+            if(isExpired(entry) || !Files.exists(path)) {
+                remove(key);
+                saveIndex();
+                return Optional.empty();
+            }
+            long now = clock.millis();
+            entries.put(key, new Entry(key, entry.createdAt(), now, entry.size()));
+            if(now - indexSavedAt >= ACCESS_SAVE_INTERVAL_MILLIS) {
+                saveIndex();
+            }
+            return Optional.of(path);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Path put(String key, Path downloaded) {
+        Path path = pathOf(key);
+        lock.lock();
+        try {
+            if(downloaded.equals(path) && entries.containsKey(key)) {
+                return path;
+            }
+            // The old file is replaced by the move, so only its entry is dropped
+            Entry replaced = entries.remove(key);
+            if(replaced != null) {
+                totalBytes -= replaced.size();
+            }
+            Files.move(downloaded, path, StandardCopyOption.REPLACE_EXISTING);
+            long size = Files.size(path);
+            long now = clock.millis();
+            entries.put(key, new Entry(key, now, now, size));
+            totalBytes += size;
+            evict(key);
+            saveIndex();
+            return path;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't store " + downloaded + " in the cache", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete expired entries and then the least recently used ones until the files fit in {@code maxBytes},
+     * keeping the entry just stored even if it's bigger than the limit on its own
+     */
+    private void evict(String keep) {
+        entries.values().removeIf(entry -> {
+            if(isExpired(entry)) {
+                deleteFile(entry);
+                return true;
+            }
+            return false;
+        });
+        Iterator<Entry> leastRecentlyUsed = entries.values().iterator();
+        while(totalBytes > maxBytes && leastRecentlyUsed.hasNext()) {
+            Entry entry = leastRecentlyUsed.next();
+            if(!entry.key().equals(keep)) {
+                leastRecentlyUsed.remove();
+                deleteFile(entry);
+            }
+        }
+    }
+
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if(entry != null) {
+            deleteFile(entry);
+        }
+    }
+
+    private void deleteFile(Entry entry) {
+        totalBytes -= entry.size();
+        try {
+            Files.deleteIfExists(pathOf(entry.key()));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Couldn't delete cached results " + entry.key() + ": " + e.getMessage());
+        }
+    }
+
+    private boolean isExpired(Entry entry) {
+        return clock.millis() - entry.createdAt() >= ttl.toMillis();
+    }
+
+    private Path pathOf(String key) {
+        return directory.resolve(key + RESULT_EXTENSION);
+    }
+
+    /**
+     * One line per entry: key, creation time, last access time and size. Written to a temporary file and then
+     * renamed, so a crash never leaves a half written index.
+     */
+    private void saveIndex() {
+        List<String> lines = new ArrayList<>(entries.size());
+        for(Entry entry : entries.values()) {
+            lines.add(entry.key() + " " + entry.createdAt() + " " + entry.lastAccess() + " " + entry.size());
+        }
+        Path index = directory.resolve(INDEX_FILE);
+        Path tmpIndex = directory.resolve(INDEX_FILE + ".tmp");
+        try {
+            Files.write(tmpIndex, lines);
+            Files.move(tmpIndex, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            indexSavedAt = clock.millis();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Couldn't save the cache index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Only called from the constructor, before the cache is shared with other threads
+     */
+    private void loadIndex() {
+        Path index = directory.resolve(INDEX_FILE);
+        if(!Files.exists(index)) {
+            return;
+        }
+        List<Entry> loaded = new ArrayList<>();
+        try {
+            for(String line : Files.readAllLines(index)) {
+                String[] fields = line.split(" ");
+                if(fields.length != 4) {
+                    continue;
+                }
+                Entry entry = new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3]));
+                if(Files.exists(pathOf(entry.key()))) {
+                    loaded.add(entry);
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.log(Level.WARNING, "Couldn't read the cache index, starting with an empty cache: " + e.getMessage());
+            return;
+        }
+        loaded.sort(Comparator.comparingLong(Entry::lastAccess));
+        for(Entry entry : loaded) {
+            entries.put(entry.key(), entry);
+            totalBytes += entry.size();
+        }
+        evict(null);
+        saveIndex();
+    }
+}
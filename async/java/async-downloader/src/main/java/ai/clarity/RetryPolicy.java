@@ -0,0 +1,90 @@
+package ai.clarity;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.http.HttpConnectTimeoutException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How many times, and after how long, a failed request is tried again.
+ *
+ * Requests are retried on transient errors only: network errors and the 429, 500, 502, 503 and 504 statuses.
+ * The delay grows exponentially with some jitter, unless the server sent a {@code Retry-After} header, which
+ * is always honored. Requests that are not idempotent are only retried when they certainly weren't processed:
+ * the connection couldn't be established or the server rejected them with 429 or 503.
+ */
+public class RetryPolicy {
+
+    public static final Set<Integer> RETRYABLE_STATUSES = Set.of(429, 500, 502, 503, 504);
+    private static final Set<Integer> NOT_PROCESSED_STATUSES = Set.of(429, 503);
+    private static final double JITTER = 0.2;
+
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final double multiplier;
+
+    public RetryPolicy(int maxAttempts, Duration initialBackoff, Duration maxBackoff, double multiplier) {
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.multiplier = multiplier;
+    }
+
+    public static RetryPolicy of(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+        return new RetryPolicy(maxAttempts, initialBackoff, maxBackoff, 2);
+    }
+
+    /**
+     * Never retry
+     */
+    public static RetryPolicy none() {
+        return new RetryPolicy(1, Duration.ZERO, Duration.ZERO, 1);
+    }
+
+    public int getMaxAttempts() { return maxAttempts; }
+
+    public boolean isRetryable(Throwable error, boolean idempotent) {
+        Throwable cause = unwrap(error);
+        if(cause instanceof CircuitBreakerOpenException) {
+            return true;
+        }
+        if(cause instanceof HttpStatusException) {
+            int statusCode = ((HttpStatusException) cause).getStatusCode();
+            return idempotent ? RETRYABLE_STATUSES.contains(statusCode) : NOT_PROCESSED_STATUSES.contains(statusCode);
+        }
+        if(cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException) {
+            return true;
+        }
+        return idempotent && cause instanceof IOException;
+    }
+
+    /**
+     * @param attempt   The attempt about to be made, the first retry being attempt 2
+     */
+    public Duration delayBefore(int attempt, Throwable error) {
+        Throwable cause = unwrap(error);
+        if(cause instanceof CircuitBreakerOpenException) {
+            return ((CircuitBreakerOpenException) cause).getRetryIn();
+        }
+        if(cause instanceof HttpStatusException) {
+            var retryAfter = ((HttpStatusException) cause).getRetryAfter();
+            if(retryAfter.isPresent()) {
+                return retryAfter.get();
+            }
+        }
+        double backoff = Math.min(initialBackoff.toMillis() * Math.pow(multiplier, attempt - 2), maxBackoff.toMillis());
+        double jitter = ThreadLocalRandom.current().nextDouble(1 - JITTER, 1 + JITTER);
+        return Duration.ofMillis(Math.round(backoff * jitter));
+    }
+
+    static Throwable unwrap(Throwable error) {
+        while(error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
@@ -0,0 +1,77 @@
+package ai.clarity;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-lived wrapper around a single {@link HttpClient}, so every request reuses the same selector thread
+ * and connection pool instead of paying a new TCP and TLS handshake each time.
+ *
+ * The JDK client doesn't expose its pool, so connection reuse can't be counted. The counters only show that the
+ * requests go through the same instance: {@link #getInstancesCreated()} should stay flat while
+ * {@link #getRequestsSent()} grows.
+ */
+public class SharedHttpClient {
+
+    private static final AtomicLong instancesCreated = new AtomicLong();
+
+    private final HttpClientConfig config;
+    private final HttpClient httpClient;
+
+    private final AtomicLong requestsSent = new AtomicLong();
+    private final AtomicLong http2Responses = new AtomicLong();
+
+    public SharedHttpClient(HttpClientConfig config) {
+        this.config = config;
+        this.httpClient = config.buildHttpClient();
+        instancesCreated.incrementAndGet();
+    }
+
+    public <T> HttpResponse<T> send(HttpRequest request, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException, InterruptedException {
+        requestsSent.incrementAndGet();
+        HttpResponse<T> response = httpClient.send(request, bodyHandler);
+        recordResponse(response);
+        return response;
+    }
+
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request,
+                                                            HttpResponse.BodyHandler<T> bodyHandler) {
+        requestsSent.incrementAndGet();
+        return httpClient.sendAsync(request, bodyHandler)
+                .thenApply(response -> {
+                    recordResponse(response);
+                    return response;
+                });
+    }
+
+    public HttpClient getHttpClient() { return httpClient; }
+
+    public HttpClientConfig getConfig() { return config; }
+
+    /**
+     * Requests sent through this client since it was created
+     */
+    public long getRequestsSent() { return requestsSent.get(); }
+
+    /**
+     * Responses received over HTTP/2, whose requests share a connection per host. Responses over HTTP/1.1 may or
+     * may not have reused a pooled connection.
+     */
+    public long getHttp2Responses() { return http2Responses.get(); }
+
+    /**
+     * Number of {@link SharedHttpClient} instances created in this JVM, each with its own {@link HttpClient}
+     */
+    public static long getInstancesCreated() { return instancesCreated.get(); }
+
+    private void recordResponse(HttpResponse<?> response) {
+        if(response.version() == HttpClient.Version.HTTP_2) {
+            http2Responses.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,201 @@
+package ai.clarity;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from a row key to the hash of the row contents, used by {@link DeltaExtractor}.
+ *
+ * Everything is kept in primitive arrays: the 64-bit hash of each key, the hash of its row and the position of the
+ * key characters in a shared pool, about 30 bytes per row plus the key itself, without an object per entry.
+ * Keys are compared character by character, so different keys never collide even if their hashes do.
+ */
+class SnapshotIndex {
+
+    private static final int MIN_CAPACITY = 1024;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long[] keyHashes;
+    private long[] rowHashes;
+    // Position of the key in the pool plus one, 0 for empty slots
+    private int[] keyRefs;
+    private char[] keyPool = new char[MIN_CAPACITY * 16];
+    private int poolSize;
+    private int size;
+    private int mask;
+
+    SnapshotIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize * 2 - 1)) << 1;
+        keyHashes = new long[capacity];
+        rowHashes = new long[capacity];
+        keyRefs = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    int size() { return size; }
+
+    int capacity() { return keyRefs.length; }
+
+    /**
+     * @return   The slot of the key, or -1 if it's not in the index
+     */
+    int find(char[] key, int keyLength, long keyHash) {
+        int slot = (int) keyHash & mask;
+        while(keyRefs[slot] != 0) {
+            if(keyHashes[slot] == keyHash && keyEquals(slot, key, keyLength)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Add the key or, if it's already in the index, replace its row hash
+     *
+     * @return   The slot of the key
+     */
+    int put(char[] key, int keyLength, long keyHash, long rowHash) {
+        if((size + 1) * 2 > keyRefs.length) {
+            resize(keyRefs.length * 2);
+        }
+        int slot = (int) keyHash & mask;
+        while(keyRefs[slot] != 0) {
+            if(keyHashes[slot] == keyHash && keyEquals(slot, key, keyLength)) {
+                rowHashes[slot] = rowHash;
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keyHashes[slot] = keyHash;
+        rowHashes[slot] = rowHash;
+        keyRefs[slot] = addToPool(key, keyLength) + 1;
+        size++;
+        return slot;
+    }
+
+    long rowHash(int slot) { return rowHashes[slot]; }
+
+    boolean isUsed(int slot) { return keyRefs[slot] != 0; }
+
+    String key(int slot) {
+        int start = keyRefs[slot] - 1;
+        return new String(keyPool, start + 1, keyPool[start]);
+    }
+
+    static long hash(char[] chars, int length) {
+        long hash = FNV_OFFSET;
+        for(int i = 0; i < length; i++) {
+            hash = (hash ^ chars[i]) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * Hash of all the fields of a row, separating them so ("ab", "c") and ("a", "bc") give different hashes
+     */
+    static long hash(CsvRow row) {
+        long hash = FNV_OFFSET;
+        for(int field = 0; field < row.size(); field++) {
+            CharSequence value = row.get(field);
+            for(int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+            }
+            hash = (hash ^ 0x1F) * FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    void write(DataOutputStream output) throws IOException {
+        output.writeInt(size);
+        for(int slot = 0; slot < keyRefs.length; slot++) {
+            if(keyRefs[slot] != 0) {
+                int start = keyRefs[slot] - 1;
+                int length = keyPool[start];
+                output.writeShort(length);
+                for(int i = 0; i < length; i++) {
+                    output.writeChar(keyPool[start + 1 + i]);
+                }
+                output.writeLong(rowHashes[slot]);
+            }
+        }
+    }
+
+    static SnapshotIndex read(DataInputStream input) throws IOException {
+        int size = input.readInt();
+        SnapshotIndex index = new SnapshotIndex(size);
+        char[] key = new char[256];
+        for(int entry = 0; entry < size; entry++) {
+            int length = input.readUnsignedShort();
+            if(length > key.length) {
+                key = new char[length];
+            }
+            for(int i = 0; i < length; i++) {
+                key[i] = input.readChar();
+            }
+            index.put(key, length, hash(key, length), input.readLong());
+        }
+        return index;
+    }
+
+    private boolean keyEquals(int slot, char[] key, int keyLength) {
+        int start = keyRefs[slot] - 1;
+        if(keyPool[start] != keyLength) {
+            return false;
+        }
+        return Arrays.equals(keyPool, start + 1, start + 1 + keyLength, key, 0, keyLength);
+    }
+
+    /**
+     * Keys are stored with their length in the first char
+     */
+    private int addToPool(char[] key, int keyLength) {
+        if(keyLength > Character.MAX_VALUE) {
+            throw new IllegalArgumentException("Key too long: " + keyLength + " characters");
+        }
+        if(poolSize + keyLength + 1 > keyPool.length) {
+            keyPool = Arrays.copyOf(keyPool, Math.max(keyPool.length * 2, poolSize + keyLength + 1));
+        }
+        int start = poolSize;
+        keyPool[start] = (char) keyLength;
+        System.arraycopy(key, 0, keyPool, start + 1, keyLength);
+        poolSize += keyLength + 1;
+        return start;
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeyHashes = keyHashes;
+        long[] oldRowHashes = rowHashes;
+        int[] oldKeyRefs = keyRefs;
+        keyHashes = new long[capacity];
+        rowHashes = new long[capacity];
+        keyRefs = new int[capacity];
+        mask = capacity - 1;
+        for(int oldSlot = 0; oldSlot < oldKeyRefs.length; oldSlot++) {
+            if(oldKeyRefs[oldSlot] != 0) {
+                int slot = (int) oldKeyHashes[oldSlot] & mask;
+                while(keyRefs[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keyHashes[slot] = oldKeyHashes[oldSlot];
+                rowHashes[slot] = oldRowHashes[oldSlot];
+                keyRefs[slot] = oldKeyRefs[oldSlot];
+            }
+        }
+    }
+
+    /**
+     * Murmur3 finalizer, so the low bits used to pick the slot depend on all the characters
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
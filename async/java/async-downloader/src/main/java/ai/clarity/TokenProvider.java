@@ -0,0 +1,190 @@
+package ai.clarity;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the API access token and renews it safely when it's shared by many threads.
+ *
+ * <ul>
+ *     <li>Concurrent callers that need a new token share a single token request (single-flight)</li>
+ *     <li>Shortly before the token expires it's renewed in the background, while callers keep using the
+ *     current one. Tokens that last less than twice {@code refreshAhead} are renewed halfway through their
+ *     life instead. The refresh is scheduled when the token is received, so a process that was idle for a while
+ *     finds a fresh token instead of waiting for one. It's only scheduled again while the token is being used,
+ *     so an unused provider stops requesting tokens.</li>
+ *     <li>{@link #invalidate(String)} only discards the token if it's still the current one, so many requests
+ *     rejected with the same expired token cause just one renewal</li>
+ * </ul>
+ *
+ * The expiration is read from the {@code exp} claim when the token is a JWT, otherwise tokens are assumed to
+ * last {@link #DEFAULT_TOKEN_LIFETIME}.
+ */
+public class TokenProvider {
+
+    public static final Duration DEFAULT_TOKEN_LIFETIME = Duration.ofMinutes(30);
+    public static final Duration DEFAULT_REFRESH_AHEAD = Duration.ofMinutes(2);
+    private static final Logger logger = Logger.getLogger(TokenProvider.class.getName());
+
+    private final Supplier<CompletableFuture<String>> tokenRequester;
+    private final Duration refreshAhead;
+    private final Clock clock;
+
+    private final AtomicReference<CompletableFuture<Token>> current = new AtomicReference<>();
+    private final AtomicReference<CompletableFuture<Token>> backgroundRefresh = new AtomicReference<>();
+    private final AtomicBoolean usedSinceRefresh = new AtomicBoolean();
+
+    private static class Token {
+        final String value;
+        final Instant expiresAt;
+        final Instant refreshAt;
+
+        Token(String value, Instant expiresAt, Instant refreshAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+    }
+
+    public TokenProvider(Supplier<CompletableFuture<String>> tokenRequester, Duration refreshAhead, Clock clock) {
+        this.tokenRequester = tokenRequester;
+        this.refreshAhead = refreshAhead;
+        this.clock = clock;
+    }
+
+    /**
+     * @param tokenRequester   Requests a new token to the API every time it's called
+     */
+    public TokenProvider(Supplier<CompletableFuture<String>> tokenRequester) {
+        this(tokenRequester, DEFAULT_REFRESH_AHEAD, Clock.systemUTC());
+    }
+
+    /**
+     * @return   A valid token, requesting a new one only if there is no valid token cached
+     */
+    public CompletableFuture<String> getToken() {
+        usedSinceRefresh.set(true);
+        CompletableFuture<Token> token = current.get();
+        Instant now = clock.instant();
+
+        if(token == null || token.isCompletedExceptionally()
+                || (token.isDone() && !token.join().expiresAt.isAfter(now))) {
+            token = renew(token);
+        }
+        else if(token.isDone() && !token.join().refreshAt.isAfter(now)) {
+            refreshInBackground(token);
+        }
+        return token.thenApply(t -> t.value);
+    }
+
+    /**
+     * Discard the token because the API rejected it. Nothing happens if it has already been replaced.
+     */
+    public void invalidate(String rejectedToken) {
+        CompletableFuture<Token> token = current.get();
+        if(token != null && token.isDone() && !token.isCompletedExceptionally()
+                && token.join().value.equals(rejectedToken)) {
+            current.compareAndSet(token, null);
+        }
+    }
+
+    private CompletableFuture<Token> renew(CompletableFuture<Token> expected) {
+        CompletableFuture<Token> renewed = new CompletableFuture<>();
+        if(!current.compareAndSet(expected, renewed)) {
+            // Another thread is already renewing the token, share its request
+            CompletableFuture<Token> other = current.get();
+            return other != null ? other : renew(null);
+        }
+        requestToken().whenComplete((token, error) -> {
+            if(error != null) {
+                renewed.completeExceptionally(error);
+            }
+            else {
+                renewed.complete(token);
+                scheduleRefresh(renewed, token);
+            }
+        });
+        return renewed;
+    }
+
+    private void refreshInBackground(CompletableFuture<Token> expiring) {
+        CompletableFuture<Token> refresh = new CompletableFuture<>();
+        if(!backgroundRefresh.compareAndSet(null, refresh)) {
+            return;
+        }
+        logger.log(Level.INFO, "Refreshing access token before it expires");
+        requestToken().whenComplete((token, error) -> {
+            if(error != null) {
+                // The current token is still valid, it will be renewed when it expires
+                logger.log(Level.WARNING, "Couldn't refresh the access token: " + error.getMessage());
+            }
+            else {
+                CompletableFuture<Token> refreshed = CompletableFuture.completedFuture(token);
+                if(current.compareAndSet(expiring, refreshed)) {
+                    scheduleRefresh(refreshed, token);
+                }
+            }
+            backgroundRefresh.set(null);
+        });
+    }
+
+    /**
+     * Refresh the token when it's due, if it's still the current one and it was used since the last refresh
+     */
+    private void scheduleRefresh(CompletableFuture<Token> tokenFuture, Token token) {
+        long delayMillis = Math.max(Duration.between(clock.instant(), token.refreshAt).toMillis(), 0);
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            if(current.get() == tokenFuture && usedSinceRefresh.getAndSet(false)) {
+                refreshInBackground(tokenFuture);
+            }
+        });
+    }
+
+    private CompletableFuture<Token> requestToken() {
+        CompletableFuture<String> request;
+        try {
+            request = tokenRequester.get();
+        } catch (RuntimeException e) {
+            request = CompletableFuture.failedFuture(e);
+        }
+        return request.thenApply(this::toToken);
+    }
+
+    /**
+     * The token is refreshed {@code refreshAhead} before it expires, or halfway through its life if it's shorter
+     * than twice that, so a short-lived token isn't due for a refresh as soon as it's received
+     */
+    private Token toToken(String value) {
+        Instant expiresAt = expirationOf(value);
+        Duration halfLife = Duration.between(clock.instant(), expiresAt).dividedBy(2);
+        Duration ahead = refreshAhead.compareTo(halfLife) > 0 ? halfLife : refreshAhead;
+        return new Token(value, expiresAt, expiresAt.minus(ahead));
+    }
+
+    private Instant expirationOf(String token) {
+        Instant defaultExpiration = clock.instant().plus(DEFAULT_TOKEN_LIFETIME);
+        String[] parts = token.split("\\.");
+        if(parts.length != 3) {
+            return defaultExpiration;
+        }
+        try {
+            String claims = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+            Map<String, Object> claimsMap = HttpRequestHelper.jsonToMap(claims).orElse(Map.of());
+            Object exp = claimsMap.get("exp");
+            return exp instanceof Number ? Instant.ofEpochSecond(((Number) exp).longValue()) : defaultExpiration;
+        } catch (IllegalArgumentException e) {
+            return defaultExpiration;
+        }
+    }
+}
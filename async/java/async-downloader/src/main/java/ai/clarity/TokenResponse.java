@@ -0,0 +1,7 @@
+package ai.clarity;
+
+/**
+ * Response of the {@code /oauth/token} endpoint
+ */
+public record TokenResponse(String token) {
+}
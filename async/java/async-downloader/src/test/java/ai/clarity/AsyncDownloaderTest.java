@@ -5,9 +5,18 @@ import org.mockserver.integration.ClientAndServer;
 import org.mockserver.matchers.MatchType;
 import org.mockserver.matchers.Times;
 import org.mockserver.model.HttpRequest;
+import org.mockserver.verify.VerificationTimes;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.mockserver.integration.ClientAndServer.startClientAndServer;
 import static org.mockserver.model.HttpRequest.request;
@@ -50,7 +59,8 @@ public class AsyncDownloaderTest {
 
     @Test
     public void testRequestToken() {
-        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET");
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET")
+                .withRequestExecutor(new RequestExecutor());
         String token = asyncDownloader.requestNewToken();
         Assertions.assertEquals("THE_TOKEN", token);
     }
@@ -77,13 +87,48 @@ public class AsyncDownloaderTest {
                                 .withBody("{\"uuid\": \"NEW_JOB_ID\"}")
                 );
 
-        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET");
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET")
+                .withRequestExecutor(new RequestExecutor());
         Map<String, Object> params = Map.of("scoreIds", List.of("metric1"),
                                             "securityTypes", List.of("EQUITY"));
         String jobId = asyncDownloader.requestAsync("/securities/module/async", params);
         Assertions.assertEquals("NEW_JOB_ID", jobId);
     }
 
+    @Test
+    public void testRequestAsyncRetriesWhenThrottled() {
+        mockServer
+                .when(
+                        request()
+                                .withMethod("POST")
+                                .withPath("/clarity/v1/public/securities/module/async"),
+                        Times.exactly(1)
+                )
+                .respond(
+                        response()
+                                .withStatusCode(429)
+                                .withHeader("Retry-After", "1")
+                );
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("POST")
+                                .withPath("/clarity/v1/public/securities/module/async")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("{\"uuid\": \"NEW_JOB_ID\"}")
+                );
+
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET")
+                .withRequestExecutor(new RequestExecutor());
+        String jobId = asyncDownloader.requestAsync("/securities/module/async", Map.of("scoreIds", List.of("metric1")));
+        Assertions.assertEquals("NEW_JOB_ID", jobId);
+        mockServer.verify(request().withPath("/clarity/v1/public/securities/module/async"), VerificationTimes.exactly(2));
+    }
+
     @Test
     public void testWaitForJobUntilSuccess() {
         mockServer
@@ -109,7 +154,8 @@ public class AsyncDownloaderTest {
                                 .withBody("{\"statusMessage\": \"SUCCESS\"}")
                 );
 
-        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1);
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1)
+                .withRequestExecutor(new RequestExecutor());
         asyncDownloader.waitForJob("MY_JOB_ID");
     }
 
@@ -138,7 +184,8 @@ public class AsyncDownloaderTest {
                                 .withBody("{\"statusMessage\": \"ERROR\"}")
                 );
 
-        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1);
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1)
+                .withRequestExecutor(new RequestExecutor());
         Assertions.assertThrows(RuntimeException.class ,() -> asyncDownloader.waitForJob("MY_JOB_ID"));
     }
 
@@ -194,8 +241,187 @@ public class AsyncDownloaderTest {
                                 .withBody("{\"statusMessage\": \"SUCCESS\"}")
                 );
 
-        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1);
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1)
+                .withRequestExecutor(new RequestExecutor());
+        asyncDownloader.waitForJob("MY_JOB_ID");
+    }
+
+    @Test
+    public void testWaitForJobReportsMetrics() {
+        mockServer
+                .when(getGetStatusRequest(), Times.exactly(2))
+                .respond(
+                        response()
+                                .withStatusCode(202)
+                                .withBody("{\"statusMessage\": \"RUNNING\"}")
+                );
+
+        mockServer
+                .when(getGetStatusRequest())
+                .respond(
+                        response()
+                                .withStatusCode(302)
+                                .withBody("{\"statusMessage\": \"SUCCESS\"}")
+                );
+
+        List<String> phases = new CopyOnWriteArrayList<>();
+        AtomicInteger statusChecks = new AtomicInteger();
+        JobMetrics metrics = new JobMetrics() {
+            @Override
+            public Timer start(String apiPath, Phase phase) {
+                return successful -> phases.add(phase + (successful ? "" : " FAILED"));
+            }
+
+            @Override
+            public void recordStatusChecks(String apiPath, int checks) {
+                statusChecks.set(checks);
+            }
+        };
+
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1)
+                .withRequestExecutor(new RequestExecutor())
+                .withMetrics(metrics);
         asyncDownloader.waitForJob("MY_JOB_ID");
+
+        Assertions.assertEquals(3, statusChecks.get());
+        Assertions.assertEquals(List.of("TOKEN", "STATUS", "STATUS", "STATUS", "WAIT"), phases);
+    }
+
+    @Test
+    public void testDownloadAsync() throws IOException {
+        mockServer
+                .when(
+                        request()
+                                .withMethod("POST")
+                                .withPath("/clarity/v1/public/securities/module/async")
+                                .withHeader("Authorization", "Bearer THE_TOKEN")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("{\"uuid\": \"MY_JOB_ID\"}")
+                );
+
+        mockServer
+                .when(getGetStatusRequest(), Times.exactly(2))
+                .respond(
+                        response()
+                                .withStatusCode(202)
+                                .withBody("{\"statusMessage\": \"RUNNING\"}")
+                );
+
+        mockServer
+                .when(getGetStatusRequest())
+                .respond(
+                        response()
+                                .withStatusCode(302)
+                                .withBody("{\"statusMessage\": \"SUCCESS\"}")
+                );
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/clarity/v1/public/job/MY_JOB_ID/fetch")
+                                .withHeader("Authorization", "Bearer THE_TOKEN")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("The job results")
+                );
+
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1)
+                .withRequestExecutor(new RequestExecutor());
+        Map<String, Object> params = Map.of("scoreIds", List.of("metric1"));
+        CompletableFuture<Path> result = asyncDownloader.downloadAsync("/securities/module/async", params);
+
+        Path path = result.join();
+        Assertions.assertEquals("The job results", Files.readString(path));
+    }
+
+    @Test
+    public void testDownloadAsyncResumesJournaledJob() throws IOException {
+        mockServer
+                .when(getGetStatusRequest())
+                .respond(
+                        response()
+                                .withStatusCode(302)
+                                .withBody("{\"statusMessage\": \"SUCCESS\"}")
+                );
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/clarity/v1/public/job/MY_JOB_ID/fetch")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("The job results")
+                );
+
+        Path directory = Files.createTempDirectory("journal");
+        Map<String, Object> params = Map.of("scoreIds", List.of("metric1"));
+        // Submitted by a previous run of the process
+        try (JobJournal journal = new JobJournal(directory)) {
+            journal.recordSubmitted("/securities/module/async", params, "MY_JOB_ID").join();
+        }
+
+        try (JobJournal journal = new JobJournal(directory)) {
+            AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1)
+                    .withRequestExecutor(new RequestExecutor())
+                    .withJobJournal(journal);
+            Path path = asyncDownloader.downloadAsync("/securities/module/async", params).join();
+
+            Assertions.assertEquals("The job results", Files.readString(path));
+            Assertions.assertTrue(journal.getUnfinishedJobs().isEmpty());
+        }
+        mockServer.verify(request().withPath("/clarity/v1/public/securities/module/async"), VerificationTimes.never());
+    }
+
+    @Test
+    public void testResumedJobsAreJournaledWithTheirCachedPath() throws IOException {
+        mockServer
+                .when(getGetStatusRequest())
+                .respond(
+                        response()
+                                .withStatusCode(302)
+                                .withBody("{\"statusMessage\": \"SUCCESS\"}")
+                );
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/clarity/v1/public/job/MY_JOB_ID/fetch")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("The job results")
+                );
+
+        Path directory = Files.createTempDirectory("journal");
+        Map<String, Object> params = Map.of("scoreIds", List.of("metric1"));
+        ResultCache resultCache = new ResultCache(Files.createTempDirectory("cache"), Duration.ofHours(1), 1 << 20);
+        Path path;
+        try (JobJournal journal = new JobJournal(directory)) {
+            JobJournal.Entry job = journal.recordSubmitted("/securities/module/async", params, "MY_JOB_ID").join();
+            AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1)
+                    .withRequestExecutor(new RequestExecutor())
+                    .withResultCache(resultCache)
+                    .withJobJournal(journal);
+
+            path = asyncDownloader.resumeUnfinishedJobs().get(job).join();
+
+            Assertions.assertEquals(resultCache.get("/securities/module/async", params), Optional.of(path));
+            Assertions.assertEquals("The job results", Files.readString(path));
+        }
+        // Closing the journal writes all its records
+        Assertions.assertTrue(Files.readString(directory.resolve("jobs.journal")).contains("DOWNLOADED"));
+        Assertions.assertTrue(Files.readString(directory.resolve("jobs.journal")).contains(path.toString()));
     }
 
     private HttpRequest getGetStatusRequest() {
@@ -0,0 +1,111 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.DoubleBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.zip.GZIPOutputStream;
+
+public class ColumnarStoreTest {
+
+    @Test
+    public void testConvertAndRead() throws IOException {
+        Path file = createGzipFile("id,name,ESG_RISK,CARBON\n" +
+                                   "US0000000002,Microsoft,20.5,100\n" +
+                                   "US0000000001,Apple,10.25,\n" +
+                                   "US0000000003,\"Tesla, Inc\",-3,300\n");
+
+        ColumnarStore store = ColumnarStore.convert(file, Files.createTempDirectory("columnar").resolve("scores.col"), "id");
+
+        Assertions.assertEquals(3, store.getRowCount());
+        Assertions.assertEquals(List.of("id", "name", "ESG_RISK", "CARBON"), store.getColumnNames());
+        Assertions.assertFalse(store.isNumeric(store.getColumnIndex("name")));
+        Assertions.assertTrue(store.isNumeric(store.getColumnIndex("ESG_RISK")));
+
+        Assertions.assertEquals("Tesla, Inc", store.getString(2, "name"));
+        Assertions.assertEquals(10.25, store.getDouble(1, "ESG_RISK"));
+        Assertions.assertTrue(Double.isNaN(store.getDouble(1, "CARBON")));
+        Assertions.assertEquals("100.0", store.getString(0, "CARBON"));
+        Assertions.assertEquals("", store.getString(1, "CARBON"));
+    }
+
+    @Test
+    public void testFindRowById() throws IOException {
+        Path file = createGzipFile("id,ESG_RISK\n" +
+                                   "US0000000002,20.5\n" +
+                                   "US0000000001,10.25\n" +
+                                   "US0000000003,-3\n");
+
+        ColumnarStore store = ColumnarStore.convert(file, Files.createTempDirectory("columnar").resolve("scores.col"), "id");
+
+        Assertions.assertEquals(OptionalInt.of(1), store.findRow("US0000000001"));
+        Assertions.assertEquals(OptionalInt.of(0), store.findRow("US0000000002"));
+        Assertions.assertEquals(OptionalInt.of(2), store.findRow("US0000000003"));
+        Assertions.assertEquals(OptionalInt.empty(), store.findRow("US0000000004"));
+        Assertions.assertEquals("US0000000003", store.getString(2, "id"));
+    }
+
+    @Test
+    public void testOnlyPlainDecimalsAreNumeric() throws IOException {
+        Path file = createGzipFile("id,SPECIAL,SUFFIX,EXPONENT\n" +
+                                   "US0000000002,1.5,12,1e3\n" +
+                                   "US0000000001,NaN,12F,-2.5E-2\n" +
+                                   "US0000000002,Infinity,3,\n");
+
+        ColumnarStore store = ColumnarStore.convert(file, Files.createTempDirectory("columnar").resolve("scores.col"), "id");
+
+        Assertions.assertFalse(store.isNumeric(store.getColumnIndex("SPECIAL")));
+        Assertions.assertFalse(store.isNumeric(store.getColumnIndex("SUFFIX")));
+        Assertions.assertTrue(store.isNumeric(store.getColumnIndex("EXPONENT")));
+        Assertions.assertEquals("NaN", store.getString(1, "SPECIAL"));
+        Assertions.assertEquals(-0.025, store.getDouble(1, "EXPONENT"));
+        Assertions.assertEquals(OptionalInt.of(0), store.findRow("US0000000002"));
+        Assertions.assertEquals(OptionalInt.of(1), store.findRow("US0000000001"));
+    }
+
+    @Test
+    public void testColumnScanAndReopen() throws IOException {
+        StringBuilder csv = new StringBuilder("id,sector,score\n");
+        for(int i = 0; i < 10_000; i++) {
+            csv.append("SEC").append(i).append(',').append(i % 2 == 0 ? "Energy" : "Tech").append(',').append(i).append('\n');
+        }
+        Path output = Files.createTempDirectory("columnar").resolve("scores.col");
+        ColumnarStore.convert(createGzipFile(csv.toString()), output, "id");
+
+        ColumnarStore store = ColumnarStore.open(output);
+        DoubleBuffer scores = store.getDoubleColumn("score");
+        double sum = 0;
+        while(scores.hasRemaining()) {
+            sum += scores.get();
+        }
+
+        Assertions.assertEquals(10_000 * 9_999 / 2.0, sum);
+        Assertions.assertEquals(OptionalInt.of(1234), store.findRow("SEC1234"));
+        Assertions.assertEquals(store.getCodeColumn("sector").get(0), store.getCodeColumn("sector").get(2));
+        Assertions.assertEquals("Tech", store.getString(9_999, "sector"));
+    }
+
+    @Test
+    public void testMissingIdColumn() throws IOException {
+        Path file = createGzipFile("isin,ESG_RISK\nUS0000000001,10\n");
+
+        Assertions.assertThrows(RuntimeException.class, () ->
+                ColumnarStore.convert(file, Files.createTempDirectory("columnar").resolve("scores.col"), "id"));
+    }
+
+    private static Path createGzipFile(String content) throws IOException {
+        Path file = Files.createTempFile("results", ".csv.gz");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file)),
+                                                    StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+        return file;
+    }
+}
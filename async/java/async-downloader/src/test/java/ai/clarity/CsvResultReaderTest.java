@@ -0,0 +1,102 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+public class CsvResultReaderTest {
+
+    @Test
+    public void testReadHeaderAndRows() throws IOException {
+        Path file = createGzipFile("isin,scoreId,value\n" +
+                                   "US0000000001,ESG,45.5\n" +
+                                   "US0000000002,ESG,-3.25\n");
+
+        try (CsvResultReader reader = CsvResultReader.open(file)) {
+            Assertions.assertEquals(List.of("isin", "scoreId", "value"), reader.getHeader());
+            Assertions.assertEquals(2, reader.getColumnIndex("value"));
+
+            CsvRow row = reader.next();
+            Assertions.assertEquals("US0000000001", row.getString(0));
+            Assertions.assertTrue(row.fieldEquals(1, "ESG"));
+            Assertions.assertEquals(45.5, row.getDouble(2));
+
+            row = reader.next();
+            Assertions.assertEquals("US0000000002", row.get(0).toString());
+            Assertions.assertEquals(-3.25, row.getDouble(2));
+
+            Assertions.assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void testQuotedFieldsAndLineEndings() throws IOException {
+        Path file = createGzipFile("isin,name,value\r\n" +
+                                   "US0000000001,\"Acme, \"\"The Company\"\"\",1e3\r\n" +
+                                   "\r\n" +
+                                   "US0000000002,\"Two\nlines\",\r\n" +
+                                   "US0000000003,Last,7");
+
+        try (CsvResultReader reader = CsvResultReader.open(file)) {
+            CsvRow row = reader.next();
+            Assertions.assertEquals("Acme, \"The Company\"", row.getString(1));
+            Assertions.assertEquals(1000, row.getDouble(2));
+
+            row = reader.next();
+            Assertions.assertEquals("Two\nlines", row.getString(1));
+            Assertions.assertTrue(row.isEmpty(2));
+            Assertions.assertTrue(Double.isNaN(row.getDouble(2)));
+
+            row = reader.next();
+            Assertions.assertArrayEquals(new String[]{"US0000000003", "Last", "7"}, row.toArray());
+            Assertions.assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void testRowsAreReusedAndBufferGrowsForLongRows() throws IOException {
+        String longName = "x".repeat(1000);
+        Path file = createGzipFile("isin,name\n" +
+                                   "US0000000001," + longName + "\n" +
+                                   "US0000000002,short\n");
+
+        try (CsvResultReader reader = CsvResultReader.open(file, 16)) {
+            CsvRow first = reader.next();
+            Assertions.assertEquals(longName, first.getString(1));
+            CsvRow second = reader.next();
+            Assertions.assertSame(first, second);
+            Assertions.assertEquals("short", second.getString(1));
+        }
+    }
+
+    @Test
+    public void testStreamRows() throws IOException {
+        Path file = createGzipFile("isin,value\nUS0000000001,1\nUS0000000002,2\nUS0000000003,3\n");
+
+        try (CsvResultReader reader = CsvResultReader.open(file)) {
+            List<String> isins = reader.stream()
+                    .filter(row -> row.getDouble(1) > 1)
+                    .map(row -> row.getString(0))
+                    .collect(Collectors.toList());
+
+            Assertions.assertEquals(List.of("US0000000002", "US0000000003"), isins);
+        }
+    }
+
+    private static Path createGzipFile(String content) throws IOException {
+        Path file = Files.createTempFile("results", ".csv.gz");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file)),
+                                                    StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+        return file;
+    }
+}
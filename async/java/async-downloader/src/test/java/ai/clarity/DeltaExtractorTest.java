@@ -0,0 +1,123 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DeltaExtractorTest {
+
+    private static final String FIRST_EXTRACT = "id,name,score\n" +
+            "SEC1,Apple,10.5\n" +
+            "SEC2,Microsoft,20.0\n" +
+            "SEC3,Tesla,30.25\n";
+
+    private static final String SECOND_EXTRACT = "id,name,score\n" +
+            "SEC1,Apple,10.5\n" +
+            "SEC3,Tesla,31.0\n" +
+            "SEC4,Nvidia,40.0\n";
+
+    private RecordingListener listener;
+
+    @BeforeEach
+    public void createListener() {
+        listener = new RecordingListener();
+    }
+
+    @Test
+    public void testFirstExtractIsAllInserted() {
+        DeltaExtractor extractor = new DeltaExtractor("id");
+
+        DeltaStats stats = extractor.diff(reader(FIRST_EXTRACT), listener);
+
+        Assertions.assertEquals(new DeltaStats(3, 0, 0, 0), stats);
+        Assertions.assertEquals(List.of("SEC1", "SEC2", "SEC3"), listener.inserted);
+        Assertions.assertEquals(3, extractor.getSnapshotSize());
+    }
+
+    @Test
+    public void testOnlyChangedRowsAreReported() {
+        DeltaExtractor extractor = new DeltaExtractor("id");
+        extractor.diff(reader(FIRST_EXTRACT), new RecordingListener());
+
+        DeltaStats stats = extractor.diff(reader(SECOND_EXTRACT), listener);
+
+        Assertions.assertEquals(new DeltaStats(1, 1, 1, 1), stats);
+        Assertions.assertEquals(List.of("SEC4"), listener.inserted);
+        Assertions.assertEquals(List.of("SEC3"), listener.updated);
+        Assertions.assertEquals(List.of("SEC2"), listener.deleted);
+    }
+
+    @Test
+    public void testSnapshotIsKeptBetweenRuns() throws IOException {
+        Path indexFile = Files.createTempDirectory("delta").resolve("securities.idx");
+        DeltaExtractor extractor = DeltaExtractor.open(indexFile, "id");
+        extractor.diff(reader(FIRST_EXTRACT), new RecordingListener());
+        extractor.save();
+
+        DeltaExtractor reopened = DeltaExtractor.open(indexFile, "id");
+        DeltaStats stats = reopened.diff(reader(SECOND_EXTRACT), listener);
+
+        Assertions.assertEquals(new DeltaStats(1, 1, 1, 1), stats);
+        Assertions.assertEquals(List.of("SEC2"), listener.deleted);
+    }
+
+    @Test
+    public void testRowsAreIdentifiedBySeveralColumns() {
+        DeltaExtractor extractor = new DeltaExtractor("id", "metric");
+        extractor.diff(reader("id,metric,value\nSEC1,M1,1\nSEC1,M2,2\n"), new RecordingListener());
+
+        DeltaStats stats = extractor.diff(reader("id,metric,value\nSEC1,M1,1\nSEC1,M2,3\n"), listener);
+
+        Assertions.assertEquals(new DeltaStats(0, 1, 0, 1), stats);
+        Assertions.assertEquals(List.of("SEC1"), listener.updated);
+    }
+
+    @Test
+    public void testManyRows() {
+        DeltaExtractor extractor = new DeltaExtractor("id");
+        extractor.diff(reader(extract(100_000, 0)), new RecordingListener());
+
+        DeltaStats stats = extractor.diff(reader(extract(100_000, 1000)), new RecordingListener());
+
+        Assertions.assertEquals(new DeltaStats(0, 1000, 0, 99_000), stats);
+    }
+
+    @Test
+    public void testMissingKeyColumn() {
+        DeltaExtractor extractor = new DeltaExtractor("isin");
+
+        Assertions.assertThrows(RuntimeException.class, () -> extractor.diff(reader(FIRST_EXTRACT), listener));
+    }
+
+    private static String extract(int rows, int changedRows) {
+        StringBuilder csv = new StringBuilder("id,score\n");
+        for(int i = 0; i < rows; i++) {
+            csv.append("SEC").append(i).append(',').append(i < changedRows ? i + 0.5 : i).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static CsvResultReader reader(String csv) {
+        return new CsvResultReader(new StringReader(csv), 1024);
+    }
+
+    private static class RecordingListener implements DeltaListener {
+        final List<String> inserted = new ArrayList<>();
+        final List<String> updated = new ArrayList<>();
+        final List<String> deleted = new ArrayList<>();
+
+        @Override
+        public void onInserted(CsvRow row) { inserted.add(row.getString(0)); }
+
+        @Override
+        public void onUpdated(CsvRow row) { updated.add(row.getString(0)); }
+
+        @Override
+        public void onDeleted(String key) { deleted.add(key); }
+    }
+}
@@ -0,0 +1,125 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class ExtractionPlannerTest {
+
+    private static final String API_PATH = "/securities/esg-risk/scores-by-id/async";
+    private static final Map<String, Object> PARAMS = Map.of("scoreIds", List.of("ESG"));
+
+    private ExtractionPlanner planner;
+
+    @BeforeEach
+    public void createPlanner() {
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET")
+                .withRequestExecutor(new RequestExecutor());
+        planner = new ExtractionPlanner(asyncDownloader, "securityIds");
+    }
+
+    @Test
+    public void testIdsAreDistinctAndSorted() {
+        List<JobSpec> specs = planner.plan(API_PATH, PARAMS, List.of("SEC3", "SEC1", "SEC3", "SEC2"));
+
+        Assertions.assertEquals(1, specs.size());
+        Assertions.assertEquals(API_PATH, specs.get(0).apiPath());
+        Assertions.assertEquals(List.of("ESG"), specs.get(0).params().get("scoreIds"));
+        Assertions.assertEquals(List.of("SEC1", "SEC2", "SEC3"), specs.get(0).params().get("securityIds"));
+    }
+
+    @Test
+    public void testBatchesAreEvenWithinTheIdLimit() {
+        List<String> ids = securityIds(10);
+
+        List<JobSpec> specs = planner.withMaxIdsPerJob(4).plan(API_PATH, PARAMS, ids);
+
+        Assertions.assertEquals(List.of(4, 4, 2), batchSizes(specs));
+        Assertions.assertEquals(ids, allIds(specs));
+    }
+
+    @Test
+    public void testBatchesFitThePayloadLimit() {
+        List<String> ids = securityIds(1000);
+        int maxPayloadBytes = 2_000;
+
+        List<JobSpec> specs = planner.withMaxPayloadBytes(maxPayloadBytes).plan(API_PATH, PARAMS, ids);
+
+        Assertions.assertTrue(specs.size() > 1);
+        for(JobSpec spec : specs) {
+            int payloadBytes = HttpRequestHelper.mapToJson(spec.params()).get().getBytes(StandardCharsets.UTF_8).length;
+            Assertions.assertTrue(payloadBytes <= maxPayloadBytes, "Payload of " + payloadBytes + " bytes");
+        }
+        List<Integer> sizes = batchSizes(specs);
+        Assertions.assertTrue(sizes.get(0) - sizes.get(sizes.size() - 1) <= 1);
+        Assertions.assertEquals(ids, allIds(specs));
+    }
+
+    @Test
+    public void testNoIdsMeansNoJobs() {
+        Assertions.assertTrue(planner.plan(API_PATH, PARAMS, List.of()).isEmpty());
+    }
+
+    @Test
+    public void testResultsAreMergedWithASingleHeader() throws IOException {
+        Path directory = Files.createTempDirectory("extraction");
+        Path first = gzip(directory.resolve("first.csv.gz"), "id,score\nSEC1,10\nSEC2,20\n");
+        Path second = gzip(directory.resolve("second.csv.gz"), "id,score\nSEC3,30");
+        Path third = gzip(directory.resolve("third.csv.gz"), "id,score\n");
+        Path output = directory.resolve("merged.csv.gz");
+
+        ExtractionPlanner.mergeResults(List.of(first, second, third), output);
+
+        try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(output))) {
+            Assertions.assertEquals("id,score\nSEC1,10\nSEC2,20\nSEC3,30\n", new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testResultsWithDifferentColumnsAreNotMerged() throws IOException {
+        Path directory = Files.createTempDirectory("extraction");
+        Path first = gzip(directory.resolve("first.csv.gz"), "id,score\nSEC1,10\n");
+        Path second = gzip(directory.resolve("second.csv.gz"), "id,name\nSEC2,Microsoft\n");
+
+        Assertions.assertThrows(RuntimeException.class,
+                () -> ExtractionPlanner.mergeResults(List.of(first, second), directory.resolve("merged.csv.gz")));
+    }
+
+    private static List<String> securityIds(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> String.format("US%010d", i))
+                .collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Integer> batchSizes(List<JobSpec> specs) {
+        return specs.stream()
+                .map(spec -> ((List<String>) spec.params().get("securityIds")).size())
+                .collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> allIds(List<JobSpec> specs) {
+        List<String> ids = new ArrayList<>();
+        specs.forEach(spec -> ids.addAll((List<String>) spec.params().get("securityIds")));
+        return ids;
+    }
+
+    private static Path gzip(Path path, String content) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(path))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return path;
+    }
+}
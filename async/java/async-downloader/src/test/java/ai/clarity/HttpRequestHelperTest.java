@@ -2,13 +2,17 @@ package ai.clarity;
 
 import org.junit.jupiter.api.*;
 import org.mockserver.integration.ClientAndServer;
+import org.mockserver.matchers.Times;
 import org.mockserver.model.Header;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletionException;
 
 import static org.mockserver.integration.ClientAndServer.startClientAndServer;
 import static org.mockserver.model.HttpRequest.request;
@@ -40,6 +44,33 @@ public class HttpRequestHelperTest {
         Assertions.assertEquals(map, mapFromJson);
     }
 
+    @Test
+    public void testJsonToObject() {
+        var response = HttpRequestHelper.jsonToObject("{\"uuid\": \"MY_JOB_ID\", \"other\": 1}", JobSubmitResponse.class);
+
+        Assertions.assertEquals(new JobSubmitResponse("MY_JOB_ID"), response.get());
+    }
+
+    @Test
+    public void testReadStringField() {
+        String json = "{\"details\": {\"statusMessage\": \"NESTED\"}, \"items\": [1, 2], \"statusMessage\": \"RUNNING\"}";
+
+        Assertions.assertEquals("RUNNING", HttpRequestHelper.readStringField(json, "statusMessage").get());
+        Assertions.assertTrue(HttpRequestHelper.readStringField(json, "missing").isEmpty());
+        Assertions.assertTrue(HttpRequestHelper.readStringField(json, "items").isEmpty());
+        Assertions.assertTrue(HttpRequestHelper.readStringField("not json", "statusMessage").isEmpty());
+    }
+
+    @Test
+    public void testEndpointOfUrl() {
+        String api = "https://api.clarity.ai/clarity/v1";
+
+        Assertions.assertEquals(Endpoint.TOKEN, HttpRequestHelper.endpointOf(api + "/oauth/token", true));
+        Assertions.assertEquals(Endpoint.SUBMIT, HttpRequestHelper.endpointOf(api + "/esg/job", true));
+        Assertions.assertEquals(Endpoint.STATUS, HttpRequestHelper.endpointOf(api + "/job/MY_JOB_ID/status", false));
+        Assertions.assertEquals(Endpoint.FETCH, HttpRequestHelper.endpointOf(api + "/job/MY_JOB_ID/fetch", false));
+    }
+
     @Test
     public void testSuccessfulGetRequest() {
         mockServer
@@ -141,4 +172,196 @@ public class HttpRequestHelperTest {
         HttpRequestHelper.downloadToFile("http://localhost:1080/download", null, tmpFile);
         Assertions.assertNotNull(tmpFile);
     }
+
+    @Test
+    public void testRequestsReuseTheSharedClient() {
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/get-endpoint")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("OK")
+                );
+
+        SharedHttpClient sharedClient = HttpRequestHelper.getSharedClient();
+        long instancesCreated = SharedHttpClient.getInstancesCreated();
+        long requestsSent = sharedClient.getRequestsSent();
+
+        for(int i = 0; i < 5; i++) {
+            Assertions.assertEquals("OK", HttpRequestHelper.getRequest("http://localhost:1080/get-endpoint").get());
+        }
+
+        Assertions.assertSame(sharedClient, HttpRequestHelper.getSharedClient());
+        Assertions.assertEquals(instancesCreated, SharedHttpClient.getInstancesCreated());
+        Assertions.assertEquals(requestsSent + 5, sharedClient.getRequestsSent());
+    }
+
+    @Test
+    public void testOpenStream() throws IOException {
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/download")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("This is a big body")
+                );
+
+        try (InputStream stream = HttpRequestHelper.openStreamAsync("http://localhost:1080/download", null).join()) {
+            Assertions.assertEquals("This is a big body", new String(stream.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void testOpenStreamWithError() {
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/download")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(404)
+                                .withBody("Not found")
+                );
+
+        var stream = HttpRequestHelper.openStreamAsync("http://localhost:1080/download", null);
+        Assertions.assertThrows(CompletionException.class, stream::join);
+    }
+
+    @Test
+    public void testDownloadContentToFileInRanges() throws IOException {
+        mockServer
+                .when(
+                        request()
+                                .withMethod("HEAD")
+                                .withPath("/download")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader("Accept-Ranges", "bytes")
+                                .withHeader("Content-Length", "20")
+                );
+        mockRange("bytes=0-9", "0123456789");
+        mockRange("bytes=10-19", "abcdefghij");
+
+        var tmpFile = Files.createTempFile("test", ".txt");
+        HttpRequestHelper.downloadToFile("http://localhost:1080/download", null, tmpFile, 2);
+
+        Assertions.assertEquals("0123456789abcdefghij", Files.readString(tmpFile));
+        Assertions.assertFalse(Files.exists(tmpFile.resolveSibling(tmpFile.getFileName() + ".parts")));
+    }
+
+    @Test
+    public void testDownloadInRangesRetriesFailedChunks() throws IOException {
+        mockServer
+                .when(
+                        request()
+                                .withMethod("HEAD")
+                                .withPath("/download")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader("Accept-Ranges", "bytes")
+                                .withHeader("Content-Length", "20")
+                );
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/download")
+                                .withHeader("Range", "bytes=10-19"),
+                        Times.once()
+                )
+                .respond(
+                        response()
+                                .withStatusCode(503)
+                );
+        mockRange("bytes=0-9", "0123456789");
+        mockRange("bytes=10-19", "abcdefghij");
+
+        var tmpFile = Files.createTempFile("test", ".txt");
+        HttpRequestHelper.downloadToFile("http://localhost:1080/download", null, tmpFile, 2);
+
+        Assertions.assertEquals("0123456789abcdefghij", Files.readString(tmpFile));
+    }
+
+    @Test
+    public void testDownloadInRangesFallsBackToSingleRequest() throws IOException {
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/download")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("This is a big body")
+                );
+
+        var tmpFile = Files.createTempFile("test", ".txt");
+        HttpRequestHelper.downloadToFile("http://localhost:1080/download", null, tmpFile, 4);
+
+        Assertions.assertEquals("This is a big body", Files.readString(tmpFile));
+    }
+
+    @Test
+    public void testDownloadInRangesKeepsTheWholeFileAnsweredToARange() throws IOException {
+        mockServer
+                .when(
+                        request()
+                                .withMethod("HEAD")
+                                .withPath("/download")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withHeader("Accept-Ranges", "bytes")
+                                .withHeader("Content-Length", "20")
+                );
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/download")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("0123456789abcdefghij")
+                );
+
+        var tmpFile = Files.createTempFile("test", ".txt");
+        HttpRequestHelper.downloadToFile("http://localhost:1080/download", null, tmpFile, 2);
+
+        Assertions.assertEquals("0123456789abcdefghij", Files.readString(tmpFile));
+        Assertions.assertFalse(Files.exists(tmpFile.resolveSibling(tmpFile.getFileName() + ".parts")));
+    }
+
+    private void mockRange(String range, String body) {
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/download")
+                                .withHeader("Range", range)
+                )
+                .respond(
+                        response()
+                                .withStatusCode(206)
+                                .withHeader("Content-Range", range.replace("=", " ") + "/20")
+                                .withBody(body)
+                );
+    }
 }
@@ -0,0 +1,56 @@
+package ai.clarity;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class JfrJobMetricsTest {
+
+    private static final String API_PATH = "/securities/esg-risk/scores-by-id/async";
+
+    @Test
+    public void testMetricsAreRecordedAsEvents() throws IOException {
+        JfrJobMetrics metrics = new JfrJobMetrics();
+        Path file = Files.createTempFile("metrics", ".jfr");
+
+        try (Recording recording = new Recording()) {
+            recording.enable("ai.clarity.JobPhase");
+            recording.enable("ai.clarity.JobFetch");
+            recording.start();
+
+            metrics.start(API_PATH, JobMetrics.Phase.SUBMIT).stop(true);
+            metrics.recordFetched(API_PATH, 2_000_000, 500_000_000);
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        RecordedEvent phase = findEvent(events, "ai.clarity.JobPhase");
+        Assertions.assertEquals(API_PATH, phase.getString("apiPath"));
+        Assertions.assertEquals("SUBMIT", phase.getString("phase"));
+        Assertions.assertTrue(phase.getBoolean("successful"));
+
+        RecordedEvent fetch = findEvent(events, "ai.clarity.JobFetch");
+        Assertions.assertEquals(2_000_000, fetch.getLong("bytes"));
+        Assertions.assertEquals(4_000_000, fetch.getLong("bytesPerSecond"));
+    }
+
+    @Test
+    public void testNothingIsTimedWithoutRecording() {
+        Assertions.assertSame(JobMetrics.Timer.NO_OP, new JfrJobMetrics().start(API_PATH, JobMetrics.Phase.FETCH));
+    }
+
+    private static RecordedEvent findEvent(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No " + name + " event recorded"));
+    }
+}
@@ -0,0 +1,149 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+import org.mockserver.integration.ClientAndServer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.mockserver.integration.ClientAndServer.startClientAndServer;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+public class JobBatchTest {
+
+    private static ClientAndServer mockServer;
+
+    @BeforeEach
+    public void startServer() {
+        mockServer = startClientAndServer(1080);
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("POST")
+                                .withPath("/clarity/v1/oauth/token")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("{\"token\": \"THE_TOKEN\"}")
+                );
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("POST")
+                                .withPath("/clarity/v1/public/securities/module/async")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("{\"uuid\": \"SECURITIES_JOB\"}")
+                );
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("POST")
+                                .withPath("/clarity/v1/public/organizations/module/async")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(500)
+                                .withBody("Internal error")
+                );
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/clarity/v1/public/job/SECURITIES_JOB/status")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(302)
+                                .withBody("{\"statusMessage\": \"SUCCESS\"}")
+                );
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/clarity/v1/public/job/SECURITIES_JOB/fetch")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("Securities results")
+                );
+    }
+
+    @AfterEach
+    public void stopServer() {
+        mockServer.stop();
+    }
+
+    @Test
+    public void testFailingJobDoesNotAffectTheOthers() throws IOException {
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1)
+                .withRequestExecutor(new RequestExecutor());
+        JobBatch jobBatch = new JobBatch(asyncDownloader, 1);
+
+        List<JobResult> results = jobBatch.run(List.of(
+                JobSpec.of("/organizations/module/async", Map.of("metricIds", List.of("metric1"))),
+                JobSpec.of("/securities/module/async", Map.of("scoreIds", List.of("score1")))));
+
+        Assertions.assertEquals(2, results.size());
+
+        JobResult organizationsResult = results.get(0);
+        Assertions.assertFalse(organizationsResult.isSuccessful());
+        Assertions.assertTrue(organizationsResult.getError().isPresent());
+
+        JobResult securitiesResult = results.get(1);
+        Assertions.assertTrue(securitiesResult.isSuccessful());
+        Assertions.assertEquals("Securities results", Files.readString(securitiesResult.getPath().get()));
+    }
+
+    @Test
+    public void testResultsAreReportedAsJobsFinish() {
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1)
+                .withRequestExecutor(new RequestExecutor());
+        JobBatch jobBatch = new JobBatch(asyncDownloader, 1);
+        var reported = new ConcurrentLinkedQueue<JobResult>();
+
+        List<JobResult> results = jobBatch.runAsync(List.of(
+                JobSpec.of("/securities/module/async", Map.of("scoreIds", List.of("score1"))),
+                JobSpec.of("/securities/module/async", Map.of("scoreIds", List.of("score2"))),
+                JobSpec.of("/securities/module/async", Map.of("scoreIds", List.of("score3")))),
+                reported::add).join();
+
+        Assertions.assertEquals(3, results.size());
+        Assertions.assertEquals(3, reported.size());
+        Assertions.assertTrue(results.stream().allMatch(JobResult::isSuccessful));
+    }
+
+    @Test
+    public void testJobsFinishingAtOnceDoNotOverflowTheStack() {
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET", 1) {
+            @Override
+            public CompletableFuture<Path> downloadAsync(String apiPath, Map<String, Object> data) {
+                return CompletableFuture.completedFuture(Path.of("cached.csv.gz"));
+            }
+        };
+        JobBatch jobBatch = new JobBatch(asyncDownloader, 1);
+        List<JobSpec> specs = Collections.nCopies(100_000,
+                JobSpec.of("/securities/module/async", Map.of("scoreIds", List.of("score1"))));
+
+        List<JobResult> results = jobBatch.run(specs);
+
+        Assertions.assertEquals(100_000, results.size());
+        Assertions.assertTrue(results.stream().allMatch(JobResult::isSuccessful));
+    }
+}
@@ -0,0 +1,104 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public class JobJournalTest {
+
+    private static final String API_PATH = "/securities/esg-risk/scores-by-id/async";
+
+    @Test
+    public void testUnfinishedJobsAreReplayedAfterReopening() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+
+        try (JobJournal journal = new JobJournal(directory)) {
+            JobJournal.Entry first = journal.recordSubmitted(API_PATH, Map.of("ids", List.of("A")), "JOB_1").join();
+            JobJournal.Entry second = journal.recordSubmitted(API_PATH, Map.of("ids", List.of("B")), "JOB_2").join();
+            JobJournal.Entry third = journal.recordSubmitted(API_PATH, Map.of("ids", List.of("C")), "JOB_3").join();
+            journal.recordFinished(first).join();
+            journal.recordDownloaded(second, directory.resolve("JOB_2.csv.gz")).join();
+            journal.recordFailed(third).join();
+        }
+
+        try (JobJournal journal = new JobJournal(directory)) {
+            List<JobJournal.Entry> unfinished = journal.getUnfinishedJobs();
+            Assertions.assertEquals(1, unfinished.size());
+            Assertions.assertEquals("JOB_1", unfinished.get(0).jobId());
+            Assertions.assertEquals(JobJournal.State.FINISHED, unfinished.get(0).state());
+            Assertions.assertEquals("JOB_1",
+                    journal.findUnfinished(API_PATH, Map.of("ids", List.of("A"))).orElseThrow().jobId());
+            Assertions.assertTrue(journal.findUnfinished(API_PATH, Map.of("ids", List.of("B"))).isEmpty());
+        }
+    }
+
+    @Test
+    public void testTruncatedLastLineIsIgnored() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try (JobJournal journal = new JobJournal(directory)) {
+            journal.recordSubmitted(API_PATH, Map.of("ids", List.of("A")), "JOB_1").join();
+        }
+        Files.writeString(directory.resolve("jobs.journal"), "DOWNLO", StandardOpenOption.APPEND);
+
+        try (JobJournal journal = new JobJournal(directory)) {
+            Assertions.assertEquals(1, journal.getUnfinishedJobs().size());
+        }
+    }
+
+    @Test
+    public void testUnterminatedLastLineIsIgnoredEvenIfItParses() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+        try (JobJournal journal = new JobJournal(directory)) {
+            journal.recordSubmitted(API_PATH, Map.of("ids", List.of("A")), "JOB_1").join();
+        }
+        // A record cut inside the endpoint, ending with the first byte of a two-byte character
+        byte[] cut = ("SUBMITTED key JOB_2 /securities/" + "\u00d1").getBytes(StandardCharsets.UTF_8);
+        Files.write(directory.resolve("jobs.journal"), Arrays.copyOf(cut, cut.length - 1), StandardOpenOption.APPEND);
+
+        try (JobJournal journal = new JobJournal(directory)) {
+            List<JobJournal.Entry> unfinished = journal.getUnfinishedJobs();
+            Assertions.assertEquals(1, unfinished.size());
+            Assertions.assertEquals("JOB_1", unfinished.get(0).jobId());
+        }
+    }
+
+    @Test
+    public void testRecordsAfterClosingFail() throws IOException {
+        JobJournal journal = new JobJournal(Files.createTempDirectory("journal"));
+        journal.close();
+
+        CompletableFuture<JobJournal.Entry> submitted = journal.recordSubmitted(API_PATH, Map.of(), "JOB_1");
+
+        Assertions.assertTrue(submitted.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testLogIsCompactedToTheUnfinishedJobs() throws IOException {
+        Path directory = Files.createTempDirectory("journal");
+
+        try (JobJournal journal = new JobJournal(directory, 10)) {
+            List<CompletableFuture<Void>> written = new ArrayList<>();
+            for(int i = 0; i < 20; i++) {
+                JobJournal.Entry job = journal.recordSubmitted(API_PATH, Map.of("id", i), "JOB_" + i).join();
+                written.add(journal.recordDownloaded(job, directory.resolve("JOB_" + i + ".csv.gz")));
+            }
+            journal.recordSubmitted(API_PATH, Map.of("id", "last"), "LAST_JOB").join();
+            CompletableFuture.allOf(written.toArray(new CompletableFuture[0])).join();
+        }
+
+        List<String> lines = Files.readAllLines(directory.resolve("jobs.journal"));
+        Assertions.assertTrue(lines.size() < 10, lines.size() + " lines after compacting");
+        try (JobJournal journal = new JobJournal(directory)) {
+            Assertions.assertEquals("LAST_JOB", journal.getUnfinishedJobs().get(0).jobId());
+        }
+    }
+}
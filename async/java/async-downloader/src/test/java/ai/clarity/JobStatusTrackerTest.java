@@ -0,0 +1,126 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+public class JobStatusTrackerTest {
+
+    private JobStatusTracker tracker;
+
+    @BeforeEach
+    public void startTracker() {
+        tracker = new JobStatusTracker(5, 16);
+    }
+
+    @AfterEach
+    public void stopTracker() {
+        tracker.shutdown();
+    }
+
+    @Test
+    public void testJobIsTrackedUntilItStopsRunning() {
+        AtomicInteger checks = new AtomicInteger();
+        JobStatusSource source = jobId -> CompletableFuture.completedFuture(
+                checks.incrementAndGet() < 3 ? "RUNNING" : "SUCCESS");
+
+        String status = tracker.track("MY_JOB_ID", 1, source).join();
+
+        Assertions.assertEquals("SUCCESS", status);
+        Assertions.assertEquals(3, checks.get());
+        Assertions.assertEquals(0, tracker.getTrackedJobs());
+    }
+
+    @Test
+    public void testTrackingTheSameJobTwiceSharesTheStatusChecks() {
+        AtomicInteger checks = new AtomicInteger();
+        JobStatusSource source = jobId -> CompletableFuture.completedFuture(
+                checks.incrementAndGet() < 2 ? "RUNNING" : "SUCCESS");
+
+        CompletableFuture<String> first = tracker.track("MY_JOB_ID", 1, source);
+        CompletableFuture<String> second = tracker.track("MY_JOB_ID", 1, source);
+
+        Assertions.assertSame(first, second);
+        Assertions.assertEquals("SUCCESS", second.join());
+        Assertions.assertEquals(2, checks.get());
+    }
+
+    @Test
+    public void testDueJobsAreCheckedInBatches() {
+        Map<String, Integer> pendingChecks = new ConcurrentHashMap<>(Map.of("JOB_1", 2, "JOB_2", 2, "JOB_3", 2));
+        AtomicInteger batchCalls = new AtomicInteger();
+        JobStatusSource source = new JobStatusSource() {
+            @Override
+            public CompletableFuture<String> statusOf(String jobId) {
+                int pending = pendingChecks.merge(jobId, -1, Integer::sum);
+                return CompletableFuture.completedFuture(pending > 0 ? "RUNNING" : "SUCCESS");
+            }
+
+            @Override
+            public Map<String, CompletableFuture<String>> statusOf(Collection<String> jobIds) {
+                batchCalls.incrementAndGet();
+                return jobIds.stream().collect(Collectors.toMap(jobId -> jobId, this::statusOf));
+            }
+        };
+
+        List<CompletableFuture<String>> statuses = List.of(
+                tracker.track("JOB_1", 1, source),
+                tracker.track("JOB_2", 1, source),
+                tracker.track("JOB_3", 1, source));
+        CompletableFuture.allOf(statuses.toArray(CompletableFuture[]::new)).join();
+
+        // Six status checks, but jobs registered together are due together and are checked in the same call
+        Assertions.assertTrue(batchCalls.get() < 6);
+    }
+
+    @Test
+    public void testFailingStatusCheckOnlyFailsItsJob() {
+        JobStatusSource source = jobId -> jobId.equals("BROKEN_JOB")
+                ? CompletableFuture.failedFuture(new RuntimeException("Status not available"))
+                : CompletableFuture.completedFuture("SUCCESS");
+
+        CompletableFuture<String> broken = tracker.track("BROKEN_JOB", 1, source);
+        CompletableFuture<String> healthy = tracker.track("HEALTHY_JOB", 1, source);
+
+        Assertions.assertEquals("SUCCESS", healthy.join());
+        CompletionException exception = Assertions.assertThrows(CompletionException.class, broken::join);
+        Assertions.assertEquals("Status not available", exception.getCause().getMessage());
+    }
+
+    @Test
+    public void testSameJobIdFromDifferentSourcesIsTrackedSeparately() {
+        JobStatusSource firstSource = jobId -> CompletableFuture.completedFuture("SUCCESS");
+        JobStatusSource secondSource = jobId -> CompletableFuture.completedFuture("FAILURE");
+
+        CompletableFuture<String> first = tracker.track("MY_JOB_ID", 1, firstSource);
+        CompletableFuture<String> second = tracker.track("MY_JOB_ID", 1, secondSource);
+
+        Assertions.assertNotSame(first, second);
+        Assertions.assertEquals("SUCCESS", first.join());
+        Assertions.assertEquals("FAILURE", second.join());
+    }
+
+    @Test
+    public void testJobsDueTheLongestAreCheckedFirst() {
+        JobStatusTracker singleCheckTracker = new JobStatusTracker(5, 1);
+        try {
+            // The endless job is due again on every tick, but it can't keep the other one waiting
+            JobStatusSource source = jobId -> CompletableFuture.completedFuture(
+                    jobId.equals("ENDLESS_JOB") ? "RUNNING" : "SUCCESS");
+            singleCheckTracker.track("ENDLESS_JOB", 1, source);
+            CompletableFuture<String> other = singleCheckTracker.track("OTHER_JOB", 1, source);
+
+            Assertions.assertEquals("SUCCESS", other.orTimeout(2, TimeUnit.SECONDS).join());
+        } finally {
+            singleCheckTracker.shutdown();
+        }
+    }
+}
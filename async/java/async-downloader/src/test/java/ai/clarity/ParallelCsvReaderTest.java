@@ -0,0 +1,90 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+public class ParallelCsvReaderTest {
+
+    private static final String CONTENT = "isin,name,value\r\n" +
+                                          "US0000000001,\"Acme, \"\"The Company\"\"\",1e3\r\n" +
+                                          "\r\n" +
+                                          "US0000000002,\"Two\nlines\",\r\n" +
+                                          "US0000000003,Ñandú 😀," + "x".repeat(200) + "\r\n" +
+                                          "US0000000004,Last,7";
+
+    @Test
+    public void testRowsAreReadInOrder() throws IOException {
+        Path file = createGzipFile(CONTENT);
+
+        List<String> rows = new ArrayList<>();
+        try (ParallelCsvReader reader = ParallelCsvReader.open(file, 3, 16)) {
+            Assertions.assertEquals(List.of("isin", "name", "value"), reader.getHeader());
+            Assertions.assertEquals(2, reader.getColumnIndex("value"));
+            reader.forEach(row -> rows.add(String.join("|", row.toArray())));
+        }
+
+        Assertions.assertEquals(readSequentially(file), rows);
+        Assertions.assertEquals("US0000000001|Acme, \"The Company\"|1e3", rows.get(0));
+        Assertions.assertEquals("US0000000002|Two\nlines|", rows.get(1));
+    }
+
+    @Test
+    public void testManyChunksUnordered() throws IOException {
+        StringBuilder content = new StringBuilder("isin,value\n");
+        for(int i = 0; i < 10_000; i++) {
+            content.append("US").append(i).append(',').append(i).append(".5\n");
+        }
+        Path file = createGzipFile(content.toString());
+
+        Queue<String> rows = new ConcurrentLinkedQueue<>();
+        try (ParallelCsvReader reader = ParallelCsvReader.open(file, 4, 1024)) {
+            reader.forEachUnordered(row -> rows.add(row.getString(0) + "=" + row.getDouble(1)));
+        }
+
+        List<String> expected = readSequentially(file).stream().map(row -> row.replace("|", "=")).sorted()
+                .collect(Collectors.toList());
+        Assertions.assertEquals(expected, rows.stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testSinkErrorsStopTheRead() throws IOException {
+        Path file = createGzipFile(CONTENT);
+
+        try (ParallelCsvReader reader = ParallelCsvReader.open(file, 2, 16)) {
+            IllegalStateException error = Assertions.assertThrows(IllegalStateException.class,
+                    () -> reader.forEachUnordered(row -> {
+                        throw new IllegalStateException("Sink failed");
+                    }));
+            Assertions.assertEquals("Sink failed", error.getMessage());
+        }
+    }
+
+    private static List<String> readSequentially(Path file) {
+        try (CsvResultReader reader = CsvResultReader.open(file)) {
+            return reader.stream()
+                    .map(row -> String.join("|", row.toArray()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static Path createGzipFile(String content) throws IOException {
+        Path file = Files.createTempFile("results", ".csv.gz");
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(file)),
+                                                    StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+        return file;
+    }
+}
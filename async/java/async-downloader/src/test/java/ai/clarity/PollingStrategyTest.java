@@ -0,0 +1,78 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+public class PollingStrategyTest {
+
+    @Test
+    public void testFixedStrategy() {
+        PollingStrategy strategy = PollingStrategy.fixed(500);
+
+        Assertions.assertEquals(500, strategy.nextDelay("/securities/module/async", 1, 0));
+        Assertions.assertEquals(500, strategy.nextDelay("/securities/module/async", 10, 60_000));
+    }
+
+    @Test
+    public void testExponentialStrategyIsCapped() {
+        PollingStrategy strategy = PollingStrategy.exponential(1000, 2, 30_000);
+
+        Assertions.assertEquals(1000, strategy.nextDelay(null, 1, 0));
+        Assertions.assertEquals(2000, strategy.nextDelay(null, 2, 1000));
+        Assertions.assertEquals(16_000, strategy.nextDelay(null, 5, 15_000));
+        Assertions.assertEquals(30_000, strategy.nextDelay(null, 6, 31_000));
+        Assertions.assertEquals(30_000, strategy.nextDelay(null, 50, 600_000));
+    }
+
+    @Test
+    public void testJitteredStrategyStaysWithinBounds() {
+        PollingStrategy strategy = PollingStrategy.jittered(PollingStrategy.fixed(1000), 0.2);
+
+        for(int i = 0; i < 1000; i++) {
+            long delay = strategy.nextDelay(null, 1, 0);
+            Assertions.assertTrue(delay >= 800 && delay <= 1200, "Delay out of bounds: " + delay);
+        }
+    }
+
+    @Test
+    public void testJitteredStrategyWithoutJitter() {
+        PollingStrategy fixed = PollingStrategy.fixed(1000);
+
+        Assertions.assertSame(fixed, PollingStrategy.jittered(fixed, 0));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> PollingStrategy.jittered(fixed, -0.1));
+    }
+
+    @Test
+    public void testHistoryBasedStrategyUsesFallbackWithoutHistory() {
+        var strategy = new HistoryBasedPollingStrategy(PollingStrategy.fixed(5000), 100, 30_000);
+
+        Assertions.assertEquals(5000, strategy.nextDelay("/securities/module/async", 1, 0));
+        Assertions.assertEquals(-1, strategy.getExpectedDuration("/securities/module/async"));
+    }
+
+    @Test
+    public void testHistoryBasedStrategyPollsAroundExpectedDuration() {
+        var strategy = new HistoryBasedPollingStrategy(PollingStrategy.fixed(5000), 100, 30_000);
+        strategy.onJobFinished("/securities/module/async", 20_000);
+
+        Assertions.assertEquals(20_000, strategy.getExpectedDuration("/securities/module/async"));
+
+        // Waits until the job is close to its expected duration...
+        Assertions.assertEquals(16_000, strategy.nextDelay("/securities/module/async", 1, 0));
+        // ...then checks often...
+        Assertions.assertEquals(1000, strategy.nextDelay("/securities/module/async", 2, 16_000));
+        // ...and falls back when the job takes much longer than expected
+        Assertions.assertEquals(5000, strategy.nextDelay("/securities/module/async", 10, 40_000));
+        // Other endpoints are not affected
+        Assertions.assertEquals(5000, strategy.nextDelay("/organizations/module/async", 1, 0));
+    }
+
+    @Test
+    public void testJitteredStrategyForwardsFinishedJobs() {
+        var history = new HistoryBasedPollingStrategy(PollingStrategy.fixed(5000), 100, 30_000);
+        PollingStrategy strategy = PollingStrategy.jittered(history, 0.1);
+
+        strategy.onJobFinished("/securities/module/async", 10_000);
+
+        Assertions.assertEquals(10_000, history.getExpectedDuration("/securities/module/async"));
+    }
+}
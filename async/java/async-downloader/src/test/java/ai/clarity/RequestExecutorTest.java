@@ -0,0 +1,305 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class RequestExecutorTest {
+
+    private RequestExecutor requestExecutor;
+
+    @BeforeEach
+    public void createExecutor() {
+        requestExecutor = new RequestExecutor(2, 5, Duration.ofMillis(200));
+        for(Endpoint endpoint : Endpoint.values()) {
+            requestExecutor.withRetryPolicy(endpoint, RetryPolicy.of(4, Duration.ofMillis(10), Duration.ofMillis(50)));
+        }
+    }
+
+    @Test
+    public void testTransientErrorsAreRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = requestExecutor.execute(Endpoint.STATUS, () -> attempts.incrementAndGet() < 3
+                ? CompletableFuture.failedFuture(statusError(503, null))
+                : CompletableFuture.completedFuture("OK")).join();
+
+        Assertions.assertEquals("OK", result);
+        Assertions.assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testRetriesAreReportedWithTheirApiPath() {
+        List<String> executorRetries = new CopyOnWriteArrayList<>();
+        List<String> requestRetries = new CopyOnWriteArrayList<>();
+        requestExecutor.withMetrics(new JobMetrics() {
+            @Override
+            public void recordRetry(String apiPath, Endpoint endpoint) {
+                executorRetries.add(endpoint + " " + apiPath);
+            }
+        });
+        JobMetrics downloaderMetrics = new JobMetrics() {
+            @Override
+            public void recordRetry(String apiPath, Endpoint endpoint) {
+                requestRetries.add(endpoint + " " + apiPath);
+            }
+        };
+        AtomicInteger attempts = new AtomicInteger();
+
+        requestExecutor.execute(Endpoint.STATUS, "/securities/module/async", downloaderMetrics,
+                () -> attempts.incrementAndGet() < 2
+                        ? CompletableFuture.failedFuture(statusError(503, null))
+                        : CompletableFuture.completedFuture("OK")).join();
+
+        Assertions.assertEquals(List.of("STATUS /securities/module/async"), executorRetries);
+        Assertions.assertEquals(List.of("STATUS /securities/module/async"), requestRetries);
+    }
+
+    @Test
+    public void testClientErrorsAreNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<String> result = requestExecutor.execute(Endpoint.STATUS, () -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.failedFuture(statusError(404, null));
+        });
+
+        CompletionException error = Assertions.assertThrows(CompletionException.class, result::join);
+        Assertions.assertEquals(404, ((HttpStatusException) error.getCause()).getStatusCode());
+        Assertions.assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void testAttemptsAreLimited() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<String> result = requestExecutor.execute(Endpoint.FETCH, () -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.failedFuture(new IOException("Connection reset"));
+        });
+
+        Assertions.assertThrows(CompletionException.class, result::join);
+        Assertions.assertEquals(4, attempts.get());
+    }
+
+    @Test
+    public void testJobRequestsAreOnlyRetriedWhenNotProcessed() {
+        AtomicInteger attempts = new AtomicInteger();
+        CompletableFuture<String> result = requestExecutor.execute(Endpoint.SUBMIT, () -> {
+            attempts.incrementAndGet();
+            return CompletableFuture.failedFuture(statusError(500, null));
+        });
+        Assertions.assertThrows(CompletionException.class, result::join);
+        Assertions.assertEquals(1, attempts.get());
+
+        RetryPolicy retryPolicy = requestExecutor.getRetryPolicy(Endpoint.SUBMIT);
+        Assertions.assertTrue(retryPolicy.isRetryable(statusError(429, null), false));
+        Assertions.assertTrue(retryPolicy.isRetryable(new ConnectException(), false));
+        Assertions.assertFalse(retryPolicy.isRetryable(new IOException("Connection reset"), false));
+    }
+
+    @Test
+    public void testRetryAfterIsHonored() {
+        RetryPolicy retryPolicy = RetryPolicy.of(3, Duration.ofMillis(10), Duration.ofMillis(50));
+
+        Duration delay = retryPolicy.delayBefore(2, statusError(429, Duration.ofSeconds(7)));
+
+        Assertions.assertEquals(Duration.ofSeconds(7), delay);
+    }
+
+    @Test
+    public void testCircuitBreakerOpensAfterConsecutiveFailures() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, Duration.ofMillis(100));
+
+        circuitBreaker.onResult(statusError(503, null));
+        Assertions.assertFalse(circuitBreaker.isOpen());
+        circuitBreaker.onResult(statusError(503, null));
+        Assertions.assertTrue(circuitBreaker.isOpen());
+        Assertions.assertFalse(circuitBreaker.acquirePermission().isZero());
+
+        Thread.sleep(150);
+        // A single trial request is let through
+        CircuitBreaker.Permission trial = circuitBreaker.acquire();
+        Assertions.assertTrue(trial.retryIn().isZero());
+        Assertions.assertTrue(trial.trial());
+        Assertions.assertFalse(circuitBreaker.acquirePermission().isZero());
+
+        circuitBreaker.onResult(null, true);
+        Assertions.assertTrue(circuitBreaker.acquirePermission().isZero());
+    }
+
+    @Test
+    public void testOnlyTheTrialResultClosesTheCircuitBreaker() throws InterruptedException {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(1, Duration.ofMillis(100));
+        circuitBreaker.onResult(statusError(503, null));
+        Thread.sleep(150);
+        Assertions.assertTrue(circuitBreaker.acquire().trial());
+
+        // Sent before the breaker opened
+        circuitBreaker.onResult(null);
+        circuitBreaker.onResult(statusError(503, null));
+        Assertions.assertFalse(circuitBreaker.acquirePermission().isZero());
+        Assertions.assertFalse(circuitBreaker.isOpen());
+
+        circuitBreaker.onResult(statusError(503, null), true);
+        Assertions.assertTrue(circuitBreaker.isOpen());
+    }
+
+    @Test
+    public void testRequestsAreNotHeldBackByAnOpenCircuitBreakerForever() {
+        RequestExecutor executor = new RequestExecutor(2, 1, Duration.ofSeconds(10))
+                .withMaxBreakerWait(Duration.ofSeconds(1))
+                .withRetryPolicy(Endpoint.STATUS, RetryPolicy.of(3, Duration.ofMillis(10), Duration.ofMillis(10)));
+
+        CompletableFuture<String> result = executor.execute(Endpoint.STATUS,
+                () -> CompletableFuture.failedFuture(statusError(503, null)));
+
+        CompletionException error = Assertions.assertThrows(CompletionException.class, result::join);
+        Assertions.assertTrue(error.getCause() instanceof CircuitBreakerOpenException);
+    }
+
+    @Test
+    public void testRequestsHeldBackByAnOpenCircuitBreakerKeepTheirAttempts() {
+        RequestExecutor executor = new RequestExecutor(2, 1, Duration.ofMillis(100))
+                .withRetryPolicy(Endpoint.STATUS, RetryPolicy.of(2, Duration.ofMillis(10), Duration.ofMillis(10)));
+        AtomicInteger attempts = new AtomicInteger();
+
+        // The first failure opens the breaker, and the retry waits for it instead of failing
+        String result = executor.execute(Endpoint.STATUS, () -> attempts.incrementAndGet() < 2
+                ? CompletableFuture.failedFuture(statusError(503, null))
+                : CompletableFuture.completedFuture("OK")).join();
+
+        Assertions.assertEquals("OK", result);
+        Assertions.assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void testClientErrorsDoNotOpenTheCircuitBreaker() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker(2, Duration.ofMillis(100));
+
+        circuitBreaker.onResult(statusError(404, null));
+        circuitBreaker.onResult(statusError(422, null));
+
+        Assertions.assertFalse(circuitBreaker.isOpen());
+    }
+
+    @Test
+    public void testConcurrentRequestsAreLimited() {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        AtomicInteger started = new AtomicInteger();
+
+        requestExecutor.execute(Endpoint.FETCH, () -> { started.incrementAndGet(); return first; });
+        requestExecutor.execute(Endpoint.FETCH, () -> { started.incrementAndGet(); return second; });
+        CompletableFuture<String> third = requestExecutor.execute(Endpoint.FETCH, () -> {
+            started.incrementAndGet();
+            return CompletableFuture.completedFuture("THIRD");
+        });
+
+        Assertions.assertEquals(2, started.get());
+        Assertions.assertFalse(third.isDone());
+
+        first.complete("FIRST");
+        Assertions.assertEquals("THIRD", third.join());
+        Assertions.assertEquals(3, started.get());
+    }
+
+    @Test
+    public void testThrottledEndpointIsPausedInTheScheduler() {
+        RequestScheduler scheduler = new RequestScheduler();
+        requestExecutor.withScheduler(scheduler).withRetryPolicy(Endpoint.FETCH, RetryPolicy.none());
+
+        CompletableFuture<String> result = requestExecutor.execute(Endpoint.FETCH,
+                () -> CompletableFuture.failedFuture(statusError(429, Duration.ofSeconds(5))));
+        Assertions.assertThrows(CompletionException.class, result::join);
+
+        Assertions.assertFalse(scheduler.acquire(Endpoint.FETCH).isDone());
+        Assertions.assertTrue(scheduler.acquire(Endpoint.STATUS).isDone());
+    }
+
+    @Test
+    public void testRequestsWaitingForASlotKeepTheRate() {
+        requestExecutor.withScheduler(new RequestScheduler().withRate(Endpoint.STATUS, 20, 1));
+        List<Long> sentAt = new CopyOnWriteArrayList<>();
+
+        List<CompletableFuture<String>> results = IntStream.range(0, 6)
+                .mapToObj(i -> requestExecutor.execute(Endpoint.STATUS, () -> {
+                    sentAt.add(System.nanoTime());
+                    return CompletableFuture.supplyAsync(() -> "OK",
+                            CompletableFuture.delayedExecutor(200, TimeUnit.MILLISECONDS));
+                }))
+                .collect(Collectors.toList());
+        results.forEach(CompletableFuture::join);
+
+        List<Long> sorted = sentAt.stream().sorted().collect(Collectors.toList());
+        for(int i = 1; i < sorted.size(); i++) {
+            long gapMillis = (sorted.get(i) - sorted.get(i - 1)) / 1_000_000;
+            Assertions.assertTrue(gapMillis >= 40, "Requests sent " + gapMillis + " ms apart");
+        }
+    }
+
+    @Test
+    public void testSaturatedStatusChecksDoNotDelayFetches() {
+        requestExecutor.withScheduler(new RequestScheduler().withRate(Endpoint.STATUS, 5, 1));
+        List<CompletableFuture<String>> statusChecks = IntStream.range(0, 10)
+                .mapToObj(i -> requestExecutor.execute(Endpoint.STATUS, () -> CompletableFuture.completedFuture("RUNNING")))
+                .collect(Collectors.toList());
+
+        long start = System.nanoTime();
+        String fetched = requestExecutor.execute(Endpoint.FETCH, () -> CompletableFuture.completedFuture("RESULTS"))
+                .join();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        Assertions.assertEquals("RESULTS", fetched);
+        Assertions.assertTrue(elapsedMillis < 100, "The fetch waited " + elapsedMillis + " ms");
+        Assertions.assertFalse(statusChecks.get(9).isDone());
+    }
+
+    @Test
+    public void testFreeSlotsGoToFetchesBeforeStatusChecks() {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        CompletableFuture<String> second = new CompletableFuture<>();
+        requestExecutor.execute(Endpoint.FETCH, () -> first);
+        requestExecutor.execute(Endpoint.FETCH, () -> second);
+
+        List<Endpoint> sent = new CopyOnWriteArrayList<>();
+        CompletableFuture<String> status = requestExecutor.execute(Endpoint.STATUS, () -> {
+            sent.add(Endpoint.STATUS);
+            return CompletableFuture.completedFuture("RUNNING");
+        });
+        CompletableFuture<String> fetch = requestExecutor.execute(Endpoint.FETCH, () -> {
+            sent.add(Endpoint.FETCH);
+            return new CompletableFuture<>();
+        });
+        first.complete("FIRST");
+
+        Assertions.assertEquals(List.of(Endpoint.FETCH), sent);
+        Assertions.assertFalse(status.isDone());
+        Assertions.assertFalse(fetch.isDone());
+        second.complete("SECOND");
+        Assertions.assertEquals("RUNNING", status.join());
+    }
+
+    @Test
+    public void testUsesTheProcessWideSchedulerByDefault() {
+        Assertions.assertSame(HttpRequestHelper.getSharedScheduler(), requestExecutor.getScheduler());
+        Assertions.assertSame(HttpRequestHelper.getSharedScheduler(), RequestExecutor.shared().getScheduler());
+
+        RequestScheduler scheduler = new RequestScheduler();
+        Assertions.assertSame(scheduler, requestExecutor.withScheduler(scheduler).getScheduler());
+    }
+
+    private static HttpStatusException statusError(int statusCode, Duration retryAfter) {
+        return new HttpStatusException("Status Code: " + statusCode, statusCode, null, retryAfter);
+    }
+}
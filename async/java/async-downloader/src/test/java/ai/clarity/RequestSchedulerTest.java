@@ -0,0 +1,56 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class RequestSchedulerTest {
+
+    @Test
+    public void testRequestsAreSentAtTheRate() {
+        RequestScheduler scheduler = new RequestScheduler().withRate(Endpoint.STATUS, 100, 1);
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> permits = IntStream.range(0, 11)
+                .mapToObj(i -> scheduler.acquire(Endpoint.STATUS))
+                .collect(Collectors.toList());
+        CompletableFuture.allOf(permits.toArray(new CompletableFuture[0])).join();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        // The first one is sent at once, then one every 10 ms
+        Assertions.assertTrue(elapsedMillis >= 90, "Took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    public void testFetchesGoBeforeStatusChecks() {
+        RequestScheduler scheduler = new RequestScheduler().withGlobalRate(20, 1);
+        scheduler.acquire(Endpoint.STATUS).join();
+
+        List<Endpoint> sent = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> status = scheduler.acquire(Endpoint.STATUS)
+                .thenRun(() -> sent.add(Endpoint.STATUS));
+        CompletableFuture<Void> fetch = scheduler.acquire(Endpoint.FETCH)
+                .thenRun(() -> sent.add(Endpoint.FETCH));
+        CompletableFuture.allOf(status, fetch).join();
+
+        Assertions.assertEquals(List.of(Endpoint.FETCH, Endpoint.STATUS), sent);
+    }
+
+    @Test
+    public void testThrottledEndpointIsPaused() {
+        RequestScheduler scheduler = new RequestScheduler();
+        scheduler.onThrottled(Endpoint.SUBMIT, Duration.ofMillis(100));
+
+        long start = System.nanoTime();
+        CompletableFuture<Void> submit = scheduler.acquire(Endpoint.SUBMIT);
+        Assertions.assertTrue(scheduler.acquire(Endpoint.STATUS).isDone());
+        submit.join();
+
+        Assertions.assertTrue(System.nanoTime() - start >= 90_000_000);
+    }
+}
@@ -0,0 +1,208 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ResultCacheTest {
+
+    private static final String API_PATH = "/securities/esg-risk/scores-by-id/async";
+
+    private Path directory;
+    private MutableClock clock;
+    private ResultCache resultCache;
+
+    @BeforeEach
+    public void createCache() throws IOException {
+        directory = Files.createTempDirectory("result-cache");
+        clock = new MutableClock();
+        resultCache = new ResultCache(directory, Duration.ofHours(1), 100, clock);
+    }
+
+    @Test
+    public void testKeyDoesNotDependOnParamsOrder() {
+        Map<String, Object> params = new LinkedHashMap<>();
+        params.put("scoreIds", List.of("score1"));
+        params.put("securityTypes", List.of("EQUITY"));
+        Map<String, Object> reversedParams = new LinkedHashMap<>();
+        reversedParams.put("securityTypes", List.of("EQUITY"));
+        reversedParams.put("scoreIds", List.of("score1"));
+
+        Assertions.assertEquals(ResultCache.keyOf(API_PATH, params), ResultCache.keyOf(API_PATH, reversedParams));
+        Assertions.assertNotEquals(ResultCache.keyOf(API_PATH, params),
+                ResultCache.keyOf("/organizations/sfdr/metric-by-id/async", params));
+    }
+
+    @Test
+    public void testCachedResultsAreReturnedWithoutDownloading() throws IOException {
+        AtomicInteger downloads = new AtomicInteger();
+
+        Path first = resultCache.getOrDownload(API_PATH, params("score1"), () -> download(downloads, "results")).join();
+        Path second = resultCache.getOrDownload(API_PATH, params("score1"), () -> download(downloads, "results")).join();
+
+        Assertions.assertEquals(first, second);
+        Assertions.assertEquals("results", Files.readString(second));
+        Assertions.assertEquals(1, downloads.get());
+    }
+
+    @Test
+    public void testOnlyFilesInTheCacheDirectoryAreContained() throws IOException {
+        Path cached = resultCache.getOrDownload(API_PATH, params("score1"),
+                () -> download(new AtomicInteger(), "results")).join();
+
+        Assertions.assertTrue(resultCache.contains(cached));
+        Assertions.assertFalse(resultCache.contains(Files.createTempFile("results", ".csv.gz")));
+    }
+
+    @Test
+    public void testConcurrentRequestsShareTheDownload() {
+        CompletableFuture<Path> download = new CompletableFuture<>();
+        AtomicInteger downloads = new AtomicInteger();
+
+        CompletableFuture<Path> first = resultCache.getOrDownload(API_PATH, params("score1"), () -> {
+            downloads.incrementAndGet();
+            return download;
+        });
+        CompletableFuture<Path> second = resultCache.getOrDownload(API_PATH, params("score1"), () -> {
+            downloads.incrementAndGet();
+            return download;
+        });
+
+        Assertions.assertEquals(1, downloads.get());
+        download.complete(writeFile("results"));
+        Assertions.assertEquals(first.join(), second.join());
+    }
+
+    @Test
+    public void testExpiredResultsAreDownloadedAgain() {
+        AtomicInteger downloads = new AtomicInteger();
+        resultCache.getOrDownload(API_PATH, params("score1"), () -> download(downloads, "results")).join();
+
+        clock.advance(Duration.ofHours(2));
+
+        Assertions.assertEquals(Optional.empty(), resultCache.get(API_PATH, params("score1")));
+        resultCache.getOrDownload(API_PATH, params("score1"), () -> download(downloads, "results")).join();
+        Assertions.assertEquals(2, downloads.get());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedResultsAreEvicted() {
+        resultCache.put(API_PATH, params("score1"), writeFile("a".repeat(40)));
+        clock.advance(Duration.ofMinutes(1));
+        resultCache.put(API_PATH, params("score2"), writeFile("b".repeat(40)));
+        clock.advance(Duration.ofMinutes(1));
+        resultCache.get(API_PATH, params("score1"));
+
+        resultCache.put(API_PATH, params("score3"), writeFile("c".repeat(40)));
+
+        Assertions.assertTrue(resultCache.get(API_PATH, params("score1")).isPresent());
+        Assertions.assertTrue(resultCache.get(API_PATH, params("score2")).isEmpty());
+        Assertions.assertTrue(resultCache.get(API_PATH, params("score3")).isPresent());
+        Assertions.assertEquals(80, resultCache.getTotalBytes());
+    }
+
+    @Test
+    public void testIndexIsLoadedOnRestart() {
+        Path cached = resultCache.put(API_PATH, params("score1"), writeFile("results"));
+
+        ResultCache restarted = new ResultCache(directory, Duration.ofHours(1), 100, clock);
+
+        Assertions.assertEquals(Optional.of(cached), restarted.get(API_PATH, params("score1")));
+        Assertions.assertEquals(1, restarted.size());
+    }
+
+    @Test
+    public void testReplacedResultsKeepTheNewFile() throws IOException {
+        resultCache.put(API_PATH, params("score1"), writeFile("old"));
+        Path replaced = resultCache.put(API_PATH, params("score1"), writeFile("new results"));
+
+        Assertions.assertEquals("new results", Files.readString(replaced));
+        Assertions.assertEquals(Optional.of(replaced), resultCache.get(API_PATH, params("score1")));
+        Assertions.assertEquals(11, resultCache.getTotalBytes());
+    }
+
+    @Test
+    public void testHitsDoNotRewriteTheIndexEveryTime() throws IOException {
+        resultCache.put(API_PATH, params("score1"), writeFile("results"));
+        resultCache.get(API_PATH, params("score1"));
+        Path index = directory.resolve("index");
+        Files.delete(index);
+
+        resultCache.get(API_PATH, params("score1"));
+        Assertions.assertFalse(Files.exists(index));
+
+        clock.advance(Duration.ofMinutes(1));
+        resultCache.get(API_PATH, params("score1"));
+        Assertions.assertTrue(Files.exists(index));
+    }
+
+    @Test
+    public void testFailedDownloadsAreNotCached() {
+        CompletableFuture<Path> failed = resultCache.getOrDownload(API_PATH, params("score1"),
+                () -> CompletableFuture.failedFuture(new RuntimeException("The job failed")));
+
+        Assertions.assertThrows(RuntimeException.class, failed::join);
+        Assertions.assertEquals(0, resultCache.size());
+    }
+
+    @Test
+    public void testResultsStoredByTheDownloadItselfAreKept() throws IOException {
+        String key = ResultCache.keyOf(API_PATH, params("score1"));
+
+        Path stored = resultCache.getOrDownload(key, API_PATH,
+                () -> CompletableFuture.completedFuture(resultCache.put(key, writeFile("results")))).join();
+
+        Assertions.assertEquals(resultCache.get(API_PATH, params("score1")), Optional.of(stored));
+        Assertions.assertEquals("results", Files.readString(stored));
+        Assertions.assertEquals(1, resultCache.size());
+        Assertions.assertEquals(7, resultCache.getTotalBytes());
+    }
+
+    private static Map<String, Object> params(String scoreId) {
+        return Map.of("scoreIds", List.of(scoreId), "securityTypes", List.of("EQUITY"));
+    }
+
+    private static CompletableFuture<Path> download(AtomicInteger downloads, String content) {
+        downloads.incrementAndGet();
+        return CompletableFuture.completedFuture(writeFile(content));
+    }
+
+    private static Path writeFile(String content) {
+        try {
+            Path file = Files.createTempFile("job", ".csv.gz");
+            return Files.writeString(file, content);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() { return ZoneOffset.UTC; }
+
+        @Override
+        public Clock withZone(ZoneId zone) { return this; }
+
+        @Override
+        public Instant instant() { return now; }
+    }
+}
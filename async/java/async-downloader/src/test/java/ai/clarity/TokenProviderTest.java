@@ -0,0 +1,167 @@
+package ai.clarity;
+
+import org.junit.jupiter.api.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class TokenProviderTest {
+
+    private MutableClock clock;
+    private List<CompletableFuture<String>> tokenRequests;
+    private TokenProvider tokenProvider;
+
+    @BeforeEach
+    public void createTokenProvider() {
+        clock = new MutableClock();
+        tokenRequests = new ArrayList<>();
+        tokenProvider = new TokenProvider(() -> {
+            CompletableFuture<String> request = new CompletableFuture<>();
+            tokenRequests.add(request);
+            return request;
+        }, Duration.ofMinutes(2), clock);
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneTokenRequest() {
+        List<CompletableFuture<String>> tokens = new ArrayList<>();
+        for(int i = 0; i < 10; i++) {
+            tokens.add(tokenProvider.getToken());
+        }
+
+        Assertions.assertEquals(1, tokenRequests.size());
+        tokenRequests.get(0).complete("THE_TOKEN");
+
+        for(CompletableFuture<String> token : tokens) {
+            Assertions.assertEquals("THE_TOKEN", token.join());
+        }
+        Assertions.assertEquals("THE_TOKEN", tokenProvider.getToken().join());
+        Assertions.assertEquals(1, tokenRequests.size());
+    }
+
+    @Test
+    public void testExpiredTokenIsRenewed() {
+        tokenProvider.getToken();
+        tokenRequests.get(0).complete("OLD_TOKEN");
+
+        clock.advance(TokenProvider.DEFAULT_TOKEN_LIFETIME.plusSeconds(1));
+        CompletableFuture<String> token = tokenProvider.getToken();
+
+        Assertions.assertFalse(token.isDone());
+        Assertions.assertEquals(2, tokenRequests.size());
+        tokenRequests.get(1).complete("NEW_TOKEN");
+        Assertions.assertEquals("NEW_TOKEN", token.join());
+    }
+
+    @Test
+    public void testTokenIsRefreshedInBackgroundBeforeExpiring() {
+        tokenProvider.getToken();
+        tokenRequests.get(0).complete("OLD_TOKEN");
+
+        clock.advance(TokenProvider.DEFAULT_TOKEN_LIFETIME.minusMinutes(1));
+
+        // The current token is still returned while the new one is requested
+        Assertions.assertEquals("OLD_TOKEN", tokenProvider.getToken().join());
+        Assertions.assertEquals("OLD_TOKEN", tokenProvider.getToken().join());
+        Assertions.assertEquals(2, tokenRequests.size());
+
+        tokenRequests.get(1).complete("NEW_TOKEN");
+        Assertions.assertEquals("NEW_TOKEN", tokenProvider.getToken().join());
+    }
+
+    @Test
+    public void testShortLivedTokenIsRefreshedHalfwayThroughItsLife() {
+        TokenProvider provider = new TokenProvider(() -> {
+            CompletableFuture<String> request = new CompletableFuture<>();
+            tokenRequests.add(request);
+            return request;
+        }, TokenProvider.DEFAULT_TOKEN_LIFETIME.multipliedBy(2), clock);
+        provider.getToken();
+        tokenRequests.get(0).complete("OLD_TOKEN");
+
+        Assertions.assertEquals("OLD_TOKEN", provider.getToken().join());
+        Assertions.assertEquals(1, tokenRequests.size());
+
+        clock.advance(TokenProvider.DEFAULT_TOKEN_LIFETIME.dividedBy(2).plusSeconds(1));
+        Assertions.assertEquals("OLD_TOKEN", provider.getToken().join());
+        Assertions.assertEquals(2, tokenRequests.size());
+    }
+
+    @Test
+    public void testOnlyTheCurrentTokenIsInvalidated() {
+        tokenProvider.getToken();
+        tokenRequests.get(0).complete("OLD_TOKEN");
+
+        tokenProvider.invalidate("OLD_TOKEN");
+        CompletableFuture<String> token = tokenProvider.getToken();
+        tokenRequests.get(1).complete("NEW_TOKEN");
+        Assertions.assertEquals("NEW_TOKEN", token.join());
+
+        // A late rejection of the old token doesn't discard the new one
+        tokenProvider.invalidate("OLD_TOKEN");
+        Assertions.assertEquals("NEW_TOKEN", tokenProvider.getToken().join());
+        Assertions.assertEquals(2, tokenRequests.size());
+    }
+
+    @Test
+    public void testFailedRequestIsRetriedOnNextCall() {
+        CompletableFuture<String> failed = tokenProvider.getToken();
+        tokenRequests.get(0).completeExceptionally(new RuntimeException("Couldn't request the access token"));
+        Assertions.assertTrue(failed.isCompletedExceptionally());
+
+        CompletableFuture<String> token = tokenProvider.getToken();
+        tokenRequests.get(1).complete("THE_TOKEN");
+        Assertions.assertEquals("THE_TOKEN", token.join());
+    }
+
+    @Test
+    public void testTokenIsRefreshedBeforeExpiringWithoutBeingAccessed() throws InterruptedException {
+        List<CompletableFuture<String>> requests = new CopyOnWriteArrayList<>();
+        // JWTs that expire in two to three seconds, so they are refreshed halfway through that
+        TokenProvider provider = new TokenProvider(() -> {
+            String claims = "{\"exp\": " + (Instant.now().getEpochSecond() + 3) + "}";
+            CompletableFuture<String> request = CompletableFuture.completedFuture("HEADER."
+                    + Base64.getUrlEncoder().withoutPadding().encodeToString(claims.getBytes(StandardCharsets.UTF_8))
+                    + ".SIGNATURE_" + requests.size());
+            requests.add(request);
+            return request;
+        }, TokenProvider.DEFAULT_REFRESH_AHEAD, Clock.systemUTC());
+
+        Assertions.assertTrue(provider.getToken().join().endsWith("SIGNATURE_0"));
+
+        for(int i = 0; i < 30 && requests.size() < 2; i++) {
+            Thread.sleep(100);
+        }
+        Assertions.assertEquals(2, requests.size());
+
+        // Not used since the last refresh, so no other one is scheduled
+        Thread.sleep(2500);
+        Assertions.assertEquals(2, requests.size());
+    }
+
+    private static class MutableClock extends Clock {
+        private Instant now = Instant.parse("2024-01-01T00:00:00Z");
+
+        void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() { return ZoneOffset.UTC; }
+
+        @Override
+        public Clock withZone(ZoneId zone) { return this; }
+
+        @Override
+        public Instant instant() { return now; }
+    }
+}
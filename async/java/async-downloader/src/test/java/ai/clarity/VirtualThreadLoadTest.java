@@ -0,0 +1,160 @@
+package ai.clarity;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.*;
+import org.mockserver.configuration.ConfigurationProperties;
+import org.mockserver.integration.ClientAndServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.mockserver.integration.ClientAndServer.startClientAndServer;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+/**
+ * Runs thousands of job lifecycles at the same time, each on its own virtual thread, and checks with the
+ * {@code jdk.VirtualThreadPinned} event of JFR that no virtual thread blocked its carrier thread. Run it with
+ * {@code ./gradlew loadTest}.
+ *
+ * What blocks on the virtual threads is reading each result in {@code onResult} and the response handling of the
+ * HTTP client, which runs on its virtual-thread executor. The job threads only park while waiting for
+ * {@link AsyncDownloader#download}, and the status checks are scheduled by the platform thread of the
+ * {@link JobStatusTracker}, so pinning in the polling itself is not covered.
+ */
+@Tag("load")
+public class VirtualThreadLoadTest {
+
+    private static final int JOBS = Integer.getInteger("loadTest.jobs", 10_000);
+
+    private static ClientAndServer mockServer;
+    private static ExecutorService httpExecutor;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        ConfigurationProperties.logLevel("WARN");
+        mockServer = startClientAndServer(1080);
+
+        AtomicInteger jobIds = new AtomicInteger();
+        mockServer
+                .when(
+                        request()
+                                .withMethod("POST")
+                                .withPath("/clarity/v1/oauth/token")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody("{\"token\": \"THE_TOKEN\"}")
+                );
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("POST")
+                                .withPath("/clarity/v1/public/securities/module/async")
+                )
+                .respond(httpRequest ->
+                        response()
+                                .withStatusCode(200)
+                                .withBody("{\"uuid\": \"LOAD_JOB_" + jobIds.incrementAndGet() + "\"}")
+                );
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/clarity/v1/public/job/LOAD_JOB_[0-9]+/status")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(302)
+                                .withBody("{\"statusMessage\": \"SUCCESS\"}")
+                );
+
+        mockServer
+                .when(
+                        request()
+                                .withMethod("GET")
+                                .withPath("/clarity/v1/public/job/LOAD_JOB_[0-9]+/fetch")
+                )
+                .respond(
+                        response()
+                                .withStatusCode(200)
+                                .withBody(gzip("id,ESG\nSEC1,10.5\nSEC2,20.0\n"))
+                );
+
+        httpExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        HttpRequestHelper.configure(HttpClientConfig.defaults().withExecutor(httpExecutor));
+    }
+
+    @AfterEach
+    public void stopServer() {
+        HttpRequestHelper.configure(HttpClientConfig.defaults());
+        httpExecutor.close();
+        mockServer.stop();
+    }
+
+    @Test
+    public void testJobsOnVirtualThreadsDontPinCarrierThreads() throws IOException {
+        AsyncDownloader asyncDownloader = new AsyncDownloader("http://localhost:1080", "MY_KEY", "MY_SECRET",
+                PollingStrategy.fixed(100))
+                .withRequestExecutor(new RequestExecutor());
+        List<JobSpec> specs = IntStream.range(0, JOBS)
+                .mapToObj(i -> JobSpec.of("/securities/module/async", Map.of("scoreIds", List.of("ESG"))))
+                .collect(Collectors.toList());
+        AtomicInteger rows = new AtomicInteger();
+        Path recordingFile = Files.createTempFile("load-test", ".jfr");
+
+        List<JobResult> results;
+        try (Recording recording = new Recording()) {
+            recording.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace();
+            recording.start();
+
+            results = new JobBatch(asyncDownloader, JOBS).runOnVirtualThreads(specs, result -> {
+                // Blocking work on the virtual thread of the job
+                try (CsvResultReader reader = CsvResultReader.open(result.getPath().orElseThrow())) {
+                    reader.stream().forEach(row -> rows.incrementAndGet());
+                }
+            });
+
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        Assertions.assertTrue(results.stream().allMatch(JobResult::isSuccessful));
+        Assertions.assertEquals(2 * JOBS, rows.get());
+
+        List<RecordedEvent> pinned = RecordingFile.readAllEvents(recordingFile).stream()
+                .filter(event -> event.getEventType().getName().equals("jdk.VirtualThreadPinned"))
+                .collect(Collectors.toList());
+        Assertions.assertTrue(pinned.isEmpty(), () -> pinned.size() + " pinned virtual threads, the first one at "
+                + pinned.get(0).getStackTrace());
+
+        for(JobResult result : results) {
+            Files.deleteIfExists(result.getPath().orElseThrow());
+        }
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
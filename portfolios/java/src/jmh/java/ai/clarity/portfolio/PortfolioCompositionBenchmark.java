@@ -0,0 +1,54 @@
+package ai.clarity.portfolio;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalization and total weight of compositions from a hundred to a million holdings. One in ten holdings of
+ * the composition with shorts is short.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PortfolioCompositionBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    private int holdings;
+
+    private PortfolioComposition withShorts;
+    private PortfolioComposition withoutShorts;
+
+    @Setup
+    public void createCompositions() {
+        SecurityDictionary dictionary = new SecurityDictionary();
+        Random random = new Random(42);
+        withShorts = PortfolioComposition.create(holdings, dictionary);
+        withoutShorts = PortfolioComposition.create(holdings, dictionary);
+        for(int i = 0; i < holdings; i++) {
+            String securityId = "ISIN_" + i;
+            double weight = random.nextDouble() * 200 / holdings;
+            withShorts.add(securityId, i % 10 == 0 ? -weight : weight);
+            withoutShorts.add(securityId, weight);
+        }
+    }
+
+    @Benchmark
+    public double getTotalWeight() {
+        return withShorts.getTotalWeight();
+    }
+
+    @Benchmark
+    public PortfolioComposition removeShortsAndNormalizeWeights() {
+        return PortfolioComposition.removeShortsAndNormalizeWeights(withShorts);
+    }
+
+    /**
+     * Compositions without shorts are only checked, not copied
+     */
+    @Benchmark
+    public PortfolioComposition removeShortsAndNormalizeWeightsWithoutShorts() {
+        return PortfolioComposition.removeShortsAndNormalizeWeights(withoutShorts);
+    }
+}
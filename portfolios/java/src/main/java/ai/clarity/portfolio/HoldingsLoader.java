@@ -0,0 +1,381 @@
+package ai.clarity.portfolio;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Builds {@link PortfolioComposition}s from holdings files with a line per holding: portfolio id, security id and
+ * weight, separated by commas. The first line can be a header with the columns {@code portfolioId},
+ * {@code securityId} and {@code weight} in any order. Fields can't be quoted, and spaces around them are ignored.
+ *
+ * Files are read through a {@link FileChannel} into a reusable buffer and parsed byte by byte: lines are never
+ * turned into Strings, only the security id of each holding and the portfolio id when it changes. Big files can
+ * be split into chunks parsed in parallel, cut at line boundaries.
+ *
+ * Unless a {@link SecurityDictionary} is given, the portfolios of each file get a new dictionary of their own, so
+ * the ids of a file are released with its portfolios.
+ */
+public class HoldingsLoader {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final SecurityDictionary dictionary;
+    private final int bufferSize;
+
+    /**
+     * @param dictionary   Dictionary shared by the portfolios of every file loaded, e.g. to join them with the same
+     *                     index in {@link PortfolioAnalytics}. Null to use a new one for each file
+     */
+    public HoldingsLoader(SecurityDictionary dictionary, int bufferSize) {
+        this.dictionary = dictionary;
+        this.bufferSize = bufferSize;
+    }
+
+    public HoldingsLoader() {
+        this(null, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Read the file passing each portfolio to {@code consumer} as soon as all its holdings are read, so only one
+     * portfolio is in memory at a time. The holdings of each portfolio must be in consecutive lines, as in files
+     * sorted by portfolio; use {@link #load(Path)} otherwise.
+     */
+    public void forEachPortfolio(Path file, BiConsumer<String, PortfolioComposition> consumer) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Columns columns = readColumns(channel);
+            PortfolioCollector collector = new PortfolioCollector(dictionaryForFile()) {
+                @Override
+                void onPortfolioFinished(String portfolioId, PortfolioComposition composition) {
+                    consumer.accept(portfolioId, composition);
+                }
+            };
+            parse(channel, columns.dataStart(), channel.size(), columns, collector);
+            collector.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read the holdings file " + file, e);
+        }
+    }
+
+    /**
+     * Read all the portfolios of the file, whatever the order of its lines
+     *
+     * @return   The compositions by portfolio id, in order of appearance
+     */
+    public Map<String, PortfolioComposition> load(Path file) {
+        return loadParallel(file, 1);
+    }
+
+    /**
+     * Split the file in {@code chunks} parts parsed in parallel and merge their portfolios, keeping the holdings in
+     * the order of the file
+     */
+    public Map<String, PortfolioComposition> loadParallel(Path file, int chunks) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            Columns columns = readColumns(channel);
+            long dataStart = columns.dataStart();
+            long length = channel.size() - dataStart;
+            long chunkSize = Math.max(1, (length + chunks - 1) / chunks);
+            SecurityDictionary fileDictionary = dictionaryForFile();
+
+            List<Map<String, PortfolioComposition>> parts = IntStream.range(0, chunks)
+                    .parallel()
+                    .mapToObj(chunk -> {
+                        long start = dataStart + Math.min(length, chunk * chunkSize);
+                        long end = dataStart + Math.min(length, (chunk + 1) * chunkSize);
+                        MapCollector collector = new MapCollector(fileDictionary);
+                        try {
+                            parse(channel, start, end, columns, collector);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException("Couldn't read the holdings file " + file, e);
+                        }
+                        collector.finish();
+                        return collector.portfolios;
+                    })
+                    .collect(Collectors.toList());
+
+            Map<String, PortfolioComposition> portfolios = new LinkedHashMap<>();
+            for(Map<String, PortfolioComposition> part : parts) {
+                part.forEach((portfolioId, composition) -> portfolios.merge(portfolioId, composition, PortfolioComposition::addAll));
+            }
+            return portfolios;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Couldn't read the holdings file " + file, e);
+        }
+    }
+
+    private SecurityDictionary dictionaryForFile() {
+        return dictionary != null ? dictionary : new SecurityDictionary();
+    }
+
+    private record Columns(int portfolio, int security, int weight, long dataStart) {}
+
+    /**
+     * Positions of the columns, from the header if the file has one
+     */
+    private Columns readColumns(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(channel.size(), 64 * 1024));
+        channel.read(buffer, 0);
+        byte[] bytes = Arrays.copyOf(buffer.array(), buffer.position());
+        int lineEnd = 0;
+        while(lineEnd < bytes.length && bytes[lineEnd] != '\n') {
+            lineEnd++;
+        }
+        String[] fields = new String(bytes, 0, lineEnd, StandardCharsets.UTF_8).trim().split(",");
+        if(fields.length < 3) {
+            return new Columns(0, 1, 2, 0);
+        }
+        try {
+            Double.parseDouble(fields[2].trim());
+            return new Columns(0, 1, 2, 0);
+        } catch (NumberFormatException e) {
+            List<String> header = Arrays.stream(fields).map(String::trim).collect(Collectors.toList());
+            int portfolio = header.indexOf("portfolioId");
+            int security = header.indexOf("securityId");
+            int weight = header.indexOf("weight");
+            if(portfolio < 0 || security < 0 || weight < 0) {
+                throw new RuntimeException("The holdings file needs the columns portfolioId, securityId and weight, found " + header);
+            }
+            return new Columns(portfolio, security, weight, Math.min(lineEnd + 1, channel.size()));
+        }
+    }
+
+    /**
+     * Parse the lines starting in [{@code start}, {@code end}). The line that crosses {@code end} is read until its
+     * end, and a partial line at {@code start} is skipped because it belongs to the previous chunk.
+     */
+    private void parse(FileChannel channel, long start, long end, Columns columns, PortfolioCollector collector)
+            throws IOException {
+        if(start >= end) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        long position = start;
+        boolean skipFirstLine = false;
+        if(start > 0) {
+            ByteBuffer previous = ByteBuffer.allocate(1);
+            channel.read(previous, start - 1);
+            skipFirstLine = previous.get(0) != '\n';
+        }
+
+        int maxField = Math.max(columns.portfolio(), Math.max(columns.security(), columns.weight()));
+        int[] fieldStarts = new int[maxField + 1];
+        int[] fieldEnds = new int[maxField + 1];
+        long lineStartPosition = position;
+        boolean endOfFile = false;
+
+        while(lineStartPosition < end || skipFirstLine) {
+            int read = channel.read(buffer, position);
+            if(read < 0) {
+                endOfFile = true;
+            }
+            else {
+                position += read;
+            }
+            byte[] bytes = buffer.array();
+            int limit = buffer.position();
+            int lineStart = 0;
+
+            for(int i = 0; i < limit || (endOfFile && lineStart < limit); i++) {
+                boolean lineEnds = i == limit || bytes[i] == '\n';
+                if(!lineEnds) {
+                    continue;
+                }
+                if(skipFirstLine) {
+                    skipFirstLine = false;
+                }
+                else if(lineStartPosition < end) {
+                    try {
+                        parseLine(bytes, lineStart, i, fieldStarts, fieldEnds, columns, collector);
+                    } catch (IllegalArgumentException e) {
+                        String line = new String(bytes, lineStart, i - lineStart, StandardCharsets.UTF_8).trim();
+                        throw new RuntimeException("Invalid line " + lineNumber(channel, lineStartPosition)
+                                + " of the holdings file: " + line + ". " + e.getMessage(), e);
+                    }
+                }
+                lineStartPosition += i + 1 - lineStart;
+                lineStart = i + 1;
+                if(lineStartPosition >= end && !skipFirstLine) {
+                    return;
+                }
+            }
+            if(endOfFile) {
+                return;
+            }
+
+            // Keep the incomplete line at the start of the buffer, growing it if the line doesn't fit
+            buffer.position(lineStart).limit(limit);
+            buffer.compact();
+            if(!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+        }
+    }
+
+    private void parseLine(byte[] bytes, int start, int end, int[] fieldStarts, int[] fieldEnds, Columns columns,
+                           PortfolioCollector collector) {
+        if(end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        if(end == start) {
+            return;
+        }
+        int field = 0;
+        int fieldStart = start;
+        for(int i = start; i <= end && field < fieldStarts.length; i++) {
+            if(i == end || bytes[i] == ',') {
+                int fieldEnd = i;
+                while(fieldStart < fieldEnd && bytes[fieldStart] <= ' ') {
+                    fieldStart++;
+                }
+                while(fieldEnd > fieldStart && bytes[fieldEnd - 1] <= ' ') {
+                    fieldEnd--;
+                }
+                fieldStarts[field] = fieldStart;
+                fieldEnds[field] = fieldEnd;
+                field++;
+                fieldStart = i + 1;
+            }
+        }
+        if(field < fieldStarts.length) {
+            throw new IllegalArgumentException("Expected at least " + fieldStarts.length + " fields, found " + field);
+        }
+        if(fieldStarts[columns.weight()] == fieldEnds[columns.weight()]) {
+            throw new IllegalArgumentException("The weight is empty");
+        }
+        collector.onHolding(bytes, fieldStarts[columns.portfolio()], fieldEnds[columns.portfolio()],
+                new String(bytes, fieldStarts[columns.security()], fieldEnds[columns.security()] - fieldStarts[columns.security()], StandardCharsets.UTF_8),
+                parseWeight(bytes, fieldStarts[columns.weight()], fieldEnds[columns.weight()]));
+    }
+
+    /**
+     * Number of the line starting at {@code position}, counting the lines before it. Only used to report errors.
+     */
+    private static long lineNumber(FileChannel channel, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long lines = 1;
+        long read = 0;
+        while(read < position) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), position - read));
+            int count = channel.read(buffer, read);
+            if(count < 0) {
+                break;
+            }
+            for(int i = 0; i < count; i++) {
+                if(buffer.get(i) == '\n') {
+                    lines++;
+                }
+            }
+            read += count;
+        }
+        return lines;
+    }
+
+    /**
+     * Plain decimals are parsed straight from the bytes, other formats with {@link Double#parseDouble(String)}
+     */
+    static double parseWeight(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = i < end && bytes[i] == '-';
+        if(negative || (i < end && bytes[i] == '+')) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean afterPoint = false;
+        for(; i < end; i++) {
+            byte b = bytes[i];
+            if(b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if(afterPoint) {
+                    decimals++;
+                }
+            }
+            else if(b == '.' && !afterPoint) {
+                afterPoint = true;
+            }
+            else {
+                return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.US_ASCII).trim());
+            }
+        }
+        if(digits == 0 || digits > MAX_FAST_DIGITS) {
+            return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.US_ASCII).trim());
+        }
+        double value = mantissa / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Groups consecutive holdings of the same portfolio. The portfolio id is only turned into a String when it
+     * changes.
+     */
+    private abstract class PortfolioCollector {
+        private final SecurityDictionary dictionary;
+        private byte[] portfolioId = new byte[0];
+        private int portfolioIdLength = -1;
+        private String currentId;
+        private PortfolioComposition current;
+
+        PortfolioCollector(SecurityDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        void onHolding(byte[] bytes, int portfolioStart, int portfolioEnd, String securityId, double weight) {
+            int length = portfolioEnd - portfolioStart;
+            if(length != portfolioIdLength
+                    || !Arrays.equals(portfolioId, 0, length, bytes, portfolioStart, portfolioEnd)) {
+                finish();
+                if(portfolioId.length < length) {
+                    portfolioId = new byte[length * 2];
+                }
+                System.arraycopy(bytes, portfolioStart, portfolioId, 0, length);
+                portfolioIdLength = length;
+                currentId = new String(bytes, portfolioStart, length, StandardCharsets.UTF_8);
+                current = PortfolioComposition.create(16, dictionary);
+            }
+            current.add(securityId, weight);
+        }
+
+        void finish() {
+            if(current != null) {
+                onPortfolioFinished(currentId, current);
+                current = null;
+                portfolioIdLength = -1;
+            }
+        }
+
+        abstract void onPortfolioFinished(String portfolioId, PortfolioComposition composition);
+    }
+
+    private class MapCollector extends PortfolioCollector {
+        final Map<String, PortfolioComposition> portfolios = new LinkedHashMap<>();
+
+        MapCollector(SecurityDictionary dictionary) {
+            super(dictionary);
+        }
+
+        @Override
+        void onPortfolioFinished(String portfolioId, PortfolioComposition composition) {
+            portfolios.merge(portfolioId, composition, PortfolioComposition::addAll);
+        }
+    }
+}
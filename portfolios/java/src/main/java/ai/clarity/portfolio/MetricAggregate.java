@@ -0,0 +1,11 @@
+package ai.clarity.portfolio;
+
+/**
+ * Aggregate of one metric over the holdings of a portfolio
+ *
+ * @param coverage          Fraction of the portfolio weight (0 to 1) held in securities with a value for the metric
+ * @param weightedAverage   Average of the metric weighted by the holdings with a value, NaN if there are none
+ * @param contribution      Sum of the value of each holding times its fraction of the whole portfolio
+ */
+public record MetricAggregate(double coverage, double weightedAverage, double contribution) {
+}
@@ -0,0 +1,126 @@
+package ai.clarity.portfolio;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.stream.IntStream;
+
+/**
+ * Computes the coverage, weighted average and sum of contributions of every metric of a {@link SecurityDataset}
+ * for many portfolios, like the weighted average carbon footprint or GHG intensity of each client portfolio.
+ *
+ * The dataset is joined with the holdings through their security codes: the row of each security is indexed once
+ * by its code in the {@link SecurityDictionary} of the compositions, and that index is shared by all the
+ * portfolios, so each holding is joined with an array lookup. Short positions are removed and the remaining
+ * weights normalized as in {@link PortfolioComposition#removeShortsAndNormalizeWeights(PortfolioComposition)}.
+ *
+ * The index only covers the securities already in the dictionary, so the dataset never adds its own to it. It's
+ * rebuilt when a composition holds securities added to the dictionary afterwards, and only kept while the
+ * dictionary is in use, so the dictionaries of files loaded one after another are released with their portfolios.
+ */
+public class PortfolioAnalytics {
+
+    private final SecurityDataset dataset;
+    private final Map<SecurityDictionary, int[]> joinIndexes = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public PortfolioAnalytics(SecurityDataset dataset) {
+        this.dataset = dataset;
+    }
+
+    /**
+     * Compute the metrics of all the portfolios in parallel, using all the cores of the common pool
+     *
+     * @return   The metrics of each portfolio, in the same order
+     */
+    public Map<String, PortfolioMetrics> computeAll(Map<String, PortfolioComposition> portfolios) {
+        List<String> portfolioIds = new ArrayList<>(portfolios.keySet());
+        PortfolioMetrics[] results = new PortfolioMetrics[portfolioIds.size()];
+        IntStream.range(0, results.length)
+                .parallel()
+                .forEach(i -> results[i] = compute(portfolios.get(portfolioIds.get(i))));
+
+        Map<String, PortfolioMetrics> metricsByPortfolio = new LinkedHashMap<>();
+        for(int i = 0; i < results.length; i++) {
+            metricsByPortfolio.put(portfolioIds.get(i), results[i]);
+        }
+        return metricsByPortfolio;
+    }
+
+    public PortfolioMetrics compute(PortfolioComposition composition) {
+        PortfolioComposition longOnly = PortfolioComposition.removeShortsAndNormalizeWeights(composition);
+        int maxCode = -1;
+        for(int i = 0; i < longOnly.size(); i++) {
+            maxCode = Math.max(maxCode, longOnly.getSecurityCode(i));
+        }
+        int[] rowByCode = joinIndex(longOnly.getDictionary(), maxCode + 1);
+        int metricCount = dataset.getMetricNames().size();
+        double[] values = dataset.getValues();
+
+        double[] coveredWeights = new double[metricCount];
+        double[] weightedSums = new double[metricCount];
+        for(int i = 0; i < longOnly.size(); i++) {
+            int code = longOnly.getSecurityCode(i);
+            int row = rowByCode[code];
+            if(row < 0) {
+                continue;
+            }
+            double weight = longOnly.getWeight(i);
+            int rowStart = row * metricCount;
+            for(int metric = 0; metric < metricCount; metric++) {
+                double value = values[rowStart + metric];
+                if(!Double.isNaN(value)) {
+                    coveredWeights[metric] += weight;
+                    weightedSums[metric] += weight * value;
+                }
+            }
+        }
+
+        double totalWeight = longOnly.getTotalWeight();
+        MetricAggregate[] aggregates = new MetricAggregate[metricCount];
+        for(int metric = 0; metric < metricCount; metric++) {
+            if(totalWeight <= 0) {
+                aggregates[metric] = new MetricAggregate(0, Double.NaN, 0);
+                continue;
+            }
+            aggregates[metric] = new MetricAggregate(
+                    coveredWeights[metric] / totalWeight,
+                    coveredWeights[metric] > 0 ? weightedSums[metric] / coveredWeights[metric] : Double.NaN,
+                    weightedSums[metric] / totalWeight);
+        }
+        return new PortfolioMetrics(dataset.getMetricNames(), aggregates);
+    }
+
+    /**
+     * Row of the dataset for each security code of the dictionary, -1 for securities without data
+     *
+     * @param minLength   Codes the index must cover, rebuilding it if the dictionary grew since it was built
+     */
+    private int[] joinIndex(SecurityDictionary dictionary, int minLength) {
+        int[] rowByCode = joinIndexes.get(dictionary);
+        if(rowByCode != null && rowByCode.length >= minLength) {
+            return rowByCode;
+        }
+        // Built without holding the lock of the map, which would block every other portfolio for the whole scan of
+        // the dataset. Threads that race build the same index, and the one covering more codes is kept.
+        int[] built = buildJoinIndex(dictionary);
+        return joinIndexes.merge(dictionary, built,
+                (current, other) -> current.length >= other.length ? current : other);
+    }
+
+    private int[] buildJoinIndex(SecurityDictionary dictionary) {
+        int[] rowByCode = new int[dictionary.size()];
+        Arrays.fill(rowByCode, -1);
+        for(int row = 0; row < dataset.size(); row++) {
+            int code = dictionary.find(dataset.getSecurityId(row));
+            // Securities added while the index is built are left for the next rebuild
+            if(code >= 0 && code < rowByCode.length) {
+                rowByCode[code] = row;
+            }
+        }
+        return rowByCode;
+    }
+}
@@ -1,14 +1,29 @@
 package ai.clarity.portfolio;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
 
+/**
+ * Holdings of a portfolio, stored as parallel arrays of security codes (see {@link SecurityDictionary}) and
+ * weights, so large portfolios take two primitive arrays instead of an object per holding.
+ */
 public class PortfolioComposition {
 
-    private final List<PortfolioComponent> components;
+    private static final int DEFAULT_CAPACITY = 16;
 
-    private class PortfolioComponent{
+    private final SecurityDictionary dictionary;
+    private int[] securityCodes;
+    private double[] weights;
+    private int size;
+
+    private static class PortfolioComponent{
         final String securityId;
         final double weight;
 
@@ -18,24 +33,134 @@ public class PortfolioComposition {
         }
     }
 
-    private PortfolioComposition(List<PortfolioComponent> components) {
-        this.components = components;
+    private PortfolioComposition(SecurityDictionary dictionary, int[] securityCodes, double[] weights, int size) {
+        this.dictionary = dictionary;
+        this.securityCodes = securityCodes;
+        this.weights = weights;
+        this.size = size;
     }
 
     public static PortfolioComposition create() {
-        return new PortfolioComposition(new ArrayList<>());
+        return create(DEFAULT_CAPACITY, SecurityDictionary.shared());
+    }
+
+    /**
+     * @param expectedSize   Number of holdings expected, to size the arrays only once
+     */
+    public static PortfolioComposition create(int expectedSize) {
+        return create(expectedSize, SecurityDictionary.shared());
+    }
+
+    public static PortfolioComposition create(int expectedSize, SecurityDictionary dictionary) {
+        int capacity = Math.max(expectedSize, 1);
+        return new PortfolioComposition(dictionary, new int[capacity], new double[capacity], 0);
     }
 
     public PortfolioComposition add(String securityId, double weight) {
-        components.add(new PortfolioComponent(securityId, weight));
+        return addCode(dictionary.codeOf(securityId), weight);
+    }
+
+    /**
+     * Add a holding by the code of its security in the dictionary of this composition
+     */
+    public PortfolioComposition addCode(int securityCode, double weight) {
+        if(size == weights.length) {
+            securityCodes = Arrays.copyOf(securityCodes, size * 2);
+            weights = Arrays.copyOf(weights, size * 2);
+        }
+        securityCodes[size] = securityCode;
+        weights[size] = weight;
+        size++;
+        return this;
+    }
+
+    /**
+     * Append all the holdings of another composition
+     */
+    public PortfolioComposition addAll(PortfolioComposition other) {
+        if(other.dictionary != dictionary) {
+            for(int i = 0; i < other.size; i++) {
+                add(other.getSecurityId(i), other.weights[i]);
+            }
+            return this;
+        }
+        int newSize = size + other.size;
+        if(newSize > weights.length) {
+            int capacity = Math.max(newSize, size * 2);
+            securityCodes = Arrays.copyOf(securityCodes, capacity);
+            weights = Arrays.copyOf(weights, capacity);
+        }
+        System.arraycopy(other.securityCodes, 0, securityCodes, size, other.size);
+        System.arraycopy(other.weights, 0, weights, size, other.size);
+        size = newSize;
         return this;
     }
 
     public double getTotalWeight() {
-        return getTotalWeightFor(components);
+        return getTotalWeightFor(weights, size);
+    }
+
+    /**
+     * Number of holdings
+     */
+    public int size() { return size; }
+
+    public String getSecurityId(int index) {
+        checkIndex(index);
+        return dictionary.idOf(securityCodes[index]);
+    }
+
+    public int getSecurityCode(int index) {
+        checkIndex(index);
+        return securityCodes[index];
+    }
+
+    public double getWeight(int index) {
+        checkIndex(index);
+        return weights[index];
+    }
+
+    public SecurityDictionary getDictionary() { return dictionary; }
+
+    /**
+     * View of the holdings, creating each component only when it's read
+     */
+    public List<PortfolioComponent> getComponents() {
+        return new AbstractList<>() {
+            @Override
+            public PortfolioComponent get(int index) {
+                return new PortfolioComponent(getSecurityId(index), getWeight(index));
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
     }
 
-    public List<PortfolioComponent> getComponents() { return components; }
+    /**
+     * Ids of all the securities held by any of the compositions, each one only once, e.g. to request only their
+     * data to the API. Duplicates are found by security code, without hashing the ids, unless the compositions
+     * use different dictionaries.
+     *
+     * @return   The ids in order of first appearance
+     */
+    public static List<String> distinctSecurityIds(Collection<PortfolioComposition> compositions) {
+        Map<SecurityDictionary, BitSet> seenByDictionary = new IdentityHashMap<>();
+        List<String> securityIds = new ArrayList<>();
+        for(PortfolioComposition composition : compositions) {
+            BitSet seen = seenByDictionary.computeIfAbsent(composition.dictionary, dictionary -> new BitSet(dictionary.size()));
+            for(int i = 0; i < composition.size; i++) {
+                int code = composition.securityCodes[i];
+                if(!seen.get(code)) {
+                    seen.set(code);
+                    securityIds.add(composition.dictionary.idOf(code));
+                }
+            }
+        }
+        return seenByDictionary.size() > 1 ? new ArrayList<>(new LinkedHashSet<>(securityIds)) : securityIds;
+    }
 
     /**
      * Check if there are negative weights in this Portfolio Composition and in that case remove them and
@@ -44,26 +169,81 @@ public class PortfolioComposition {
      * @return   The new normalized PortfolioComposition
      */
     public static PortfolioComposition removeShortsAndNormalizeWeights(PortfolioComposition composition) {
-        List<PortfolioComponent> portfolioComponentsWithoutShorts = composition.getComponents().stream()
-                .filter(c -> c.weight > 0)
-                .collect(Collectors.toList());
+        if(!composition.hasShorts()) {
+            return composition;
+        }
+        PortfolioComposition newPortfolioComposition = new PortfolioComposition(composition.dictionary,
+                Arrays.copyOf(composition.securityCodes, composition.size),
+                Arrays.copyOf(composition.weights, composition.size), composition.size);
+        return newPortfolioComposition.removeShortsAndNormalizeWeightsInPlace();
+    }
 
-        if(portfolioComponentsWithoutShorts.size() < composition.getComponents().size()) {
-            PortfolioComposition newPortfolioComposition = PortfolioComposition.create();
-            double totalWeightWithoutShorts = getTotalWeightFor(portfolioComponentsWithoutShorts);
+    /**
+     * Same as {@link #removeShortsAndNormalizeWeights(PortfolioComposition)}, but changing this composition
+     * instead of creating a new one. Holdings are compacted and rescaled in the same arrays.
+     *
+     * @return   This composition
+     */
+    public PortfolioComposition removeShortsAndNormalizeWeightsInPlace() {
+        // Compact the long positions and add up their weights in the same pass, in the same order as
+        // getTotalWeightFor so the total is exactly the same
+        int kept = 0;
+        double totalWeightWithoutShorts = 0;
+        double compensation = 0;
+        for(int i = 0; i < size; i++) {
+            double weight = weights[i];
+            if(weight > 0) {
+                securityCodes[kept] = securityCodes[i];
+                weights[kept] = weight;
+                kept++;
+                double value = weight - compensation;
+                double newSum = totalWeightWithoutShorts + value;
+                compensation = (newSum - totalWeightWithoutShorts) - value;
+                totalWeightWithoutShorts = newSum;
+            }
+        }
+        if(kept == size) {
+            return this;
+        }
+        size = kept;
+
+        for(int i = 0; i < size; i++) {
+            weights[i] = weights[i] * 100 / totalWeightWithoutShorts;
+        }
+        return this;
+    }
 
-            for(PortfolioComponent component : portfolioComponentsWithoutShorts) {
-                double newWeight = component.weight * 100 / totalWeightWithoutShorts;
-                newPortfolioComposition.add(component.securityId, newWeight);
+    /**
+     * Whether any holding would be removed by the normalization
+     */
+    public boolean hasShorts() {
+        for(int i = 0; i < size; i++) {
+            if(!(weights[i] > 0)) {
+                return true;
             }
-            return newPortfolioComposition;
         }
+        return false;
+    }
 
-        return composition;
+    /**
+     * Compensated (Kahan) summation, so adding many small weights doesn't accumulate rounding errors
+     */
+    static double getTotalWeightFor(double[] weights, int size) {
+        double sum = 0;
+        double compensation = 0;
+        for(int i = 0; i < size; i++) {
+            double value = weights[i] - compensation;
+            double newSum = sum + value;
+            compensation = (newSum - sum) - value;
+            sum = newSum;
+        }
+        return sum;
     }
 
-    private static double getTotalWeightFor(List<PortfolioComponent> componentList) {
-        return componentList.stream().mapToDouble(c -> c.weight).sum();
+    private void checkIndex(int index) {
+        if(index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Holding " + index + " out of bounds for composition with " + size + " holdings");
+        }
     }
 
 }
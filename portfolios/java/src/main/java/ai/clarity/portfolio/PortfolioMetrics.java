@@ -0,0 +1,40 @@
+package ai.clarity.portfolio;
+
+import java.util.List;
+
+/**
+ * Aggregates of every metric of a {@link SecurityDataset} for one portfolio
+ */
+public class PortfolioMetrics {
+
+    private final List<String> metricNames;
+    private final MetricAggregate[] aggregates;
+
+    PortfolioMetrics(List<String> metricNames, MetricAggregate[] aggregates) {
+        this.metricNames = metricNames;
+        this.aggregates = aggregates;
+    }
+
+    public List<String> getMetricNames() { return metricNames; }
+
+    public MetricAggregate get(int metric) {
+        return aggregates[metric];
+    }
+
+    public MetricAggregate get(String metricName) {
+        int metric = metricNames.indexOf(metricName);
+        if(metric < 0) {
+            throw new IllegalArgumentException("Unknown metric " + metricName);
+        }
+        return aggregates[metric];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("PortfolioMetrics{");
+        for(int metric = 0; metric < aggregates.length; metric++) {
+            builder.append(metric == 0 ? "" : ", ").append(metricNames.get(metric)).append('=').append(aggregates[metric]);
+        }
+        return builder.append('}').toString();
+    }
+}
@@ -0,0 +1,111 @@
+package ai.clarity.portfolio;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Removes the shorts and normalizes the weights of many compositions in parallel, as
+ * {@link PortfolioComposition#removeShortsAndNormalizeWeights(PortfolioComposition)} does for one.
+ *
+ * The compositions are split in halves with the same number of holdings, not the same number of compositions,
+ * so a few huge portfolios don't end up in the same task. Idle workers of the pool steal the remaining halves.
+ * Each composition is normalized by a single thread with the same compensated summation as
+ * {@link PortfolioComposition#getTotalWeight()}, so the results are identical to normalizing them one by one.
+ */
+public class PortfolioNormalizer {
+
+    public static final int DEFAULT_HOLDINGS_PER_TASK = 20_000;
+
+    private final ForkJoinPool pool;
+    private final int holdingsPerTask;
+
+    public PortfolioNormalizer(ForkJoinPool pool, int holdingsPerTask) {
+        this.pool = pool;
+        this.holdingsPerTask = holdingsPerTask;
+    }
+
+    public PortfolioNormalizer() {
+        this(ForkJoinPool.commonPool(), DEFAULT_HOLDINGS_PER_TASK);
+    }
+
+    /**
+     * @return   The normalized compositions, in the same order. Compositions without shorts are returned as they
+     *           are, the rest are new compositions and the originals are not changed.
+     */
+    public List<PortfolioComposition> normalize(Collection<PortfolioComposition> compositions) {
+        PortfolioComposition[] sources = compositions.toArray(new PortfolioComposition[0]);
+        PortfolioComposition[] results = new PortfolioComposition[sources.length];
+        pool.invoke(new NormalizeTask(sources, results, cumulativeHoldings(sources), 0, sources.length));
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Normalize the compositions changing them, without creating new ones. Use it only for compositions that
+     * nobody else is reading.
+     */
+    public void normalizeInPlace(Collection<PortfolioComposition> compositions) {
+        PortfolioComposition[] sources = compositions.toArray(new PortfolioComposition[0]);
+        pool.invoke(new NormalizeTask(sources, null, cumulativeHoldings(sources), 0, sources.length));
+    }
+
+    /**
+     * Holdings of all the compositions before each one, plus the total at the end
+     */
+    private static long[] cumulativeHoldings(PortfolioComposition[] compositions) {
+        long[] cumulative = new long[compositions.length + 1];
+        for(int i = 0; i < compositions.length; i++) {
+            cumulative[i + 1] = cumulative[i] + compositions[i].size();
+        }
+        return cumulative;
+    }
+
+    private class NormalizeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PortfolioComposition[] sources;
+        private final PortfolioComposition[] results;
+        private final long[] cumulative;
+        private final int from;
+        private final int to;
+
+        NormalizeTask(PortfolioComposition[] sources, PortfolioComposition[] results, long[] cumulative,
+                      int from, int to) {
+            this.sources = sources;
+            this.results = results;
+            this.cumulative = cumulative;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= 1 || cumulative[to] - cumulative[from] <= holdingsPerTask) {
+                for(int i = from; i < to; i++) {
+                    if(results == null) {
+                        sources[i].removeShortsAndNormalizeWeightsInPlace();
+                    }
+                    else {
+                        results[i] = PortfolioComposition.removeShortsAndNormalizeWeights(sources[i]);
+                    }
+                }
+                return;
+            }
+            int middle = splitPoint();
+            invokeAll(new NormalizeTask(sources, results, cumulative, from, middle),
+                      new NormalizeTask(sources, results, cumulative, middle, to));
+        }
+
+        /**
+         * First composition of the second half, so both halves have about the same number of holdings
+         */
+        private int splitPoint() {
+            long half = (cumulative[from] + cumulative[to]) / 2;
+            int index = Arrays.binarySearch(cumulative, from, to + 1, half);
+            int middle = index >= 0 ? index : -index - 1;
+            return Math.min(Math.max(middle, from + 1), to - 1);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ai.clarity.portfolio;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Scores or metrics of a set of securities, like the results of an ESG or SFDR extract, with one value per
+ * security and metric. Missing values are stored as NaN.
+ */
+public class SecurityDataset {
+
+    private final List<String> metricNames;
+    private String[] securityIds = new String[16];
+    private double[] values;
+    private int size;
+
+    private SecurityDataset(List<String> metricNames) {
+        this.metricNames = Collections.unmodifiableList(List.copyOf(metricNames));
+        this.values = new double[securityIds.length * metricNames.size()];
+    }
+
+    public static SecurityDataset create(List<String> metricNames) {
+        return new SecurityDataset(metricNames);
+    }
+
+    /**
+     * @param values   One value per metric, in the order of {@link #getMetricNames()}
+     */
+    public SecurityDataset add(String securityId, double... values) {
+        if(values.length != metricNames.size()) {
+            throw new IllegalArgumentException("Expected " + metricNames.size() + " values for " + securityId
+                    + " but got " + values.length);
+        }
+        if(size == securityIds.length) {
+            securityIds = Arrays.copyOf(securityIds, size * 2);
+            this.values = Arrays.copyOf(this.values, securityIds.length * metricNames.size());
+        }
+        securityIds[size] = securityId;
+        System.arraycopy(values, 0, this.values, size * metricNames.size(), values.length);
+        size++;
+        return this;
+    }
+
+    public List<String> getMetricNames() { return metricNames; }
+
+    /**
+     * @return   The index of the metric, or -1 if the dataset doesn't have it
+     */
+    public int getMetricIndex(String metricName) {
+        return metricNames.indexOf(metricName);
+    }
+
+    /**
+     * Number of securities
+     */
+    public int size() { return size; }
+
+    public String getSecurityId(int row) {
+        return securityIds[row];
+    }
+
+    public double getValue(int row, int metric) {
+        return values[row * metricNames.size() + metric];
+    }
+
+    /**
+     * Values stored by security, all the metrics of a security together
+     */
+    double[] getValues() { return values; }
+}
@@ -0,0 +1,82 @@
+package ai.clarity.portfolio;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns a small int code to every security id, so compositions store an int per holding instead of a reference
+ * to a String, and each id is kept only once however many portfolios hold it.
+ *
+ * Codes are never reused nor removed. Compositions use {@link #shared()} unless created with their own dictionary,
+ * and {@link HoldingsLoader} creates one per file, so the ids of each file are released with its portfolios.
+ * The shared dictionary is only weakly held, so it's released too once no composition uses it.
+ */
+public class SecurityDictionary {
+
+    private static volatile WeakReference<SecurityDictionary> sharedDictionary = new WeakReference<>(null);
+
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private volatile String[] ids = new String[1024];
+    private int size;
+
+    /**
+     * Dictionary of the compositions created without one. It only grows while some composition uses it, and is
+     * released with its ids once none does, the next call starting a new one. The trade-off is that compositions
+     * created at different times may get different dictionaries, so they are joined (e.g. by
+     * {@link PortfolioAnalytics}) through an index each. Bulk loads should still use their own dictionary.
+     */
+    public static SecurityDictionary shared() {
+        SecurityDictionary dictionary = sharedDictionary.get();
+        if(dictionary != null) {
+            return dictionary;
+        }
+        synchronized(SecurityDictionary.class) {
+            dictionary = sharedDictionary.get();
+            if(dictionary == null) {
+                dictionary = new SecurityDictionary();
+                sharedDictionary = new WeakReference<>(dictionary);
+            }
+            return dictionary;
+        }
+    }
+
+    /**
+     * @return   The code of the security, adding it to the dictionary if it's new
+     */
+    public int codeOf(String securityId) {
+        Integer code = codes.get(securityId);
+        return code != null ? code : add(securityId);
+    }
+
+    /**
+     * @return   The code of the security, or -1 if it's not in the dictionary
+     */
+    public int find(String securityId) {
+        Integer code = codes.get(securityId);
+        return code != null ? code : -1;
+    }
+
+    public String idOf(int code) {
+        return ids[code];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int add(String securityId) {
+        Integer code = codes.get(securityId);
+        if(code != null) {
+            return code;
+        }
+        if(size == ids.length) {
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        // The id is stored before publishing its code, so whoever reads the code can read the id
+        ids[size] = securityId;
+        codes.put(securityId, size);
+        return size++;
+    }
+}
@@ -0,0 +1,148 @@
+package ai.clarity.portfolio;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class HoldingsLoaderTest {
+
+    @Test
+    void test_each_file_gets_its_own_dictionary_by_default() throws IOException {
+        Path file = createFile("PORTFOLIO_A,ISIN_1,100\n");
+        HoldingsLoader loader = new HoldingsLoader();
+
+        SecurityDictionary first = loader.load(file).get("PORTFOLIO_A").getDictionary();
+        SecurityDictionary second = loader.load(file).get("PORTFOLIO_A").getDictionary();
+
+        assertNotSame(SecurityDictionary.shared(), first);
+        assertNotSame(first, second);
+        assertEquals(1, first.size());
+    }
+
+    @Test
+    void test_load_file_with_header() throws IOException {
+        Path file = createFile("securityId,portfolioId,weight\r\n" +
+                               "ISIN_1,PORTFOLIO_A,60.5\r\n" +
+                               "ISIN_2,PORTFOLIO_A,39.5\r\n" +
+                               "ISIN_1,PORTFOLIO_B,100\r\n");
+
+        Map<String, PortfolioComposition> portfolios = new HoldingsLoader().load(file);
+
+        assertEquals(List.of("PORTFOLIO_A", "PORTFOLIO_B"), new ArrayList<>(portfolios.keySet()));
+        assertEquals(2, portfolios.get("PORTFOLIO_A").size());
+        assertEquals("ISIN_2", portfolios.get("PORTFOLIO_A").getSecurityId(1));
+        assertEquals(39.5, portfolios.get("PORTFOLIO_A").getWeight(1));
+        assertEquals(100, portfolios.get("PORTFOLIO_B").getTotalWeight());
+    }
+
+    @Test
+    void test_load_file_without_header_and_unsorted() throws IOException {
+        Path file = createFile("PORTFOLIO_A,ISIN_1,50\n" +
+                               "PORTFOLIO_B,ISIN_2,-1.5e1\n" +
+                               "PORTFOLIO_A,ISIN_3,50");
+
+        Map<String, PortfolioComposition> portfolios = new HoldingsLoader().load(file);
+
+        assertEquals(2, portfolios.get("PORTFOLIO_A").size());
+        assertEquals(100, portfolios.get("PORTFOLIO_A").getTotalWeight());
+        assertEquals(-15, portfolios.get("PORTFOLIO_B").getWeight(0));
+    }
+
+    @Test
+    void test_parallel_load_gives_the_same_portfolios() throws IOException {
+        Path file = createFile(randomHoldings(20_000));
+        HoldingsLoader loader = new HoldingsLoader(new SecurityDictionary(), 64);
+
+        Map<String, PortfolioComposition> expected = loader.load(file);
+        for(int chunks : new int[] {2, 3, 7, 16, 100}) {
+            Map<String, PortfolioComposition> portfolios = loader.loadParallel(file, chunks);
+
+            assertEquals(new ArrayList<>(expected.keySet()), new ArrayList<>(portfolios.keySet()));
+            for(String portfolioId : expected.keySet()) {
+                PortfolioComposition expectedComposition = expected.get(portfolioId);
+                PortfolioComposition composition = portfolios.get(portfolioId);
+                assertEquals(expectedComposition.size(), composition.size());
+                for(int i = 0; i < composition.size(); i++) {
+                    assertEquals(expectedComposition.getSecurityCode(i), composition.getSecurityCode(i));
+                    assertEquals(expectedComposition.getWeight(i), composition.getWeight(i));
+                }
+            }
+        }
+    }
+
+    @Test
+    void test_stream_portfolios_one_at_a_time() throws IOException {
+        Path file = createFile(randomHoldings(5_000));
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+
+        new HoldingsLoader().forEachPortfolio(file, (portfolioId, composition) -> sizes.put(portfolioId, composition.size()));
+
+        Map<String, PortfolioComposition> loaded = new HoldingsLoader().load(file);
+        assertEquals(loaded.size(), sizes.size());
+        loaded.forEach((portfolioId, composition) -> assertEquals(composition.size(), sizes.get(portfolioId)));
+    }
+
+    @Test
+    void test_malformed_line() throws IOException {
+        Path file = createFile("PORTFOLIO_A,ISIN_1,50\nPORTFOLIO_A\n");
+
+        assertThrows(RuntimeException.class, () -> new HoldingsLoader().load(file));
+    }
+
+    @Test
+    void test_empty_weight_reports_its_line() throws IOException {
+        Path file = createFile("portfolioId,securityId,weight\nPORTFOLIO_A,ISIN_1,50\nPORTFOLIO_A,ISIN_2, \n");
+
+        RuntimeException error = assertThrows(RuntimeException.class, () -> new HoldingsLoader().loadParallel(file, 2));
+
+        assertTrue(error.getMessage().contains("line 3"), error.getMessage());
+    }
+
+    @Test
+    void test_spaces_around_fields_are_ignored() throws IOException {
+        Path file = createFile("portfolioId, securityId, weight\nPORTFOLIO_A , ISIN_1 , 60\n PORTFOLIO_A,\tISIN_2,40 \n");
+
+        PortfolioComposition composition = new HoldingsLoader().load(file).get("PORTFOLIO_A");
+
+        assertEquals(2, composition.size());
+        assertEquals("ISIN_1", composition.getSecurityId(0));
+        assertEquals("ISIN_2", composition.getSecurityId(1));
+        assertEquals(100, composition.getTotalWeight());
+    }
+
+    /**
+     * Holdings sorted by portfolio, with portfolios of very different sizes
+     */
+    private static String randomHoldings(int lines) {
+        Random random = new Random(7);
+        StringBuilder holdings = new StringBuilder("portfolioId,securityId,weight\n");
+        int portfolio = 0;
+        for(int line = 0; line < lines; line++) {
+            if(random.nextInt(50) == 0) {
+                portfolio++;
+            }
+            holdings.append("PORTFOLIO_").append(portfolio).append(',')
+                    .append("ISIN_").append(random.nextInt(1000)).append(',')
+                    .append(random.nextInt(10_000) / 100.0).append('\n');
+        }
+        return holdings.toString();
+    }
+
+    private static Path createFile(String content) throws IOException {
+        Path file = Files.createTempFile("holdings", ".csv");
+        Files.writeString(file, content);
+        return file;
+    }
+}
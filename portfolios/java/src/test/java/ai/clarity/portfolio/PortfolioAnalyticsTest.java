@@ -0,0 +1,100 @@
+package ai.clarity.portfolio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PortfolioAnalyticsTest {
+
+    private static final SecurityDataset DATASET = SecurityDataset.create(List.of("CARBON_FOOTPRINT", "GHG_INTENSITY"))
+            .add("ISIN_1", 100, 10)
+            .add("ISIN_2", 200, Double.NaN)
+            .add("ISIN_3", 300, 30);
+
+    @Test
+    void test_weighted_aggregates() {
+        PortfolioComposition composition = PortfolioComposition.create().add("ISIN_1", 50)
+                .add("ISIN_2", 25)
+                .add("ISIN_4", 25);
+
+        PortfolioMetrics metrics = new PortfolioAnalytics(DATASET).compute(composition);
+
+        MetricAggregate carbon = metrics.get("CARBON_FOOTPRINT");
+        assertEquals(0.75, carbon.coverage());
+        assertEquals((50 * 100 + 25 * 200) / 75.0, carbon.weightedAverage(), 1e-9);
+        assertEquals((50 * 100 + 25 * 200) / 100.0, carbon.contribution(), 1e-9);
+
+        MetricAggregate ghg = metrics.get("GHG_INTENSITY");
+        assertEquals(0.5, ghg.coverage());
+        assertEquals(10, ghg.weightedAverage(), 1e-9);
+    }
+
+    @Test
+    void test_shorts_are_removed_before_aggregating() {
+        PortfolioComposition composition = PortfolioComposition.create().add("ISIN_1", 60)
+                .add("ISIN_3", 60)
+                .add("ISIN_2", -20);
+
+        PortfolioMetrics metrics = new PortfolioAnalytics(DATASET).compute(composition);
+
+        assertEquals(1, metrics.get("CARBON_FOOTPRINT").coverage(), 1e-12);
+        assertEquals(200, metrics.get("CARBON_FOOTPRINT").weightedAverage(), 1e-9);
+        assertEquals(3, composition.size());
+    }
+
+    @Test
+    void test_many_portfolios_in_parallel() {
+        Map<String, PortfolioComposition> portfolios = new LinkedHashMap<>();
+        for(int i = 0; i < 1000; i++) {
+            portfolios.put("PORTFOLIO_" + i, PortfolioComposition.create().add("ISIN_" + (i % 3 + 1), 100));
+        }
+
+        Map<String, PortfolioMetrics> results = new PortfolioAnalytics(DATASET).computeAll(portfolios);
+
+        assertEquals(1000, results.size());
+        assertEquals("PORTFOLIO_0", results.keySet().iterator().next());
+        assertEquals(200, results.get("PORTFOLIO_1").get("CARBON_FOOTPRINT").weightedAverage());
+        assertTrue(Double.isNaN(results.get("PORTFOLIO_1").get("GHG_INTENSITY").weightedAverage()));
+        assertEquals(30, results.get("PORTFOLIO_2").get("GHG_INTENSITY").contribution());
+    }
+
+    @Test
+    void test_compositions_with_their_own_dictionary() {
+        PortfolioComposition composition = PortfolioComposition.create(2, new SecurityDictionary())
+                .add("ISIN_5", 50)
+                .add("ISIN_3", 50);
+
+        PortfolioMetrics metrics = new PortfolioAnalytics(DATASET).compute(composition);
+
+        assertEquals(0.5, metrics.get("CARBON_FOOTPRINT").coverage());
+        assertEquals(300, metrics.get("CARBON_FOOTPRINT").weightedAverage());
+    }
+
+    @Test
+    void test_dataset_securities_are_not_added_to_the_dictionary() {
+        SecurityDictionary dictionary = new SecurityDictionary();
+        PortfolioAnalytics analytics = new PortfolioAnalytics(DATASET);
+
+        analytics.compute(PortfolioComposition.create(1, dictionary).add("ISIN_1", 100));
+
+        assertEquals(1, dictionary.size());
+        assertEquals(-1, dictionary.find("ISIN_3"));
+    }
+
+    @Test
+    void test_securities_added_to_the_dictionary_after_the_first_compute() {
+        SecurityDictionary dictionary = new SecurityDictionary();
+        PortfolioAnalytics analytics = new PortfolioAnalytics(DATASET);
+        analytics.compute(PortfolioComposition.create(1, dictionary).add("ISIN_1", 100));
+
+        PortfolioMetrics metrics = analytics.compute(PortfolioComposition.create(1, dictionary).add("ISIN_3", 100));
+
+        assertEquals(1, metrics.get("CARBON_FOOTPRINT").coverage());
+        assertEquals(300, metrics.get("CARBON_FOOTPRINT").weightedAverage());
+    }
+}
@@ -2,7 +2,10 @@ package ai.clarity.portfolio;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 public class PortfolioCompositionTest {
 
@@ -56,4 +59,82 @@ public class PortfolioCompositionTest {
         assertEquals(composition, newComposition);
     }
 
+    @Test
+    void test_remove_shorts_and_normalize_in_place() {
+        PortfolioComposition composition = PortfolioComposition.create().add("ISIN_1", 23.45)
+                .add("ISIN_2", 11.55)
+                .add("ISIN_3", -21)
+                .add("ISIN_4", 33)
+                .add("ISIN_5", 53);
+
+        PortfolioComposition normalized = composition.removeShortsAndNormalizeWeightsInPlace();
+
+        assertSame(composition, normalized);
+        assertEquals(4, composition.size());
+        assertEquals("ISIN_4", composition.getSecurityId(2));
+        assertEquals(33 * 100 / 121.0, composition.getWeight(2));
+        assertEquals(100, composition.getTotalWeight());
+    }
+
+    @Test
+    void test_remove_shorts_and_normalize_keeps_the_original() {
+        PortfolioComposition composition = PortfolioComposition.create().add("ISIN_1", 60)
+                .add("ISIN_2", -10)
+                .add("ISIN_3", 50);
+
+        PortfolioComposition newComposition = PortfolioComposition.removeShortsAndNormalizeWeights(composition);
+
+        assertEquals(3, composition.size());
+        assertEquals(-10, composition.getWeight(1));
+        assertEquals(2, newComposition.size());
+        assertEquals("ISIN_3", newComposition.getSecurityId(1));
+    }
+
+    @Test
+    void test_large_portfolio_shares_security_ids() {
+        SecurityDictionary dictionary = new SecurityDictionary();
+        PortfolioComposition first = PortfolioComposition.create(100_000, dictionary);
+        PortfolioComposition second = PortfolioComposition.create(10, dictionary);
+        for(int i = 0; i < 100_000; i++) {
+            first.add("ISIN_" + i, 0.001);
+            second.add("ISIN_" + i, i % 2 == 0 ? 0.002 : -0.002);
+        }
+
+        assertEquals(100_000, dictionary.size());
+        assertEquals(first.getSecurityCode(123), second.getSecurityCode(123));
+        assertEquals(100, first.getTotalWeight(), 1e-9);
+
+        second.removeShortsAndNormalizeWeightsInPlace();
+        assertEquals(50_000, second.size());
+        assertEquals(100, second.getTotalWeight(), 1e-9);
+    }
+
+    @Test
+    void test_distinct_security_ids_of_several_portfolios() {
+        SecurityDictionary otherDictionary = new SecurityDictionary();
+        PortfolioComposition first = PortfolioComposition.create()
+                .add("ISIN_1", 50)
+                .add("ISIN_2", 50);
+        PortfolioComposition second = PortfolioComposition.create()
+                .add("ISIN_2", 30)
+                .add("ISIN_3", 70);
+        PortfolioComposition third = PortfolioComposition.create(2, otherDictionary)
+                .add("ISIN_3", 100)
+                .add("ISIN_4", 0);
+
+        List<String> securityIds = PortfolioComposition.distinctSecurityIds(List.of(first, second, third));
+
+        assertEquals(List.of("ISIN_1", "ISIN_2", "ISIN_3", "ISIN_4"), securityIds);
+    }
+
+    @Test
+    void test_compositions_in_use_share_the_default_dictionary() {
+        PortfolioComposition first = PortfolioComposition.create().add("ISIN_1", 100);
+        PortfolioComposition second = PortfolioComposition.create(1).add("ISIN_1", 100);
+
+        assertSame(first.getDictionary(), second.getDictionary());
+        assertSame(SecurityDictionary.shared(), first.getDictionary());
+        assertEquals(first.getSecurityCode(0), second.getSecurityCode(0));
+    }
+
 }
@@ -0,0 +1,91 @@
+package ai.clarity.portfolio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PortfolioNormalizerTest {
+
+    @Test
+    void test_normalize_many_portfolios() {
+        List<PortfolioComposition> compositions = randomCompositions(5000);
+
+        List<PortfolioComposition> normalized = new PortfolioNormalizer(ForkJoinPool.commonPool(), 1000)
+                .normalize(compositions);
+
+        assertEquals(compositions.size(), normalized.size());
+        for(int i = 0; i < compositions.size(); i++) {
+            PortfolioComposition serial = PortfolioComposition.removeShortsAndNormalizeWeights(compositions.get(i));
+            assertEquals(serial.size(), normalized.get(i).size());
+            assertEquals(serial.getTotalWeight(), normalized.get(i).getTotalWeight());
+        }
+    }
+
+    @Test
+    void test_compositions_without_shorts_are_not_copied() {
+        PortfolioComposition composition = PortfolioComposition.create().add("ISIN_1", 40).add("ISIN_2", 60);
+
+        List<PortfolioComposition> normalized = new PortfolioNormalizer().normalize(List.of(composition));
+
+        assertSame(composition, normalized.get(0));
+    }
+
+    @Test
+    void test_normalize_in_place() {
+        List<PortfolioComposition> compositions = randomCompositions(2000);
+        List<Double> expectedTotals = new ArrayList<>();
+        for(PortfolioComposition composition : compositions) {
+            expectedTotals.add(PortfolioComposition.removeShortsAndNormalizeWeights(composition).getTotalWeight());
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        new PortfolioNormalizer(pool, 500).normalizeInPlace(compositions);
+        pool.shutdown();
+
+        for(int i = 0; i < compositions.size(); i++) {
+            PortfolioComposition composition = compositions.get(i);
+            assertEquals(expectedTotals.get(i), composition.getTotalWeight());
+            for(int holding = 0; holding < composition.size(); holding++) {
+                assertTrue(composition.getWeight(holding) > 0);
+            }
+        }
+    }
+
+    @Test
+    void test_one_huge_portfolio_among_small_ones() {
+        List<PortfolioComposition> compositions = randomCompositions(100);
+        PortfolioComposition huge = PortfolioComposition.create(200_000);
+        for(int i = 0; i < 200_000; i++) {
+            huge.add("ISIN_" + i, i % 10 == 0 ? -0.001 : 0.001);
+        }
+        compositions.add(50, huge);
+
+        List<PortfolioComposition> normalized = new PortfolioNormalizer(ForkJoinPool.commonPool(), 1000)
+                .normalize(compositions);
+
+        assertEquals(180_000, normalized.get(50).size());
+        assertEquals(100, normalized.get(50).getTotalWeight(), 1e-9);
+        assertEquals(200_000, huge.size());
+    }
+
+    private static List<PortfolioComposition> randomCompositions(int count) {
+        Random random = new Random(42);
+        List<PortfolioComposition> compositions = new ArrayList<>();
+        for(int i = 0; i < count; i++) {
+            int holdings = 1 + random.nextInt(200);
+            PortfolioComposition composition = PortfolioComposition.create(holdings);
+            for(int holding = 0; holding < holdings; holding++) {
+                composition.add("ISIN_" + random.nextInt(10_000), random.nextDouble() * 10 - 1);
+            }
+            compositions.add(composition);
+        }
+        return compositions;
+    }
+}